@@ -15,6 +15,7 @@ import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
 import java.util.regex.Pattern;
 
 import org.omegazero.common.config.ConfigArray;
@@ -29,6 +30,16 @@ public class CacheConfig {
 	private static final int[] CACHEABLE_STATUSES_DEFAULT = new int[] { 200, 203, 204, 300, 301, 308, 404, 405, 410, 414, 501 };
 	private static final int[] CACHEABLE_STATUSES;
 
+	/**
+	 * The names of all properties of configuration objects that are read by {@link #from(ConfigObject, CacheConfig)}.
+	 *
+	 * @since 1.5
+	 */
+	public static final Set<String> PROPERTY_NAMES = Set.of("enable", "overrides", "inherit", "hostname", "path", "defaultMaxAge", "maxAgeOverride",
+			"maxAgeOverrideCacheableOnly", "ignoreClientRefresh", "ignoreClientRefreshIfImmutable", "maxResourceSize", "purgeKey", "propagatePurgeRequest",
+			"wildcardPurgeEnabled", "keyStripParams", "keyIncludeParams", "keySortParams", "keyFoldHead", "keyAuthority", "staleIfSlow", "staleIfSlowMaxStale",
+			"heuristicFreshnessFactor", "heuristicFreshnessMax", "earlyRefreshBeta", "priority", "immutablePriorityBonus", "earlyHints", "esi");
+
 
 	private CacheConfigOverride defOverride;
 	private final List<CacheConfigOverride> overrides = new ArrayList<>();
@@ -38,8 +49,18 @@ public class CacheConfig {
 
 
 	public CacheConfigOverride getOverride(HTTPRequest request) {
-		String host = request.getAuthority();
-		String path = request.getPath();
+		return this.getOverride(request.getAuthority(), request.getPath());
+	}
+
+	/**
+	 * Returns the {@link CacheConfigOverride} that applies to the given <b>host</b> and <b>path</b>.
+	 *
+	 * @param host The request authority
+	 * @param path The request path
+	 * @return The override, or <code>null</code> if caching is disabled
+	 * @since 1.5
+	 */
+	public CacheConfigOverride getOverride(String host, String path) {
 		if(host == null)
 			host = "";
 		for(CacheConfigOverride override : this.overrides){
@@ -50,6 +71,25 @@ public class CacheConfig {
 		return null;
 	}
 
+	/**
+	 * Returns the normalized cache key of a resource using the key rules of the applicable {@link CacheConfigOverride}.
+	 *
+	 * @param method The request method
+	 * @param scheme The request scheme
+	 * @param authority The request authority
+	 * @param path The request path, including the query string
+	 * @return The cache key
+	 * @since 1.5
+	 * @see CacheConfigOverride#getCacheKey(String, String, String, String)
+	 */
+	public String getCacheKey(String method, String scheme, String authority, String path) {
+		CacheConfigOverride override = this.getOverride(authority, path);
+		if(override != null)
+			return override.getCacheKey(method, scheme, authority, path);
+		else
+			return CachePlugin.getCacheKey(method, scheme, authority, path);
+	}
+
 	/**
 	 * Determines several cache properties of the given <b>response</b> based on HTTP headers and this configuration.
 	 * 
@@ -111,7 +151,7 @@ public class CacheConfig {
 			else if(params.getMaxAge() >= 0)
 				maxAge = params.getMaxAge();
 			else if(statusCacheable || (params.getFlags() & CacheControlParameters.PUBLIC) != 0)
-				maxAge = override.defaultMaxAge;
+				maxAge = CacheConfig.getHeuristicMaxAge(response, override);
 
 			if(override.maxAgeOverride >= 0 && (!override.maxAgeOverrideCacheableOnly || maxAge > 0))
 				maxAge = override.maxAgeOverride;
@@ -120,7 +160,7 @@ public class CacheConfig {
 
 			maxStaleIfError = params.getMaxStaleIfError();
 		}else if(statusCacheable)
-			maxAge = override.defaultMaxAge;
+			maxAge = CacheConfig.getHeuristicMaxAge(response, override);
 		if(maxAge <= 0)
 			return null;
 
@@ -136,6 +176,24 @@ public class CacheConfig {
 		return new CacheEntry.Properties(override, maxAge, maxStaleIfError, immutable, varyValues);
 	}
 
+	/**
+	 * Returns the max age of a response without explicit freshness information. If heuristic freshness is enabled and the response has a <i>Last-Modified</i> header,
+	 * this is the configured fraction of the time since the last modification, up to the configured maximum. Otherwise, this is the configured default max age.
+	 */
+	private static int getHeuristicMaxAge(HTTPResponse response, CacheConfigOverride override) {
+		if(override.heuristicFreshnessFactor > 0 && !response.headerExists("expires")){
+			long lastModified = HTTPDateUtil.parse(response.getHeader("last-modified"));
+			if(lastModified >= 0){
+				long date = HTTPDateUtil.parse(response.getHeader("date"));
+				if(date < 0)
+					date = System.currentTimeMillis();
+				if(date > lastModified)
+					return (int) Math.min(override.heuristicFreshnessMax, (date - lastModified) / 1000 * override.heuristicFreshnessFactor);
+			}
+		}
+		return override.defaultMaxAge;
+	}
+
 	/**
 	 * Checks if the response in the given cache entry may be used as a response to the given <b>request</b> based on this configuration. This method does not check if the
 	 * cache entry represents the resource requested.
@@ -158,6 +216,11 @@ public class CacheConfig {
 			return cfg;
 		}
 
+		// a shared key authority is only safe if requests for it are limited to specific hostnames, either by the override or by the virtual host
+		boolean hostRestricted = configParent != null;
+		if(!hostRestricted && obj.optString("keyAuthority", null) != null)
+			throw new IllegalArgumentException("'keyAuthority' may only be set in overrides with a 'hostname' or in the cache configuration of a virtual host");
+
 		CacheConfigOverride defOverride = CacheConfig.genOverride(".*", ".*", obj, configParent != null ? configParent.defOverride : null);
 
 		ConfigArray array = obj.optArray("overrides");
@@ -168,6 +231,8 @@ public class CacheConfig {
 				ConfigObject oobj = (ConfigObject) ao;
 				CacheConfigOverride parent = oobj.optBoolean("inherit", true) ? defOverride : null;
 				String host = oobj.optString("hostname", ".*");
+				if(!hostRestricted && host.equals(".*") && oobj.optString("keyAuthority", null) != null)
+					throw new IllegalArgumentException("'keyAuthority' may only be set in overrides with a 'hostname' or in the cache configuration of a virtual host");
 				Object po = oobj.get("path");
 				if(po instanceof ConfigArray){
 					for(Object p : (ConfigArray) po){
@@ -193,14 +258,54 @@ public class CacheConfig {
 					obj.optInt("maxAgeOverride", parent.maxAgeOverride), obj.optBoolean("maxAgeOverrideCacheableOnly", parent.maxAgeOverrideCacheableOnly),
 					obj.optBoolean("ignoreClientRefresh", parent.ignoreClientRefresh), obj.optBoolean("ignoreClientRefreshIfImmutable", parent.ignoreClientRefreshIfImmutable),
 					obj.optInt("maxResourceSize", parent.maxResourceSize), obj.optString("purgeKey", parent.purgeKey),
-					obj.optBoolean("propagatePurgeRequest", parent.propagatePurgeRequest), obj.optBoolean("wildcardPurgeEnabled", parent.wildcardPurgeEnabled));
+					obj.optBoolean("propagatePurgeRequest", parent.propagatePurgeRequest), obj.optBoolean("wildcardPurgeEnabled", parent.wildcardPurgeEnabled),
+					CacheConfig.optPatternList(obj, "keyStripParams", parent.keyStripParams), CacheConfig.optPatternList(obj, "keyIncludeParams", parent.keyIncludeParams),
+					obj.optBoolean("keySortParams", parent.keySortParams), obj.optBoolean("keyFoldHead", parent.keyFoldHead),
+					obj.optString("keyAuthority", parent.keyAuthority), obj.optInt("staleIfSlow", parent.staleIfSlow),
+					obj.optInt("staleIfSlowMaxStale", parent.staleIfSlowMaxStale),
+					CacheConfig.optDouble(obj, "heuristicFreshnessFactor", parent.heuristicFreshnessFactor), obj.optInt("heuristicFreshnessMax", parent.heuristicFreshnessMax),
+					CacheConfig.optDouble(obj, "earlyRefreshBeta", parent.earlyRefreshBeta), obj.optInt("priority", parent.priority),
+					obj.optInt("immutablePriorityBonus", parent.immutablePriorityBonus), obj.optBoolean("earlyHints", parent.earlyHints), obj.optBoolean("esi", parent.esi));
 		}else{
 			return new CacheConfigOverride(Pattern.compile(host), Pattern.compile(path), obj.optInt("defaultMaxAge", 0), obj.optInt("maxAgeOverride", -1),
 					obj.optBoolean("maxAgeOverrideCacheableOnly", false), obj.optBoolean("ignoreClientRefresh", false),
 					obj.optBoolean("ignoreClientRefreshIfImmutable", false), obj.optInt("maxResourceSize", 0x100000 /* 1MiB */),
 					obj.optString("purgeKey", null) /* default null = disable PURGE */, obj.optBoolean("propagatePurgeRequest", false),
-					obj.optBoolean("wildcardPurgeEnabled", false));
+					obj.optBoolean("wildcardPurgeEnabled", false), CacheConfig.optPatternList(obj, "keyStripParams", null),
+					CacheConfig.optPatternList(obj, "keyIncludeParams", null), obj.optBoolean("keySortParams", false), obj.optBoolean("keyFoldHead", false),
+					obj.optString("keyAuthority", null), obj.optInt("staleIfSlow", 0), obj.optInt("staleIfSlowMaxStale", 60),
+					CacheConfig.optDouble(obj, "heuristicFreshnessFactor", 0),
+					obj.optInt("heuristicFreshnessMax", 86400), CacheConfig.optDouble(obj, "earlyRefreshBeta", 0), obj.optInt("priority", 0),
+					obj.optInt("immutablePriorityBonus", 0), obj.optBoolean("earlyHints", false), obj.optBoolean("esi", false));
+		}
+	}
+
+	private static double optDouble(ConfigObject obj, String key, double def) {
+		Object o = obj.get(key);
+		if(o == null)
+			return def;
+		if(!(o instanceof Number))
+			throw new IllegalArgumentException("'" + key + "' must be a number");
+		return ((Number) o).doubleValue();
+	}
+
+	private static Pattern optPatternList(ConfigObject obj, String key, Pattern def) {
+		Object o = obj.get(key);
+		if(o == null)
+			return def;
+		if(o instanceof String)
+			return Pattern.compile((String) o);
+		if(!(o instanceof ConfigArray))
+			throw new IllegalArgumentException("'" + key + "' must either be a string or an array");
+		StringBuilder sb = new StringBuilder();
+		for(Object p : (ConfigArray) o){
+			if(!(p instanceof String))
+				throw new IllegalArgumentException("Values in '" + key + "' array must be strings");
+			if(sb.length() > 0)
+				sb.append('|');
+			sb.append("(?:").append((String) p).append(')');
 		}
+		return Pattern.compile(sb.toString());
 	}
 
 
@@ -220,8 +325,32 @@ public class CacheConfig {
 		public final boolean propagatePurgeRequest;
 		public final boolean wildcardPurgeEnabled;
 
+		public final Pattern keyStripParams;
+		public final Pattern keyIncludeParams;
+		public final boolean keySortParams;
+		public final boolean keyFoldHead;
+		public final String keyAuthority;
+
+		public final int staleIfSlow;
+		public final int staleIfSlowMaxStale;
+
+		public final double heuristicFreshnessFactor;
+		public final int heuristicFreshnessMax;
+
+		public final double earlyRefreshBeta;
+
+		public final int priority;
+		public final int immutablePriorityBonus;
+
+		public final boolean earlyHints;
+
+		public final boolean esi;
+
 		CacheConfigOverride(Pattern hostMatcher, Pattern pathMatcher, int defaultMaxAge, int maxAgeOverride, boolean maxAgeOverrideCacheableOnly, boolean ignoreClientRefresh,
-				boolean ignoreClientRefreshIfImmutable, int maxResourceSize, String purgeKey, boolean propagatePurgeRequest, boolean wildcardPurgeEnabled) {
+				boolean ignoreClientRefreshIfImmutable, int maxResourceSize, String purgeKey, boolean propagatePurgeRequest, boolean wildcardPurgeEnabled,
+				Pattern keyStripParams, Pattern keyIncludeParams, boolean keySortParams, boolean keyFoldHead, String keyAuthority, int staleIfSlow,
+				int staleIfSlowMaxStale, double heuristicFreshnessFactor, int heuristicFreshnessMax, double earlyRefreshBeta, int priority, int immutablePriorityBonus, boolean earlyHints,
+				boolean esi) {
 			this.hostMatcher = hostMatcher;
 			this.pathMatcher = pathMatcher;
 			this.defaultMaxAge = defaultMaxAge;
@@ -233,6 +362,68 @@ public class CacheConfig {
 			this.purgeKey = purgeKey;
 			this.propagatePurgeRequest = propagatePurgeRequest;
 			this.wildcardPurgeEnabled = wildcardPurgeEnabled;
+			this.keyStripParams = keyStripParams;
+			this.keyIncludeParams = keyIncludeParams;
+			this.keySortParams = keySortParams;
+			this.keyFoldHead = keyFoldHead;
+			this.keyAuthority = keyAuthority;
+			this.staleIfSlow = staleIfSlow;
+			this.staleIfSlowMaxStale = staleIfSlowMaxStale;
+			this.heuristicFreshnessFactor = heuristicFreshnessFactor;
+			this.heuristicFreshnessMax = heuristicFreshnessMax;
+			this.earlyRefreshBeta = earlyRefreshBeta;
+			this.priority = priority;
+			this.immutablePriorityBonus = immutablePriorityBonus;
+			this.earlyHints = earlyHints;
+			this.esi = esi;
+		}
+
+
+		/**
+		 * Returns the cache key of a resource after applying the key rules of this configuration: <code>HEAD</code> requests use the key of <code>GET</code> requests if
+		 * <code>keyFoldHead</code> is set, the authority is replaced with <code>keyAuthority</code> if set, and the query string is filtered and sorted.
+		 *
+		 * @param method The request method
+		 * @param scheme The request scheme
+		 * @param authority The request authority
+		 * @param path The request path, including the query string
+		 * @return The cache key
+		 */
+		public String getCacheKey(String method, String scheme, String authority, String path) {
+			if(this.keyFoldHead && method.equals("HEAD"))
+				method = "GET";
+			if(this.keyAuthority != null)
+				authority = this.keyAuthority;
+			return CachePlugin.getCacheKey(method, scheme, authority, this.normalizePath(path));
+		}
+
+		private String normalizePath(String path) {
+			if(this.keyStripParams == null && this.keyIncludeParams == null && !this.keySortParams)
+				return path;
+			int queryStart = path.indexOf('?');
+			if(queryStart < 0)
+				return path;
+			List<String> params = new ArrayList<>();
+			for(String param : path.substring(queryStart + 1).split("&")){
+				if(param.isEmpty())
+					continue;
+				String name = paramName(param);
+				if(this.keyIncludeParams != null && !this.keyIncludeParams.matcher(name).matches())
+					continue;
+				if(this.keyStripParams != null && this.keyStripParams.matcher(name).matches())
+					continue;
+				params.add(param);
+			}
+			if(this.keySortParams) // by name only, the order of parameters with the same name is kept because it may be significant to the origin server
+				params.sort(java.util.Comparator.comparing(CacheConfigOverride::paramName));
+			if(params.isEmpty())
+				return path.substring(0, queryStart);
+			return path.substring(0, queryStart + 1) + String.join("&", params);
+		}
+
+		private static String paramName(String param) {
+			int nameEnd = param.indexOf('=');
+			return nameEnd >= 0 ? param.substring(0, nameEnd) : param;
 		}
 	}
 
@@ -11,7 +11,10 @@
  */
 package org.omegazero.proxyaccelerator.cache;
 
+import java.util.HashMap;
+import java.util.HashSet;
 import java.util.Map;
+import java.util.Set;
 
 import org.omegazero.http.common.HTTPMessage;
 import org.omegazero.http.common.HTTPRequest;
@@ -22,7 +25,8 @@ public class CacheEntry implements java.io.Serializable {
 	private static final long serialVersionUID = 1L;
 
 	private final HTTPResponse response;
-	private final byte[] responseData;
+	private byte[] responseData;
+	private final String dataEncoding;
 	private final long expiresAt;
 	private final int correctedAgeValue;
 	private final Properties properties;
@@ -30,6 +34,8 @@ public class CacheEntry implements java.io.Serializable {
 	private final long creationTime;
 
 	private int hits;
+	private int fillTime;
+	private transient long size;
 
 	public CacheEntry(HTTPResponse response, byte[] responseData, long expiresAt, int correctedAgeValue, Properties properties) {
 		this.response = response;
@@ -37,8 +43,33 @@ public class CacheEntry implements java.io.Serializable {
 		this.expiresAt = expiresAt;
 		this.correctedAgeValue = correctedAgeValue;
 		this.properties = properties;
+		this.dataEncoding = null;
 
 		this.creationTime = CachePlugin.time();
+		this.size = CachePlugin.getCacheEntryWeigher().weigh(this);
+	}
+
+	/**
+	 * Creates a copy of the given <b>entry</b> with a different representation of the response body.
+	 *
+	 * @param entry The original cache entry
+	 * @param responseData The response body, encoded using <b>dataEncoding</b>
+	 * @param dataEncoding The content encoding of <b>responseData</b> that is not declared in the response headers, or <code>null</code> if the data is not encoded
+	 * @since 1.5
+	 * @see CompressionUtil
+	 */
+	public CacheEntry(CacheEntry entry, byte[] responseData, String dataEncoding) {
+		this.response = entry.response;
+		this.responseData = responseData;
+		this.expiresAt = entry.expiresAt;
+		this.correctedAgeValue = entry.correctedAgeValue;
+		this.properties = entry.properties;
+		this.dataEncoding = dataEncoding;
+
+		this.creationTime = entry.creationTime;
+		this.hits = entry.hits;
+		this.fillTime = entry.fillTime;
+		this.size = CachePlugin.getCacheEntryWeigher().weigh(this);
 	}
 
 
@@ -65,6 +96,23 @@ public class CacheEntry implements java.io.Serializable {
 	 * @see CacheConfig#isUsable(HTTPMessage, CacheEntry)
 	 */
 	public boolean isUsableFor(HTTPRequest request, boolean error) {
+		return this.isUsableFor(request, error, this.getProperties().maxStaleIfError);
+	}
+
+	/**
+	 * Checks if this <code>CacheEntry</code> is suitable to be used as a response to the given <b>request</b>, like {@link #isUsableFor(HTTPRequest, boolean)}, but allows
+	 * this entry to be used if it has been stale for less than <b>maxStale</b> seconds instead of the limit set by the <i>stale-if-error</i> response directive.
+	 *
+	 * @param request The request
+	 * @param maxStale The number of seconds this entry may be used after it became stale
+	 * @return <code>true</code> if this entry is suitable to be used as a response to the given <b>request</b>
+	 * @since 1.5
+	 */
+	public boolean isUsableStaleFor(HTTPRequest request, int maxStale) {
+		return this.isUsableFor(request, true, maxStale);
+	}
+
+	private boolean isUsableFor(HTTPRequest request, boolean stale, int maxStale) {
 		if(!this.isVaryMatching(request))
 			return false;
 
@@ -73,7 +121,7 @@ public class CacheEntry implements java.io.Serializable {
 
 		long freshRemaining = this.freshRemaining();
 
-		if(error && -freshRemaining < this.getProperties().maxStaleIfError)
+		if(stale && -freshRemaining < maxStale)
 			return true;
 
 		String cacheControl = request.getHeader("cache-control");
@@ -112,12 +160,15 @@ public class CacheEntry implements java.io.Serializable {
 	}
 
 	/**
-	 * Returns a rough estimation of the amount of memory this cache entry uses in bytes.
+	 * Returns an estimation of the amount of memory this cache entry uses in bytes. The value is computed once using the configured {@link CacheEntryWeigher}.
 	 * 
 	 * @return The used memory in bytes
+	 * @see CachePlugin#setCacheEntryWeigher(CacheEntryWeigher)
 	 */
 	public long getSize() {
-		return 8192 + this.responseData.length + this.properties.getVaryValuesSize() * 128 + 48;
+		if(this.size <= 0) // transient field is not restored when deserialized
+			this.size = CachePlugin.getCacheEntryWeigher().weigh(this);
+		return this.size;
 	}
 
 	/**
@@ -147,6 +198,44 @@ public class CacheEntry implements java.io.Serializable {
 		return this.responseData;
 	}
 
+	/**
+	 * Returns the content encoding of the stored response body, which is not declared in the response headers. If not <code>null</code>, the data returned by
+	 * {@link #getResponseData()} must be decoded before it can be sent as a response to a client that does not accept this encoding.
+	 *
+	 * @return The content encoding of the response data, or <code>null</code> if the data is stored as received from the origin server
+	 * @since 1.5
+	 */
+	public String getDataEncoding() {
+		return this.dataEncoding;
+	}
+
+	/**
+	 * Returns the response body as received from the origin server, decoding the stored data if necessary.
+	 *
+	 * @return The response body
+	 * @since 1.5
+	 * @see #getDataEncoding()
+	 */
+	public byte[] getDecodedResponseData() {
+		if(this.dataEncoding == null)
+			return this.responseData;
+		return CompressionUtil.decompress(this.responseData, this.dataEncoding);
+	}
+
+	/**
+	 * Replaces the response body array of this entry with the given array, which must have the same content. Used for sharing identical response bodies between entries.
+	 *
+	 * @param responseData The new response body array
+	 * @throws IllegalArgumentException If the content of the given array is not equal to the current response body
+	 * @since 1.5
+	 * @see ContentStore
+	 */
+	public void replaceResponseData(byte[] responseData) {
+		if(!java.util.Arrays.equals(this.responseData, responseData))
+			throw new IllegalArgumentException("Response data content differs");
+		this.responseData = responseData;
+	}
+
 	public long getExpiresAt() {
 		return this.expiresAt;
 	}
@@ -167,6 +256,27 @@ public class CacheEntry implements java.io.Serializable {
 		return this.hits;
 	}
 
+	/**
+	 * Returns the time it took to receive the response of this entry from the origin server.
+	 *
+	 * @return The fill time in milliseconds, or <code>0</code> if unknown
+	 * @since 1.5
+	 */
+	public int getFillTime() {
+		return this.fillTime;
+	}
+
+	/**
+	 * Sets the time it took to receive the response of this entry from the origin server.
+	 *
+	 * @param fillTime The fill time in milliseconds
+	 * @since 1.5
+	 * @see #getFillTime()
+	 */
+	public void setFillTime(int fillTime) {
+		this.fillTime = fillTime;
+	}
+
 
 	public static class Properties implements java.io.Serializable {
 
@@ -177,20 +287,47 @@ public class CacheEntry implements java.io.Serializable {
 
 		public final int maxAge;
 		public final int maxStaleIfError;
+		public final int priority;
 		private final Map<String, String> varyValues;
-
+		private final Set<String> normalizedHeaders;
+
+		/**
+		 * Creates a new {@link Properties} object.
+		 * <p>
+		 * Values in <b>varyValues</b> of headers for which a {@link VaryNormalizer} is registered are replaced with the normalized value.
+		 *
+		 * @param config The configuration that applied to the response
+		 * @param maxAge The max age of the response in seconds
+		 * @param maxStaleIfError The number of seconds the response may be served stale if the origin server is unreachable
+		 * @param immutable Whether the response was declared immutable
+		 * @param varyValues The request header values of the headers declared in the <i>Vary</i> response header
+		 */
 		public Properties(CacheConfig.CacheConfigOverride config, int maxAge, int maxStaleIfError, boolean immutable, Map<String, String> varyValues) {
 			this.maxResourceSize = config.maxResourceSize;
 			this.ignoreClientRefresh = config.ignoreClientRefresh || immutable && config.ignoreClientRefreshIfImmutable;
 			this.maxAge = maxAge;
 			this.maxStaleIfError = maxStaleIfError;
-			this.varyValues = varyValues;
+			this.priority = config.priority + (immutable ? config.immutablePriorityBonus : 0);
+			this.varyValues = new HashMap<>(varyValues);
+			this.normalizedHeaders = new HashSet<>();
+			for(Map.Entry<String, String> e : varyValues.entrySet()){
+				VaryNormalizer normalizer = CachePlugin.getVaryNormalizer(e.getKey());
+				if(normalizer != null){
+					this.varyValues.put(e.getKey(), normalizer.normalize(e.getValue()));
+					this.normalizedHeaders.add(e.getKey());
+				}
+			}
 		}
 
 
 		public boolean isVaryMatching(HTTPMessage request) {
-			for(String k : this.varyValues.keySet()){
-				if(!CachePlugin.getVaryComparator(k).semanticallyEquivalent(request.getHeader(k), this.varyValues.get(k)))
+			for(Map.Entry<String, String> e : this.varyValues.entrySet()){
+				String k = e.getKey();
+				if(this.normalizedHeaders != null && this.normalizedHeaders.contains(k)){
+					VaryNormalizer normalizer = CachePlugin.getVaryNormalizer(k);
+					if(normalizer == null || !java.util.Objects.equals(normalizer.normalize(request.getHeader(k)), e.getValue()))
+						return false;
+				}else if(!CachePlugin.getVaryComparator(k).semanticallyEquivalent(request.getHeader(k), e.getValue()))
 					return false;
 			}
 			return true;
@@ -200,5 +337,16 @@ public class CacheEntry implements java.io.Serializable {
 		public int getVaryValuesSize() {
 			return this.varyValues.size();
 		}
+
+		/**
+		 * Returns the request header values of the headers declared in the <i>Vary</i> response header. Values of headers for which a {@link VaryNormalizer} was registered
+		 * are the normalized values.
+		 *
+		 * @return An unmodifiable map of header names and their values in the request that caused the cached response
+		 * @since 1.5
+		 */
+		public Map<String, String> getVaryValues() {
+			return java.util.Collections.unmodifiableMap(this.varyValues);
+		}
 	}
 }
@@ -0,0 +1,94 @@
+/*
+ * Copyright (C) 2023 omegazero.org, warp03
+ *
+ * This Source Code Form is subject to the terms of the Mozilla Public License, v. 2.0.
+ * If a copy of the MPL was not distributed with this file, You can obtain one at https://mozilla.org/MPL/2.0/.
+ */
+package org.omegazero.proxyaccelerator.cache;
+
+import java.util.Map;
+
+import org.omegazero.http.common.HTTPMessage;
+import org.omegazero.http.common.HTTPRequest;
+
+/**
+ * Estimates the amount of memory a {@link CacheEntry} uses. The result is computed once per entry and returned by {@link CacheEntry#getSize()}.
+ *
+ * @since 1.5
+ * @see CachePlugin#setCacheEntryWeigher(CacheEntryWeigher)
+ */
+@FunctionalInterface
+public interface CacheEntryWeigher {
+
+	/**
+	 * Returns an estimation of the amount of memory the given {@link CacheEntry} uses in bytes.
+	 *
+	 * @param entry The cache entry
+	 * @return The estimated size in bytes
+	 */
+	public long weigh(CacheEntry entry);
+
+
+	/**
+	 * Approximate memory used by an object header and its reference.
+	 */
+	public static final int OBJECT_OVERHEAD = 16;
+	/**
+	 * Approximate memory used by a {@code String} object excluding its characters (object, backing array and hash map node referencing it).
+	 */
+	public static final int STRING_OVERHEAD = 40;
+	/**
+	 * Approximate memory used by a {@link HTTPMessage} object excluding its headers.
+	 */
+	public static final int MESSAGE_OVERHEAD = 128;
+	/**
+	 * Approximate memory used by a {@link CacheEntry} and its {@link CacheEntry.Properties} excluding the referenced messages and data.
+	 */
+	public static final int ENTRY_OVERHEAD = 96;
+
+	/**
+	 * The default weigher. Sums up the sizes of the response body, the response and request headers, the request line (which makes up the cache key) and the
+	 * <i>Vary</i> header values.
+	 */
+	public static final CacheEntryWeigher DEFAULT = new CacheEntryWeigher(){
+
+		@Override
+		public long weigh(CacheEntry entry) {
+			long size = ENTRY_OVERHEAD + OBJECT_OVERHEAD + entry.getResponseData().length;
+			size += CacheEntryWeigher.messageSize(entry.getResponse());
+			HTTPRequest request = entry.getResponse().getOther();
+			if(request != null){
+				size += CacheEntryWeigher.messageSize(request);
+				size += CacheEntryWeigher.stringSize(request.getMethod()) + CacheEntryWeigher.stringSize(request.getScheme())
+						+ CacheEntryWeigher.stringSize(request.getAuthority()) + CacheEntryWeigher.stringSize(request.getPath());
+			}
+			for(Map.Entry<String, String> e : entry.getProperties().getVaryValues().entrySet())
+				size += CacheEntryWeigher.stringSize(e.getKey()) + CacheEntryWeigher.stringSize(e.getValue());
+			return size;
+		}
+	};
+
+
+	/**
+	 * Returns the approximate size of the given {@code String} in bytes, or {@code 0} if it is {@code null}.
+	 *
+	 * @param str The string
+	 * @return The size in bytes
+	 */
+	public static long stringSize(String str) {
+		return str != null ? STRING_OVERHEAD + str.length() : 0;
+	}
+
+	/**
+	 * Returns the approximate size of the given {@link HTTPMessage} including all header names and values in bytes.
+	 *
+	 * @param msg The message
+	 * @return The size in bytes
+	 */
+	public static long messageSize(HTTPMessage msg) {
+		long size = MESSAGE_OVERHEAD;
+		for(Map.Entry<String, String> header : msg.headers())
+			size += CacheEntryWeigher.stringSize(header.getKey()) + CacheEntryWeigher.stringSize(header.getValue());
+		return size;
+	}
+}
@@ -0,0 +1,88 @@
+/*
+ * Copyright (C) 2023 omegazero.org, warp03
+ *
+ * This Source Code Form is subject to the terms of the Mozilla Public License, v. 2.0.
+ * If a copy of the MPL was not distributed with this file, You can obtain one at https://mozilla.org/MPL/2.0/.
+ */
+package org.omegazero.proxyaccelerator.cache;
+
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+
+import org.omegazero.common.util.ArrayUtil;
+
+/**
+ * The primary key of a cached resource, computed once per request. The hash code is computed when this object is created and the digest used by caches storing
+ * entries in files is computed when it is first requested.
+ *
+ * @since 1.5
+ * @see ResourceCache#fetch(CacheKey)
+ */
+public final class CacheKey {
+
+	private final String key;
+	private final int hash;
+	private volatile String digest;
+
+	/**
+	 * Creates a new {@link CacheKey}.
+	 *
+	 * @param key The primary key string
+	 * @see CachePlugin#getCacheKey(String, String, String, String)
+	 */
+	public CacheKey(String key) {
+		this.key = key;
+		this.hash = key.hashCode();
+	}
+
+
+	/**
+	 * Returns the primary key string.
+	 *
+	 * @return The key
+	 */
+	public String getKey() {
+		return this.key;
+	}
+
+	/**
+	 * Returns the lowercase hexadecimal SHA-256 digest of the UTF-8 encoded primary key string.
+	 *
+	 * @return The digest
+	 */
+	public String getDigest() {
+		String digest = this.digest;
+		if(digest == null){
+			try{
+				MessageDigest md = MessageDigest.getInstance("SHA-256");
+				digest = ArrayUtil.toHexString(md.digest(this.key.getBytes(StandardCharsets.UTF_8)));
+			}catch(NoSuchAlgorithmException e){
+				throw new AssertionError(e);
+			}
+			this.digest = digest;
+		}
+		return digest;
+	}
+
+
+	@Override
+	public int hashCode() {
+		return this.hash;
+	}
+
+	@Override
+	public boolean equals(Object o) {
+		if(this == o)
+			return true;
+		if(!(o instanceof CacheKey))
+			return false;
+		CacheKey k = (CacheKey) o;
+		return this.hash == k.hash && this.key.equals(k.key);
+	}
+
+	@Override
+	public String toString() {
+		return this.key;
+	}
+}
@@ -11,13 +11,29 @@
  */
 package org.omegazero.proxyaccelerator.cache;
 
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.net.URI;
+import java.net.URISyntaxException;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.util.AbstractMap;
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.HashMap;
 import java.util.Iterator;
-import java.util.LinkedList;
 import java.util.List;
 import java.util.Map;
+import java.util.Objects;
+import java.util.Queue;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicLong;
 import java.util.function.Function;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
 
 import org.omegazero.common.config.ConfigArray;
 import org.omegazero.common.config.ConfigObject;
@@ -30,6 +46,7 @@ import org.omegazero.common.eventbus.SubscribeEvent.Priority;
 import org.omegazero.common.logging.Logger;
 import org.omegazero.common.plugins.ExtendedPluginConfiguration;
 import org.omegazero.http.common.HTTPMessage;
+import org.omegazero.http.common.HTTPRequest;
 import org.omegazero.http.common.HTTPResponse;
 import org.omegazero.http.common.HTTPResponseData;
 import org.omegazero.http.util.HTTPStatus;
@@ -45,8 +62,20 @@ public class CachePlugin {
 
 	private static final Logger logger = Logger.create();
 
+	private static final String ATTACHMENT_CACHE_KEY = "cache_key";
+	private static final String ATTACHMENT_ESI_PROCESSOR = "cache_esi_processor";
+	private static final String ATTACHMENT_CACHE_LOOKUP = "cache_lookup";
+	private static final Object LOOKUP_MISS = new Object();
+	private static final String ATTACHMENT_STALE_IF_SLOW = "cache_stale_if_slow";
+	private static final String ATTACHMENT_REFRESH_ONLY = "cache_refresh_only";
+	private static final Pattern EARLY_HINT_REL = Pattern.compile(";\\s*rel\\s*=\\s*\"?[^\";]*\\b(?:preload|modulepreload|preconnect)\\b",
+			Pattern.CASE_INSENSITIVE);
+
 	private static Map<String, Function<? super ConfigObject, ? extends ResourceCache>> cacheTypes = new ConcurrentHashMap<>();
 	private static Map<String, VaryComparator> varyComparators = new ConcurrentHashMap<>();
+	private static Map<String, VaryNormalizer> varyNormalizers = new ConcurrentHashMap<>();
+	private static volatile Map<String, VaryNormalizer> configuredVaryNormalizers = new HashMap<>();
+	private static volatile CacheEntryWeigher cacheEntryWeigher = CacheEntryWeigher.DEFAULT;
 
 	public static final Event EVENT_CACHE_HIT = new Event("cache_hit", new Class<?>[] { ProxyHTTPRequest.class, HTTPResponseData.class });
 	public static final Event EVENT_CACHE_MISS = new Event("cache_miss", new Class<?>[] { ProxyHTTPRequest.class });
@@ -55,7 +84,15 @@ public class CachePlugin {
 	public static final Event EVENT_CACHE_STORE = new Event("cache_store", new Class<?>[] { CacheEntry.class });
 
 
-	private final Map<HTTPResponse, PendingCacheEntry> pendingCacheEntries = new HashMap<>();
+	private final Map<HTTPResponse, PendingCacheEntry> pendingCacheEntries = new ConcurrentHashMap<>();
+	private final Map<CacheKey, PendingCacheEntry> pendingCacheKeys = new ConcurrentHashMap<>();
+	private final Map<ProxyHTTPRequest, Boolean> slowRequests = new ConcurrentHashMap<>();
+	private final Map<CacheKey, Long> earlyRefreshes = new ConcurrentHashMap<>();
+	private final Map<UpstreamServer, CircuitBreaker> circuitBreakers = new ConcurrentHashMap<>();
+	private final AtomicLong pendingSize = new AtomicLong();
+	private final AtomicLong pendingDiscards = new AtomicLong(); // incremented after pending entries were discarded because of a purge
+	private final AtomicLong declinedFills = new AtomicLong();
+	private long declinedFillsReported = 0;
 
 	private CacheConfig cacheConfig;
 	private VHostIntegration pluginVhost;
@@ -70,23 +107,157 @@ public class CachePlugin {
 	private ConfigArray caches = null;
 	@ConfigurationOption
 	private boolean enableServeStale = true;
+	@ConfigurationOption
+	private String partitionType = "lru";
+	@ConfigurationOption
+	private ConfigObject varyNormalization = null;
+	@ConfigurationOption
+	private long maxPendingSize = Runtime.getRuntime().maxMemory() / 8;
+	@ConfigurationOption
+	private String hotKeysPath = null;
+	@ConfigurationOption
+	private int hotKeysCapacity = 1000;
+	@ConfigurationOption
+	private String hotKeysKey = null;
+	@ConfigurationOption
+	private boolean memoryGovernor = false;
+	@ConfigurationOption
+	private int memoryHighWatermark = 80;
+	@ConfigurationOption
+	private int memoryLowWatermark = 60;
+	@ConfigurationOption
+	private ConfigObject purgeBus = null;
+	@ConfigurationOption
+	private int earlyHintsCapacity = 10000;
+	@ConfigurationOption
+	private int esiTimeout = 5000;
+	@ConfigurationOption
+	private int esiMaxTemplateSize = 1048576;
+	@ConfigurationOption
+	private String esiOrigin = null;
+	@ConfigurationOption
+	private List<String> esiForwardHeaders = new ArrayList<>(List.of("user-agent", "accept-language"));
+	@ConfigurationOption
+	private int circuitBreakerThreshold = 0;
+	@ConfigurationOption
+	private int circuitBreakerOpenTime = 10000;
 
 	private ConfigObject singleCacheConfig;
 	private ResourceCache cache;
+	private final Map<String, ResourceCache> partitions = new ConcurrentHashMap<>();
+	private final Map<String, ResourceCache> retiredPartitions = new ConcurrentHashMap<>(); // partitions of a previous configuration, reused with the new quota when used again
+	private List<ConfigObject> cacheLevelConfigs = new ArrayList<>();
+	private List<ResourceCache> cacheLevels = new ArrayList<>();
+	private String activePartitionType;
+
+	private volatile MemoryGovernor governor;
+	private volatile PurgeBus bus;
+
+	private volatile HeavyHitterSketch hotKeysRequests;
+	private volatile HeavyHitterSketch hotKeysBytes;
+	private volatile HeavyHitterSketch hotKeysMisses;
+
+	private volatile Map<CacheKey, String> earlyHints;
+	private int earlyHintsMapCapacity;
+	private volatile boolean interimResponsesSupported = false;
+	private boolean interimResponsesChecked = false;
+
+	private volatile OriginClient originClient;
 
 
 	@ExtendedPluginConfiguration
 	public synchronized void configurationReload(ConfigObject config) {
 		this.cacheConfig = CacheConfig.from(config, null);
 
+		Map<String, VaryNormalizer> normalizers = new HashMap<>();
+		if(this.varyNormalization != null){
+			for(String header : this.varyNormalization.keySet())
+				normalizers.put(header.toLowerCase(), parseVaryNormalizer(this.varyNormalization.getObject(header)));
+		}
+		CachePlugin.configuredVaryNormalizers = normalizers;
+
 		if(this.pluginVhost == null && Proxy.getInstance().isPluginLoaded("vhost")){
 			logger.debug("Detected that vhost is loaded");
 			this.pluginVhost = new VHostIntegration();
 		}else if(this.pluginVhost != null)
 			this.pluginVhost.invalidate();
 
+		float highWatermark = this.memoryHighWatermark / 100f;
+		float lowWatermark = this.memoryLowWatermark / 100f;
+		if(this.governor != null && (!this.memoryGovernor || this.governor.getHighWatermark() != highWatermark || this.governor.getLowWatermark() != lowWatermark)){
+			float factor = this.governor.getCapacityFactor();
+			this.governor.close();
+			this.governor = null;
+			if(this.memoryGovernor){
+				// memory usage may still be above the low watermark, so the factor is only increased again by the new governor
+				this.governor = new MemoryGovernor(highWatermark, lowWatermark, factor, this::applyCapacityFactor);
+				this.governor.start();
+			}else
+				this.applyCapacityFactor(1);
+		}else if(this.governor == null && this.memoryGovernor){
+			this.governor = new MemoryGovernor(highWatermark, lowWatermark, this::applyCapacityFactor);
+			this.governor.start();
+		}
+
+		if(this.bus != null){
+			this.bus.close();
+			this.bus = null;
+		}
+		if(this.purgeBus != null){
+			try{
+				this.bus = new PurgeBus(this.purgeBus, this::applyPurge);
+			}catch(IOException e){
+				throw new UncheckedIOException("Failed to initialize purge bus", e);
+			}
+		}
+
+		if(this.hotKeysPath != null){
+			this.hotKeysRequests = new HeavyHitterSketch(this.hotKeysCapacity);
+			this.hotKeysBytes = new HeavyHitterSketch(this.hotKeysCapacity);
+			this.hotKeysMisses = new HeavyHitterSketch(this.hotKeysCapacity);
+		}else{
+			this.hotKeysRequests = null;
+			this.hotKeysBytes = null;
+			this.hotKeysMisses = null;
+		}
+
+		if(this.earlyHints == null || this.earlyHintsMapCapacity != this.earlyHintsCapacity){
+			int earlyHintsCapacity = this.earlyHintsCapacity;
+			Map<CacheKey, String> earlyHints = java.util.Collections.synchronizedMap(new java.util.LinkedHashMap<CacheKey, String>(16, 0.75f, true){
+
+				private static final long serialVersionUID = 1L;
+
+				@Override
+				protected boolean removeEldestEntry(Map.Entry<CacheKey, String> eldest) {
+					return this.size() > earlyHintsCapacity;
+				}
+			});
+			if(this.earlyHints != null){
+				synchronized(this.earlyHints){ // least recently used first, so that the most recently used links are kept if the capacity was reduced
+					earlyHints.putAll(this.earlyHints);
+				}
+			}
+			this.earlyHints = earlyHints;
+			this.earlyHintsMapCapacity = earlyHintsCapacity;
+		}
+		if(!this.interimResponsesChecked){
+			this.interimResponsesSupported = CachePlugin.supportsInterimResponses();
+			this.interimResponsesChecked = true;
+			if(!this.interimResponsesSupported)
+				logger.info("The HTTP implementation does not support interim responses, early hints will not be sent");
+		}
+
+		this.originClient = null; // recreated with the new timeout when needed
+		if(this.circuitBreakerThreshold > 0){
+			// keep the state of failing upstream servers, breakers of servers that may no longer exist are created again when needed
+			this.circuitBreakers.values().removeIf(CircuitBreaker::isIdle);
+			for(CircuitBreaker breaker : this.circuitBreakers.values())
+				breaker.setLimits(this.circuitBreakerThreshold, this.circuitBreakerOpenTime);
+		}else
+			this.circuitBreakers.clear();
+
 		if(config.optString("type", null) != null)
-			this.singleCacheConfig = config;
+			this.singleCacheConfig = CachePlugin.getCacheLevelConfig(config);
 		else
 			this.singleCacheConfig = new ConfigObject();
 
@@ -112,9 +283,12 @@ public class CachePlugin {
 	public void onHTTPRequestPre(SocketConnection downstreamConnection, ProxyHTTPRequest request, UpstreamServer userver) {
 		if(request.getAuthority() == null)
 			return;
-		if(request.getMethod().equals("PURGE")){
+		ResourceCache cache = this.getCache(userver);
+		CacheConfig cc = this.getConfig(userver);
+		if(this.hotKeysPath != null && this.hotKeysKey != null && request.getMethod().equals("GET") && this.hotKeysPath.equals(CachePlugin.stripQuery(request.getPath()))){
+			this.hotKeysReply(request);
+		}else if(request.getMethod().equals("PURGE")){
 			Proxy.getInstance().dispatchEvent(EVENT_CACHE_PURGE, request);
-			CacheConfig cc = this.getConfig(userver);
 			CacheConfig.CacheConfigOverride cco = cc.getOverride(request);
 			if(cco == null)
 				return;
@@ -130,19 +304,20 @@ public class CachePlugin {
 					purgeMethod = "GET";
 				String path = request.getInitialPath();
 				if(cco.wildcardPurgeEnabled && path.endsWith("**")){
-					String keyPrefix = CachePlugin.getCacheKey(purgeMethod, request.getScheme(), request.getAuthority(), path.substring(0, path.length() - 2));
-					int deleted = this.cache.deleteIfKey((s) -> {
-						return s.startsWith(keyPrefix);
-					});
+					String keyPrefix = cco.getCacheKey(purgeMethod, request.getScheme(), request.getAuthority(), path.substring(0, path.length() - 2));
+					int deleted = this.purgeLocal(cache, keyPrefix, true);
 					if(deleted < 0){
 						this.purgeReply(request, HTTPStatus.STATUS_NOT_IMPLEMENTED, "unsupported", null);
 					}else{
 						logger.debug("Purged ", deleted, " cache entries (wildcard key: '", keyPrefix, "')");
+						this.publishPurge(userver, keyPrefix, true);
 						this.purgeReply(request, HTTPStatus.STATUS_OK, "ok", ",\"deleted\":" + deleted);
 					}
 				}else{
-					String key = CachePlugin.getCacheKey(purgeMethod, request.getScheme(), request.getAuthority(), path);
-					CacheEntry entry = this.cache.delete(key);
+					String key = cco.getCacheKey(purgeMethod, request.getScheme(), request.getAuthority(), path);
+					CacheEntry entry = cache.delete(key);
+					this.discardPendingEntries(cache, key, false);
+					this.publishPurge(userver, key, false);
 					if(entry != null){
 						logger.debug("Purged cache entry '", key, "' (age ", entry.age(), ")");
 						this.purgeReply(request, HTTPStatus.STATUS_OK, "ok", null);
@@ -151,114 +326,410 @@ public class CachePlugin {
 					}
 				}
 			}
-		}else{
-			this.serveFromCache(request, false);
+		}else if(CachePlugin.isCacheableRequest(cc, request) && !this.allowForward(userver)){ // upstream server is failing, respond immediately instead of waiting for the request to fail
+			if(!this.serveFromCache(cache, cc, request, userver, this.enableServeStale ? "upstream server unavailable" : null)){
+				Proxy.getInstance().dispatchEvent(EVENT_CACHE_MISS, request);
+				request.respondError(HTTPStatus.STATUS_SERVICE_UNAVAILABLE, "Upstream server unavailable");
+			}
+		}else if(!this.serveFromCache(cache, cc, request, userver, null)){
+			Proxy.getInstance().dispatchEvent(EVENT_CACHE_MISS, request);
+			CacheConfig.CacheConfigOverride cco = cc.getOverride(request.getInitialAuthority(), request.getInitialPath());
+			if(cco != null && cco.earlyHints)
+				this.sendEarlyHints(cc, request);
+			if(cco != null && cco.staleIfSlow > 0 && cache.mayContain(CachePlugin.getCacheKey(cc, request))){
+				request.setAttachment(ATTACHMENT_STALE_IF_SLOW, true);
+				this.slowRequests.put(request, true);
+				Tasks.I.timeout(() -> {
+					this.serveIfSlow(cache, cc, request, userver, cco.staleIfSlowMaxStale);
+				}, cco.staleIfSlow);
+			}
 		}
 	}
 
 	@SubscribeEvent(priority = Priority.LOWEST) // lowest to allow other plugins to edit the response before caching
 	public void onHTTPResponse(SocketConnection downstreamConnection, SocketConnection upstreamConnection, HTTPResponse response, UpstreamServer upstreamServer) {
-		String key = CachePlugin.getCacheKey((ProxyHTTPRequest) response.getOther());
-		CacheEntry entry = this.cache.fetch(key);
+		ResourceCache cache = this.getCache(upstreamServer);
+		CacheConfig cc = this.getConfig(upstreamServer);
+		ProxyHTTPRequest request = (ProxyHTTPRequest) response.getOther();
+		// if the stale-if-slow timer removed the request first, it already responded with a stale response
+		boolean refreshOnly = this.slowRequests.remove(request) == null && Boolean.TRUE.equals(request.getAttachment(ATTACHMENT_STALE_IF_SLOW));
+		if(refreshOnly)
+			response.setAttachment(ATTACHMENT_REFRESH_ONLY, true);
+		CircuitBreaker breaker = this.getCircuitBreaker(upstreamServer);
+		if(breaker != null){
+			if(response.getStatus() >= 500)
+				this.onUpstreamFailure(breaker, upstreamServer);
+			else if(breaker.onSuccess())
+				logger.info("Closing circuit for upstream server ", upstreamServer);
+		}
+		CacheKey key = CachePlugin.getCacheKey(cc, request);
+		Object lookup = request.getAttachment(ATTACHMENT_CACHE_LOOKUP); // avoid a second (possibly remote) lookup if the entry was already fetched for this request
+		CacheEntry entry = lookup == null ? cache.fetch(key) : lookup instanceof CacheEntry ? (CacheEntry) lookup : null;
 		// if the entry already exists, it will be replaced if this response finishes
+		this.earlyRefreshes.remove(key);
+
+		if(CachePlugin.isFoldedHead(cc, request)){ // response to a HEAD request stored under the GET key, must not replace or delete the GET response
+			this.addHeaders(response, entry, false);
+			return;
+		}
+
+		CacheConfig.CacheConfigOverride cco = cc.getOverride(request.getInitialAuthority(), request.getInitialPath());
+		if(cco != null && cco.earlyHints && request.getInitialMethod().equals("GET") && response.getStatus() >= 200 && response.getStatus() < 300){
+			String links = CachePlugin.getEarlyHintLinks(response.getHeader("link"));
+			if(links != null)
+				this.earlyHints.put(key, links);
+			else
+				this.earlyHints.remove(key);
+		}
 
-		boolean cacheable = this.tryStartCachingResponse(upstreamConnection, response, upstreamServer, key);
+		boolean cacheable = this.tryStartCachingResponse(upstreamConnection, response, upstreamServer, cache, key);
 		if(!cacheable && entry != null) // response is not cacheable, remove the cache entry (likely cache-control changed since response was cached)
-			this.cache.delete(key);
+			cache.delete(key);
+
+		if(refreshOnly){ // a stale response was already sent because this response was late, this response is only used to refresh the cache
+			logger.debug("Using late response for '", key, "' only to refresh the cache");
+			return;
+		}
 
 		this.addHeaders(response, entry, false);
+
+		if(cco != null && cco.esi && CachePlugin.isESITemplate(response)){
+			if(response.headerExists("content-encoding")){
+				logger.debug("Not processing ESI template '", key, "' because it has a content encoding");
+			}else{
+				CachePlugin.prepareESIResponse(response);
+				response.setChunkedTransfer(true);
+				if(!request.getInitialMethod().equals("HEAD"))
+					response.setAttachment(ATTACHMENT_ESI_PROCESSOR, this.createESIProcessor(cache, cc, request, upstreamServer));
+			}
+		}
 	}
 
 	@SubscribeEvent(priority = Priority.LOWEST)
 	public void onHTTPResponseData(SocketConnection downstreamConnection, SocketConnection upstreamConnection, HTTPResponseData responsedata, UpstreamServer upstreamServer) {
 		HTTPResponse response = responsedata.getHttpMessage();
-		synchronized(this.pendingCacheEntries){
-			PendingCacheEntry pce = this.pendingCacheEntries.get(response);
-			if(pce != null){
-				if(!pce.addData(responsedata.getData())){
-					logger.debug("Removing pending cache entry because it is too large: ", pce.dataLen, " > ", pce.ceProperties.maxResourceSize);
-					this.pendingCacheEntries.remove(response);
+		PendingCacheEntry pce = this.pendingCacheEntries.get(response);
+		if(pce != null && !pce.addData(responsedata.getData(), this.maxPendingSize) && this.removePendingEntry(pce)){
+			if(pce.dataLen > pce.ceProperties.maxResourceSize){
+				logger.debug("Removing pending cache entry because it is too large: ", pce.dataLen, " > ", pce.ceProperties.maxResourceSize);
+			}else{
+				logger.debug("Removing pending cache entry because the pending size limit was reached: ", pce.key);
+				this.declinedFills.incrementAndGet();
+			}
+			pce.release();
+		}
+
+		if(response.getAttachment(ATTACHMENT_REFRESH_ONLY) != null){ // the client already received a stale response, the data was only needed for the pending cache entry
+			responsedata.setData(new byte[0]);
+			return;
+		}
+
+		// the template is processed after it was passed to the pending cache entry, so that the cache stores the template instead of the assembled document
+		ESIProcessor esiProcessor = (ESIProcessor) response.getAttachment(ATTACHMENT_ESI_PROCESSOR);
+		if(esiProcessor != null){
+			byte[] data = responsedata.getData();
+			if(esiProcessor.getTemplateSize() + data.length > this.esiMaxTemplateSize){
+				logger.debug("ESI template for '", response.getOther().requestURI(), "' is larger than ", this.esiMaxTemplateSize, " bytes, passing it through unprocessed");
+				response.setAttachment(ATTACHMENT_ESI_PROCESSOR, null);
+				esiProcessor.abort();
+				byte[] processed = esiProcessor.drain();
+				byte[] ndata = new byte[processed.length + data.length];
+				System.arraycopy(processed, 0, ndata, 0, processed.length);
+				System.arraycopy(data, 0, ndata, processed.length, data.length);
+				responsedata.setData(ndata);
+			}else{
+				esiProcessor.add(data);
+				if(responsedata.isLastPacket()){ // more data cannot be sent after the last packet, so fragments that are not available yet are omitted
+					response.setAttachment(ATTACHMENT_ESI_PROCESSOR, null);
+					esiProcessor.endNow();
 				}
+				responsedata.setData(esiProcessor.drain());
 			}
 		}
 	}
 
 	@SubscribeEvent(priority = Priority.LOWEST)
 	public void onHTTPResponseEnded(SocketConnection downstreamConnection, SocketConnection upstreamConnection, HTTPResponse response, UpstreamServer upstreamServer) {
-		synchronized(this.pendingCacheEntries){
-			PendingCacheEntry pce = this.pendingCacheEntries.get(response);
-			if(pce != null){
-				String key = pce.key;
-				logger.debug("Caching resource '", key, "' with maxAge ", pce.ceProperties.maxAge, " (", pce.dataLen, " bytes)");
-				this.pendingCacheEntries.remove(response);
-				CacheEntry entry = pce.get();
-				Proxy.getInstance().dispatchEvent(EVENT_CACHE_STORE, entry);
-				this.cache.store(key, entry);
-			}
+		PendingCacheEntry pce = this.pendingCacheEntries.get(response);
+		if(pce != null && this.removePendingEntry(pce)){
+			CacheKey key = pce.key;
+			logger.debug("Caching resource '", key, "' with maxAge ", pce.ceProperties.maxAge, " (", pce.dataLen, " bytes)");
+			CacheEntry entry = pce.get();
+			pce.release();
+			entry.setFillTime(pce.getFillTime());
+			Proxy.getInstance().dispatchEvent(EVENT_CACHE_STORE, entry);
+			pce.cache.store(key, entry);
 		}
 	}
 
 	@SubscribeEvent
 	public void onHTTPForwardFailed(SocketConnection downstreamConnection, SocketConnection upstreamConnection, ProxyHTTPRequest request, UpstreamServer userver, int status, String message){
-		if(!this.enableServeStale)
+		this.slowRequests.remove(request);
+		CircuitBreaker breaker = this.getCircuitBreaker(userver);
+		if(breaker != null)
+			this.onUpstreamFailure(breaker, userver);
+		if(!this.enableServeStale || request.hasResponse())
 			return;
-		this.serveFromCache(request, true);
+		if(!this.serveFromCache(this.getCache(userver), this.getConfig(userver), request, userver, "upstream server unreachable"))
+			Proxy.getInstance().dispatchEvent(EVENT_CACHE_MISS, request);
 	}
 
 
-	private void serveFromCache(ProxyHTTPRequest request, boolean error){
-		String key = CachePlugin.getCacheKey(request);
-		CacheEntry entry = this.cache.fetch(key);
+	/**
+	 * Responds to the given <b>request</b> with a cached response, if available.
+	 *
+	 * @param userver The upstream server of the request, used for requesting ESI fragments
+	 * @param staleReason If not <code>null</code>, a stale response may be served within its stale window and this string is added as a <i>Warning</i> to the response
+	 * @return <code>true</code> if a response was sent
+	 */
+	private boolean serveFromCache(ResourceCache cache, CacheConfig cc, ProxyHTTPRequest request, UpstreamServer userver, String staleReason){
+		boolean error = staleReason != null;
+		CacheKey key = CachePlugin.getCacheKey(cc, request);
+		CacheEntry entry = cache.fetch(key);
+		request.setAttachment(ATTACHMENT_CACHE_LOOKUP, entry != null ? entry : LOOKUP_MISS);
+		if(entry != null && !error && !entry.isStale() && this.shouldRefreshEarly(cc, request, key, entry)){
+			logger.debug("Refreshing cache entry '", key, "' early (fresh for ", entry.getExpiresAt() - time(), "ms, fill time ", entry.getFillTime(), "ms)");
+			entry = null;
+		}
 		if(entry != null && (error || !entry.isStale()) && entry.isUsableFor(request, error)){
-			HTTPResponse res = new HTTPResponse(entry.getResponse());
-			res.setHttpVersion(request.getHttpVersion());
-			entry.incrementHits();
+			this.serveEntry(cache, cc, request, userver, key, entry, staleReason);
+			return true;
+		}else{
+			HeavyHitterSketch requests = this.hotKeysRequests, misses = this.hotKeysMisses;
+			if(requests != null && misses != null && !error){
+				requests.add(key.getKey(), 1);
+				misses.add(key.getKey(), 1);
+			}
+			return false;
+		}
+	}
 
-			boolean etagCondition = true;
-			String resourceTag = res.getHeader("etag");
-			String inm = request.getHeader("if-none-match");
-			if(resourceTag != null && inm != null){
-				if(inm.equals("*")){
-					etagCondition = false;
-				}else{
-					if(resourceTag.startsWith("W/"))
-						resourceTag = resourceTag.substring(2);
-					String[] etags = inm.split(",");
-					for(String etag : etags){
-						etag = etag.trim();
-						if(etag.startsWith("W/"))
-							etag = etag.substring(2);
-						if(etag.equals(resourceTag)){
-							etagCondition = false;
-							break;
-						}
-					}
-				}
+	/**
+	 * Responds to the given <b>request</b> with the given cached <b>entry</b>, which was checked to be usable for the request.
+	 *
+	 * @param staleReason If not <code>null</code>, this string is added as a <i>Warning</i> to the response
+	 */
+	private void serveEntry(ResourceCache cache, CacheConfig cc, ProxyHTTPRequest request, UpstreamServer userver, CacheKey key, CacheEntry entry, String staleReason) {
+		boolean error = staleReason != null;
+		HTTPResponse res = new HTTPResponse(entry.getResponse());
+		res.setHttpVersion(request.getHttpVersion());
+		entry.incrementHits();
+
+		CacheConfig.CacheConfigOverride cco = cc.getOverride(request.getInitialAuthority(), request.getInitialPath());
+		boolean esi = cco != null && cco.esi && CachePlugin.isESITemplate(res) && !res.headerExists("content-encoding");
+
+		int preconditionStatus = esi ? 0 : CachePlugin.evaluatePreconditions(request, res); // validators of the template do not apply to the assembled document
+		boolean etagCondition = preconditionStatus == 0;
+
+		byte[] data;
+		if(!etagCondition){
+			res.setStatus(preconditionStatus);
+			res.deleteHeader("content-length");
+			data = new byte[0];
+		}else{
+			data = entry.getResponseData();
+		}
+		boolean head = request.getMethod().equals("HEAD");
+
+		String dataEncoding = entry.getDataEncoding();
+		ESIProcessor esiProcessor = null;
+		if(esi){
+			CachePlugin.prepareESIResponse(res);
+			if(!head){
+				esiProcessor = this.createESIProcessor(cache, cc, request, userver);
+				esiProcessor.add(entry.getDecodedResponseData());
 			}
+		}else if(dataEncoding != null){
+			if(CompressionUtil.isEncodingAccepted(request.getHeader("accept-encoding"), dataEncoding)){
+				res.setHeader("content-encoding", dataEncoding);
+				String etag = res.getHeader("etag");
+				if(etag != null && !etag.startsWith("W/")) // different representation than the one the strong validator was generated for
+					res.setHeader("etag", "W/" + etag);
+			}else if(etagCondition)
+				data = entry.getDecodedResponseData();
+			if(etagCondition && res.headerExists("content-length"))
+				res.setHeader("content-length", String.valueOf(data.length));
+			res.appendHeader("vary", "accept-encoding", ", ");
+		}
 
-			byte[] data;
-			if(!etagCondition){
-				res.setStatus(HTTPStatus.STATUS_NOT_MODIFIED);
-				res.deleteHeader("content-length");
-				data = new byte[0];
-			}else{
-				data = entry.getResponseData();
+		this.addHeaders(res, entry, true);
+		if(error){
+			if(entry.isStale())
+				res.addHeader("warning", "111 - \"" + staleReason + ", response is stale\"");
+			else
+				res.addHeader("warning", "111 - \"" + staleReason + "\"");
+		}
+		if(head)
+			data = new byte[0];
+		logger.debug("Serving cached response for request '", key, "' (proxy error: ", error, ", stale: ", entry.isStale(), ")");
+		if(esiProcessor != null){ // responds when all fragments were received, which may be on a different thread
+			long start = time();
+			ESIProcessor processor = esiProcessor;
+			processor.end().thenRun(() -> {
+				byte[] assembled = processor.drain();
+				logger.debug("Assembled ESI template '", key, "' in ", time() - start, "ms (", assembled.length, " bytes)");
+				res.setHeader("content-length", String.valueOf(assembled.length));
+				this.respondFromCache(request, key, res, assembled);
+			}).exceptionally((e) -> {
+				logger.warn("Error while responding with assembled ESI template '", key, "': ", e);
+				return null;
+			});
+		}else
+			this.respondFromCache(request, key, res, data);
+	}
+
+	/**
+	 * Called when the upstream server did not send the response headers for the given <b>request</b> within the <i>staleIfSlow</i> time. Responds with a stale cached
+	 * response that is stale for less than <b>maxStale</b> seconds, if the request can still be claimed from {@link #slowRequests} (the upstream response was not received
+	 * in the meantime). The upstream response is then only used to refresh the cache. If there is no usable stale response, the request is removed from
+	 * {@link #slowRequests} and the upstream response is forwarded as usual.
+	 */
+	private void serveIfSlow(ResourceCache cache, CacheConfig cc, ProxyHTTPRequest request, UpstreamServer userver, int maxStale) {
+		if(!this.slowRequests.containsKey(request))
+			return;
+		CacheKey key = CachePlugin.getCacheKey(cc, request);
+		CacheEntry entry = cache.fetch(key);
+		if(entry == null || !entry.isUsableStaleFor(request, maxStale)){
+			request.setAttachment(ATTACHMENT_STALE_IF_SLOW, false); // before removing, so that a later upstream response is forwarded normally
+			this.slowRequests.remove(request);
+			return;
+		}
+		if(this.slowRequests.remove(request) == null || request.hasResponse()) // the upstream response won the race
+			return;
+		this.serveEntry(cache, cc, request, userver, key, entry, "upstream server slow");
+	}
+
+	private void respondFromCache(ProxyHTTPRequest request, CacheKey key, HTTPResponse res, byte[] data) {
+		if(request.hasResponse()) // only if the response was delayed by ESI processing
+			return;
+		HeavyHitterSketch requests = this.hotKeysRequests, bytes = this.hotKeysBytes;
+		if(requests != null && bytes != null){
+			requests.add(key.getKey(), 1);
+			bytes.add(key.getKey(), data.length);
+		}
+		HTTPResponseData resdata = new HTTPResponseData(res, data);
+		Proxy.getInstance().dispatchEvent(EVENT_CACHE_HIT, request, resdata);
+		request.respond(resdata);
+	}
+
+	/**
+	 * Sends a <i>103 Early Hints</i> interim response with the preload and preconnect links of the last response for the given <b>request</b>, if there are any. Not
+	 * sent to HTTP/1.0 clients, which do not support interim responses, and not sent at all if the HTTP implementation does not support interim responses (see
+	 * {@link #supportsInterimResponses()}).
+	 * <p>
+	 * The plugin API has no separate method for interim responses, so the response is sent using {@link ProxyHTTPRequest#respond(int, byte[], String...)}, which the
+	 * HTTP server implementations send as an interim response for <i>1xx</i> status codes, without marking the request as responded.
+	 */
+	private void sendEarlyHints(CacheConfig cc, ProxyHTTPRequest request) {
+		if(!this.interimResponsesSupported || !request.getMethod().equals("GET") || "HTTP/1.0".equals(request.getHttpVersion()) || request.hasResponse())
+			return;
+		String links = this.earlyHints.get(CachePlugin.getCacheKey(cc, request));
+		if(links == null)
+			return;
+		logger.debug("Sending early hints for '", request.requestURI(), "': ", links);
+		request.respond(103, new byte[0], "link", links);
+	}
+
+	/**
+	 * Checks whether the HTTP implementation distinguishes interim (<i>1xx</i>) responses from final responses, which is required to send early hints using
+	 * {@link ProxyHTTPRequest#respond(int, byte[], String...)}. The HTTP server implementations of versions with {@link HTTPResponse}<code>#isIntermediateMessage()</code>
+	 * send such responses without completing the request.
+	 */
+	private static boolean supportsInterimResponses() {
+		try{
+			HTTPResponse.class.getMethod("isIntermediateMessage");
+			return true;
+		}catch(NoSuchMethodException e){
+			return false;
+		}
+	}
+
+	/**
+	 * Creates an {@link ESIProcessor} for a template requested with the given <b>request</b>. Fragments are served from the given <b>cache</b> if possible and otherwise
+	 * requested from the origin server and stored in the cache, if cacheable.
+	 */
+	private ESIProcessor createESIProcessor(ResourceCache cache, CacheConfig cc, ProxyHTTPRequest request, UpstreamServer userver) {
+		String base = request.getInitialScheme() + "://" + request.getInitialAuthority() + request.getInitialPath();
+		URI origin = this.getESIOrigin(userver);
+		Map<String, String> headers = new HashMap<>();
+		for(String name : this.esiForwardHeaders){
+			String value = request.getHeader(name.toLowerCase());
+			if(value != null)
+				headers.put(name.toLowerCase(), value);
+		}
+		headers.put("accept-encoding", "identity");
+		return new ESIProcessor((src) -> this.getESIFragment(cache, cc, base, origin, headers, src), this.esiTimeout);
+	}
+
+	private CompletableFuture<byte[]> getESIFragment(ResourceCache cache, CacheConfig cc, String base, URI origin, Map<String, String> headers, String src) {
+		URI baseUri = URI.create(base);
+		URI uri = baseUri.resolve(src);
+		if(!baseUri.getScheme().equalsIgnoreCase(uri.getScheme()) || !baseUri.getRawAuthority().equalsIgnoreCase(uri.getRawAuthority()))
+			return CompletableFuture.failedFuture(new IllegalArgumentException("Fragment '" + uri + "' has a different origin than the template"));
+		HTTPRequest frequest = OriginClient.createRequest(uri, headers);
+		CacheKey key = new CacheKey(cc.getCacheKey("GET", frequest.getScheme(), frequest.getAuthority(), frequest.getPath()));
+		CacheEntry entry = cache.fetch(key);
+		if(entry != null && !entry.isStale() && entry.isUsableFor(frequest, false) && !entry.getResponse().headerExists("content-encoding")){
+			entry.incrementHits();
+			return CompletableFuture.completedFuture(entry.getDecodedResponseData());
+		}
+		return this.getOriginClient().fetch(uri, origin, headers, this.esiTimeout).thenApply((result) -> {
+			int status = result.response.getStatus();
+			if(status < 200 || status >= 300 || result.response.headerExists("content-encoding"))
+				throw new IllegalStateException("Unusable response for fragment '" + uri + "' (status " + status + ")");
+			CacheEntry fentry = OriginClient.createEntry(cc, result);
+			if(fentry != null){
+				logger.debug("Caching ESI fragment '", key, "' with maxAge ", fentry.getProperties().maxAge, " (", result.body.length, " bytes)");
+				Proxy.getInstance().dispatchEvent(EVENT_CACHE_STORE, fentry);
+				cache.store(key, fentry);
 			}
+			return result.body;
+		});
+	}
 
-			this.addHeaders(res, entry, true);
-			if(error){
-				if(entry.isStale())
-					res.addHeader("warning", "111 - \"upstream server unreachable, response is stale\"");
-				else
-					res.addHeader("warning", "111 - \"upstream server unreachable\"");
+	/**
+	 * Returns the server ESI fragments are requested from: the configured <code>esiOrigin</code>, the plaintext address of the given upstream server, or <code>null</code>
+	 * to request fragments from their public URL. Requests to an origin server use the public URL of the fragment as the request target.
+	 */
+	private URI getESIOrigin(UpstreamServer userver) {
+		if(this.esiOrigin != null)
+			return URI.create(this.esiOrigin);
+		if(userver == null || userver.getAddress() == null || userver.getPlainPort() <= 0)
+			return null;
+		try{
+			return new URI("http", null, userver.getAddress().getHostAddress(), userver.getPlainPort(), null, null, null);
+		}catch(URISyntaxException e){
+			throw new IllegalArgumentException(e);
+		}
+	}
+
+	private OriginClient getOriginClient() {
+		OriginClient client = this.originClient;
+		if(client == null){
+			synchronized(this){
+				client = this.originClient;
+				if(client == null)
+					this.originClient = client = new OriginClient(this.esiTimeout);
 			}
-			logger.debug("Serving cached response for request '", key, "' (proxy error: ", error, ", stale: ", entry.isStale(), ")");
-			HTTPResponseData resdata = new HTTPResponseData(res, data);
-			Proxy.getInstance().dispatchEvent(EVENT_CACHE_HIT, request, resdata);
-			request.respond(resdata);
-		}else{
-			Proxy.getInstance().dispatchEvent(EVENT_CACHE_MISS, request);
 		}
+		return client;
+	}
+
+	/**
+	 * Probabilistically decides whether the given request should be forwarded to the origin server to refresh the given fresh <b>entry</b> before it expires, to prevent
+	 * many requests being forwarded at the same time when the entry expires ("XFetch"). The probability increases as the entry approaches its expiration time, weighted by
+	 * the time it took to fill the entry. Only one request per key refreshes the entry at a time.
+	 */
+	private boolean shouldRefreshEarly(CacheConfig cc, ProxyHTTPRequest request, CacheKey key, CacheEntry entry) {
+		CacheConfig.CacheConfigOverride cco = cc.getOverride(request.getInitialAuthority(), request.getInitialPath());
+		if(cco == null || cco.earlyRefreshBeta <= 0)
+			return false;
+		long remaining = entry.getExpiresAt() - time();
+		double delta = Math.max(entry.getFillTime(), 1) * cco.earlyRefreshBeta;
+		if(-delta * Math.log(java.util.concurrent.ThreadLocalRandom.current().nextDouble()) < remaining)
+			return false;
+		long now = time();
+		return this.earlyRefreshes.putIfAbsent(key, now) == null;
 	}
 
 	private void purgeReply(ProxyHTTPRequest request, int status, String statusmsg, String additional) {
@@ -271,18 +742,87 @@ public class CachePlugin {
 		request.respond(status, resJson.getBytes(), "content-type", "application/json");
 	}
 
-	private boolean tryStartCachingResponse(SocketConnection upstreamConnection, HTTPResponse response, UpstreamServer upstreamServer, String key) {
+	/**
+	 * Responds with the most frequent cache keys of all caches and partitions. Because the lists are not specific to the host of the request, this requires the global
+	 * <i>hotKeysKey</i> instead of the purge key of the host.
+	 */
+	private void hotKeysReply(ProxyHTTPRequest request) {
+		String hotKeysKey = this.hotKeysKey;
+		String requestKey = request.getHeader("x-hot-keys-key");
+		if(requestKey == null || !MessageDigest.isEqual(hotKeysKey.getBytes(StandardCharsets.UTF_8), requestKey.getBytes(StandardCharsets.UTF_8))){
+			this.purgeReply(request, HTTPStatus.STATUS_UNAUTHORIZED, "unauthorized", null);
+			return;
+		}
+		int n = this.hotKeysCapacity;
+		String path = request.getPath();
+		int nind = path.indexOf("?n=");
+		if(nind < 0)
+			nind = path.indexOf("&n=");
+		if(nind >= 0){
+			int nend = path.indexOf('&', nind + 3);
+			n = CachePlugin.parseIntSafe(path.substring(nind + 3, nend >= 0 ? nend : path.length()), n);
+		}
+		StringBuilder sb = new StringBuilder();
+		CachePlugin.hotKeysJson(sb, "requests", this.hotKeysRequests, n);
+		CachePlugin.hotKeysJson(sb, "bytes", this.hotKeysBytes, n);
+		CachePlugin.hotKeysJson(sb, "misses", this.hotKeysMisses, n);
+		this.purgeReply(request, HTTPStatus.STATUS_OK, "ok", sb.toString());
+	}
+
+	private static void hotKeysJson(StringBuilder sb, String name, HeavyHitterSketch sketch, int n) {
+		sb.append(",\"").append(name).append("\":[");
+		boolean first = true;
+		for(HeavyHitterSketch.Entry e : sketch.top(n)){
+			if(!first)
+				sb.append(',');
+			first = false;
+			sb.append("{\"key\":\"");
+			for(char c : e.getKey().toCharArray()){
+				if(c == '"' || c == '\\')
+					sb.append('\\').append(c);
+				else if(c < 0x20)
+					sb.append(String.format("\\u%04x", (int) c));
+				else
+					sb.append(c);
+			}
+			sb.append("\",\"count\":").append(e.getCount()).append(",\"error\":").append(e.getError()).append('}');
+		}
+		sb.append(']');
+	}
+
+	private static String stripQuery(String path) {
+		int queryStart = path.indexOf('?');
+		return queryStart >= 0 ? path.substring(0, queryStart) : path;
+	}
+
+	private boolean tryStartCachingResponse(SocketConnection upstreamConnection, HTTPResponse response, UpstreamServer upstreamServer, ResourceCache cache, CacheKey key) {
 		CacheConfig cc = this.getConfig(upstreamServer);
 		CacheEntry.Properties properties = cc.getResourceProperties(response);
 		if(properties != null){
 			Proxy.getInstance().dispatchEvent(EVENT_CACHE_CANDIDATE, response, properties);
-			synchronized(this.pendingCacheEntries){
-				for(PendingCacheEntry p : this.pendingCacheEntries.values()){
-					if(p.key.equals(key)) // there is already a pending entry for this key
-						return true;
-				}
-				PendingCacheEntry pce = new PendingCacheEntry(upstreamConnection, response, properties);
-				this.pendingCacheEntries.put(response, pce);
+			if(this.pendingCacheKeys.containsKey(key)) // there is already a pending entry for this key (checked again below, this only avoids creating the entry)
+				return true;
+			long contentLength = Math.max(CachePlugin.parseIntSafe(response.getHeader("content-length"), 0), 0);
+			if(contentLength > properties.maxResourceSize)
+				return true;
+			if(this.pendingSize.addAndGet(contentLength) > this.maxPendingSize){ // reserve the expected size, so that concurrent responses cannot exceed the limit together
+				this.pendingSize.addAndGet(-contentLength);
+				logger.debug("Not caching '", key, "' because the pending size limit was reached");
+				this.declinedFills.incrementAndGet();
+				return true;
+			}
+			PendingCacheEntry pce = new PendingCacheEntry(upstreamConnection, response, cache, key, properties, this.pendingSize, contentLength);
+			long discards = this.pendingDiscards.get();
+			// insert into both maps before checking for purges: a purge either sees the entry or increments pendingDiscards after it looked for entries
+			this.pendingCacheEntries.put(response, pce);
+			if(this.pendingCacheKeys.putIfAbsent(key, pce) != null){
+				if(this.pendingCacheEntries.remove(response, pce))
+					pce.release();
+			}else if(this.pendingDiscards.get() != discards){ // a purge may have missed this entry while it was being added
+				if(this.removePendingEntry(pce))
+					pce.release();
+				else
+					this.pendingCacheKeys.remove(key, pce);
 			}
 			return true;
 		}else
@@ -301,6 +841,34 @@ public class CachePlugin {
 			msg.appendHeader("x-served-by", this.servedByPrefix + this.name, ", ");
 	}
 
+	/**
+	 * Returns the circuit breaker of the given upstream server, or <code>null</code> if circuit breakers are disabled.
+	 */
+	private CircuitBreaker getCircuitBreaker(UpstreamServer userver) {
+		if(this.circuitBreakerThreshold <= 0 || userver == null)
+			return null;
+		return this.circuitBreakers.computeIfAbsent(userver, (u) -> new CircuitBreaker(this.circuitBreakerThreshold, this.circuitBreakerOpenTime));
+	}
+
+	private boolean allowForward(UpstreamServer userver) {
+		CircuitBreaker breaker = this.getCircuitBreaker(userver);
+		return breaker == null || breaker.allowRequest();
+	}
+
+	private void onUpstreamFailure(CircuitBreaker breaker, UpstreamServer userver) {
+		if(breaker.onFailure())
+			logger.warn("Opening circuit for upstream server ", userver, " after ", this.circuitBreakerThreshold, " consecutive failures");
+	}
+
+	/**
+	 * Returns whether responses to the given <b>request</b> may be served from the cache, meaning it is a <code>GET</code> or <code>HEAD</code> request with a cache
+	 * configuration override. Only these requests are answered immediately while the circuit of the upstream server is open; all other requests are forwarded as usual.
+	 */
+	private static boolean isCacheableRequest(CacheConfig cc, ProxyHTTPRequest request) {
+		String method = request.getMethod();
+		return (method.equals("GET") || method.equals("HEAD")) && cc.getOverride(request) != null;
+	}
+
 	private CacheConfig getConfig(UpstreamServer userver) {
 		CacheConfig cc = null;
 		if(this.pluginVhost != null){
@@ -311,46 +879,302 @@ public class CachePlugin {
 		return cc;
 	}
 
+	private void applyCapacityFactor(float factor) {
+		if(this.cache != null)
+			this.cache.setCapacityFactor(factor);
+		for(ResourceCache partition : this.partitions.values())
+			partition.setCapacityFactor(factor);
+		for(ResourceCache partition : this.retiredPartitions.values())
+			partition.setCapacityFactor(factor);
+	}
+
+	private ResourceCache getCache(UpstreamServer userver) {
+		if(this.pluginVhost != null){
+			VHostIntegration.Partition partition = this.pluginVhost.getPartition(userver);
+			if(partition != null)
+				return this.partitions.computeIfAbsent(partition.name, (n) -> this.initPartition(partition));
+		}
+		return this.cache;
+	}
+
+	/**
+	 * Deletes the entry with the given <b>key</b>, or all entries whose key starts with <b>key</b> if <b>wildcard</b> is <code>true</code>, from the given <b>cache</b> and
+	 * discards matching responses that are currently being cached in it.
+	 *
+	 * @return The number of deleted entries, or <code>-1</code> if wildcard deletion is not supported by the cache
+	 */
+	private int purgeLocal(ResourceCache cache, String key, boolean wildcard) {
+		int deleted;
+		if(wildcard)
+			deleted = cache.deleteIfKeyStartsWith(key);
+		else
+			deleted = cache.delete(key) != null ? 1 : 0;
+		this.discardPendingEntries(cache, key, wildcard);
+		return deleted;
+	}
+
+	private void discardPendingEntries(ResourceCache cache, String key, boolean wildcard) {
+		if(wildcard){
+			for(PendingCacheEntry entry : this.pendingCacheEntries.values()){
+				if(entry.cache == cache && entry.key.getKey().startsWith(key) && this.removePendingEntry(entry))
+					entry.release();
+			}
+		}else{
+			PendingCacheEntry entry = this.pendingCacheKeys.get(new CacheKey(key));
+			if(entry != null && entry.cache == cache && this.removePendingEntry(entry))
+				entry.release();
+		}
+		this.pendingDiscards.incrementAndGet(); // after searching, see tryStartCachingResponse
+	}
+
+	/**
+	 * Removes the given pending entry from the pending cache entries. Only the caller for which this method returns <code>true</code> may store or release the entry.
+	 *
+	 * @return <code>true</code> if the entry was removed by this call
+	 */
+	private boolean removePendingEntry(PendingCacheEntry pce) {
+		if(!this.pendingCacheEntries.remove(pce.upstreamResponse, pce))
+			return false;
+		this.pendingCacheKeys.remove(pce.key, pce);
+		return true;
+	}
+
+	private void publishPurge(UpstreamServer userver, String key, boolean wildcard) {
+		PurgeBus bus = this.bus;
+		if(bus == null)
+			return;
+		String partitionName = "";
+		if(this.pluginVhost != null){
+			VHostIntegration.Partition partition = this.pluginVhost.getPartition(userver);
+			if(partition != null)
+				partitionName = partition.name;
+		}
+		bus.publish(partitionName, key, wildcard);
+	}
+
+	private void applyPurge(String partitionName, String key, boolean wildcard) {
+		ResourceCache cache = partitionName.isEmpty() ? this.cache : this.partitions.get(partitionName);
+		if(cache == null)
+			cache = this.retiredPartitions.get(partitionName);
+		if(cache == null) // partition not used on this node
+			return;
+		int deleted = this.purgeLocal(cache, key, wildcard);
+		logger.debug("Applied purge from peer: deleted ", deleted, " cache entries (key: '", key, "', wildcard: ", wildcard, ")");
+	}
+
+	private ResourceCache initPartition(VHostIntegration.Partition partition) {
+		ResourceCache retired = this.retiredPartitions.remove(partition.name);
+		if(retired != null){
+			if(retired instanceof org.omegazero.proxyaccelerator.cache.impl.LRUCache)
+				((org.omegazero.proxyaccelerator.cache.impl.LRUCache) retired).setMaxCacheSize(partition.quota);
+			logger.debug("Reusing cache partition '", partition.name, "' with quota ", partition.quota, " bytes");
+			return retired;
+		}
+		Map<String, Object> config = new HashMap<>();
+		config.put("type", this.partitionType);
+		config.put("sizeLimit", partition.quota);
+		ResourceCache cache = initCache(new ConfigObject(config));
+		MemoryGovernor governor = this.governor;
+		if(governor != null)
+			cache.setCapacityFactor(governor.getCapacityFactor());
+		logger.debug("Initialized cache partition '", partition.name, "' with quota ", partition.quota, " bytes: ", cache);
+		return cache;
+	}
+
+	/**
+	 * Closes the cache partitions whose name is not used by any virtual host in the current configuration of the <i>virtual-host</i> plugin. Also called periodically,
+	 * because the <i>virtual-host</i> plugin may be reloaded independently of this plugin.
+	 */
+	private void closeUnconfiguredPartitions() {
+		if(this.pluginVhost == null || this.partitions.isEmpty() && this.retiredPartitions.isEmpty())
+			return;
+		Set<String> configured = this.pluginVhost.getConfiguredPartitionNames();
+		CachePlugin.closeUnconfiguredPartitions(this.partitions, configured);
+		CachePlugin.closeUnconfiguredPartitions(this.retiredPartitions, configured);
+	}
+
+	private static void closeUnconfiguredPartitions(Map<String, ResourceCache> partitions, Set<String> configured) {
+		for(Map.Entry<String, ResourceCache> e : partitions.entrySet()){
+			if(!configured.contains(e.getKey()) && partitions.remove(e.getKey(), e.getValue())){
+				logger.debug("Closing cache partition '", e.getKey(), "' because no virtual host uses it anymore");
+				e.getValue().close();
+			}
+		}
+	}
+
 	private void cleanup() {
-		synchronized(this.pendingCacheEntries){
-			Iterator<java.util.Map.Entry<HTTPResponse, PendingCacheEntry>> iterator = this.pendingCacheEntries.entrySet().iterator();
-			while(iterator.hasNext()){
-				PendingCacheEntry entry = iterator.next().getValue();
-				if(!entry.upstreamConnection.isConnected()){
+		for(PendingCacheEntry entry : this.pendingCacheEntries.values()){
+			if(!entry.upstreamConnection.isConnected()){
+				if(this.removePendingEntry(entry)){
 					logger.warn("Removing pending cache entry with closed upstream connection (the connection closed before the full response was received): ",
 							entry.request.requestURI());
-					iterator.remove();
-				}else if(entry.getPendingTime() > 60){
+					entry.release();
+				}
+			}else if(entry.getPendingTime() > 60){
+				if(this.removePendingEntry(entry)){
 					logger.warn("Removing cache entry that was pending for more than 60 seconds: ", entry.request.requestURI());
-					iterator.remove();
+					entry.release();
 				}
 			}
 		}
+		if(this.governor != null)
+			this.governor.check();
+		// requests are removed when their stale-if-slow timer fires at the latest, this only releases requests that were answered otherwise earlier
+		this.slowRequests.keySet().removeIf(ProxyHTTPRequest::hasResponse);
+		long refreshTimeout = time() - 60000;
+		this.earlyRefreshes.values().removeIf((t) -> t < refreshTimeout);
+		long declined = this.declinedFills.get();
+		if(declined > this.declinedFillsReported){
+			logger.warn("Declined ", declined - this.declinedFillsReported, " cache fills because the pending size limit of ", this.maxPendingSize, " bytes was reached");
+			this.declinedFillsReported = declined;
+		}
+		this.closeUnconfiguredPartitions();
 		// the cache cleanup method removes stale entries
 		this.cache.cleanup();
+		for(ResourceCache partition : this.partitions.values())
+			partition.cleanup();
+		for(ResourceCache partition : this.retiredPartitions.values())
+			partition.cleanup();
 	}
 
 	private synchronized void reloadCache() {
-		ResourceCache newCache;
+		List<ConfigObject> levelConfigs = new ArrayList<>();
 		if(this.caches != null){
-			List<ResourceCache> cacheInstances = new java.util.ArrayList<>();
 			for(Object o : this.caches){
 				if(!(o instanceof ConfigObject))
 					throw new IllegalArgumentException("Entries in 'caches' must be objects");
-				cacheInstances.add(initCache((ConfigObject) o));
+				levelConfigs.add((ConfigObject) o);
 			}
-			newCache = new MultiLevelCache(cacheInstances);
 		}else{
-			newCache = initCache(this.singleCacheConfig);
+			levelConfigs.add(this.singleCacheConfig);
 		}
-		if(this.cache != null)
-			this.cache.close();
-		this.cache = newCache;
+		this.reloadCacheLevels(levelConfigs, this.caches != null);
+
+		if(Objects.equals(this.partitionType, this.activePartitionType)){
+			this.retiredPartitions.putAll(this.partitions); // quotas may have changed, partitions are resized when they are used again
+		}else{
+			for(ResourceCache partition : this.retiredPartitions.values())
+				partition.close();
+			this.retiredPartitions.clear();
+			for(ResourceCache partition : this.partitions.values())
+				partition.close();
+		}
+		this.partitions.clear();
+		this.activePartitionType = this.partitionType;
+		this.closeUnconfiguredPartitions();
 		logger.debug("Initialized cache: ", this.cache.getClass().getName(), " (", this.cache, ")");
 	}
 
+	/**
+	 * Creates the given cache levels, reusing the cache levels of the previous configuration where possible. Levels with an unchanged configuration are kept, memory
+	 * caches where only the size limit changed are resized, and the entries of other changed levels are migrated to their replacement at the same position, if the old
+	 * cache supports it. Only levels without a replacement are discarded.
+	 * <p>
+	 * All levels that are not kept are closed before any new level is created, because a new level may need resources held by an old one, for example the port of a
+	 * <i>peer</i> cache.
+	 *
+	 * @param multiLevel Whether to combine the levels in a {@link MultiLevelCache} instead of using the first level directly
+	 * @return The new cache
+	 */
+	synchronized ResourceCache reloadCacheLevels(List<ConfigObject> levelConfigs, boolean multiLevel) {
+		List<ResourceCache> oldLevels = new ArrayList<>(this.cacheLevels); // reused levels are set to null
+		List<ConfigObject> oldConfigs = this.cacheLevelConfigs;
+		ResourceCache[] levels = new ResourceCache[levelConfigs.size()];
+		for(int i = 0; i < levels.length; i++){
+			for(int j = 0; j < oldLevels.size(); j++){
+				if(oldLevels.get(j) != null && configEquals(levelConfigs.get(i), oldConfigs.get(j))){
+					levels[i] = oldLevels.set(j, null);
+					logger.debug("Keeping cache level ", i, " (", levels[i], ")");
+					break;
+				}
+			}
+		}
+		for(int i = 0; i < levels.length; i++){
+			ConfigObject config = levelConfigs.get(i);
+			long sizeLimit = config.optLong("sizeLimit", -1);
+			if(levels[i] != null || sizeLimit < 0)
+				continue;
+			for(int j = 0; j < oldLevels.size(); j++){
+				if(oldLevels.get(j) instanceof org.omegazero.proxyaccelerator.cache.impl.LRUCache
+						&& configEquals(withoutKey(config, "sizeLimit"), withoutKey(oldConfigs.get(j), "sizeLimit"))){
+					levels[i] = oldLevels.set(j, null);
+					((org.omegazero.proxyaccelerator.cache.impl.LRUCache) levels[i]).setMaxCacheSize(sizeLimit);
+					logger.debug("Resized cache level ", i, " to ", sizeLimit, " bytes (", levels[i], ")");
+					break;
+				}
+			}
+		}
+
+		ResourceCache[] replaced = new ResourceCache[levels.length];
+		List<List<Map.Entry<String, CacheEntry>>> migratedEntries = new ArrayList<>();
+		for(int i = 0; i < levels.length; i++){
+			ResourceCache old = levels[i] == null && i < oldLevels.size() ? oldLevels.set(i, null) : null;
+			replaced[i] = old;
+			migratedEntries.add(old != null ? CachePlugin.collectEntries(old) : null);
+			if(old != null)
+				old.close();
+		}
+		for(ResourceCache old : oldLevels){
+			if(old != null){
+				logger.info("Discarding removed cache level (", old, ") and its entries");
+				old.close();
+			}
+		}
+		for(int i = 0; i < levels.length; i++){
+			if(levels[i] != null)
+				continue;
+			levels[i] = initCache(levelConfigs.get(i));
+			if(replaced[i] != null){
+				logger.info("Replacing cache level ", i, " (", replaced[i], ") with ", levels[i], " because its configuration changed");
+				List<Map.Entry<String, CacheEntry>> entries = migratedEntries.get(i);
+				if(entries != null){
+					for(Map.Entry<String, CacheEntry> e : entries)
+						levels[i].store(e.getKey(), e.getValue());
+					logger.info("Migrated ", entries.size(), " cache entries from ", replaced[i], " to ", levels[i]);
+				}
+			}
+		}
+
+		ResourceCache newCache = multiLevel ? new MultiLevelCache(Arrays.asList(levels)) : levels[0];
+		if(this.governor != null)
+			newCache.setCapacityFactor(this.governor.getCapacityFactor());
+		this.cache = newCache;
+		this.cacheLevels = Arrays.asList(levels);
+		this.cacheLevelConfigs = levelConfigs;
+		return newCache;
+	}
 
-	private static ResourceCache initCache(ConfigObject obj){
+
+	/**
+	 * Returns the total number of bytes of response bodies currently buffered for responses that are being cached.
+	 *
+	 * @return The pending size in bytes
+	 * @since 1.5
+	 */
+	public long getPendingSize() {
+		return this.pendingSize.get();
+	}
+
+	/**
+	 * Returns the number of responses that were not cached or whose caching was aborted because the pending size limit (<code>maxPendingSize</code>) was reached.
+	 *
+	 * @return The number of declined cache fills
+	 * @since 1.5
+	 */
+	public long getDeclinedFillCount() {
+		return this.declinedFills.get();
+	}
+
+
+	/**
+	 * Creates a new {@link ResourceCache} instance using the given cache level configuration. The implementation is selected using the <code>type</code> property.
+	 *
+	 * @param obj The cache level configuration
+	 * @return The new cache instance
+	 * @throws IllegalArgumentException If the given type does not exist
+	 * @since 1.5
+	 */
+	public static ResourceCache initCache(ConfigObject obj){
 		String type = obj.getString("type");
 		Function<? super ConfigObject, ? extends ResourceCache> supplier = CachePlugin.cacheTypes.get(type);
 		if(supplier == null)
@@ -359,6 +1183,226 @@ public class CachePlugin {
 	}
 
 
+	/**
+	 * Returns the cache level configuration contained in the given plugin configuration with a single cache level, which is the given <b>config</b> without plugin options
+	 * and {@link CacheConfig} properties. Used to compare only the cache level configuration on reloads.
+	 */
+	private static ConfigObject getCacheLevelConfig(ConfigObject config) {
+		Map<String, Object> data = config.copyData();
+		data.keySet().removeAll(CacheConfig.PROPERTY_NAMES);
+		for(java.lang.reflect.Field field : CachePlugin.class.getDeclaredFields()){
+			if(field.isAnnotationPresent(ConfigurationOption.class))
+				data.remove(field.getName());
+		}
+		return new ConfigObject(data);
+	}
+
+	/**
+	 * Stores the unexpired entries of the cache <b>from</b> in the cache <b>to</b>, if <b>from</b> supports iterating over its entries.
+	 */
+	/**
+	 * Returns the unexpired entries of the given cache, or <code>null</code> if the cache type does not support iterating over its entries.
+	 */
+	private static List<Map.Entry<String, CacheEntry>> collectEntries(ResourceCache from) {
+		List<Map.Entry<String, CacheEntry>> entries = new ArrayList<>();
+		boolean supported = from.forEachEntry((key, entry) -> {
+			if(!entry.isStale())
+				entries.add(new AbstractMap.SimpleImmutableEntry<>(key, entry));
+		});
+		if(!supported){
+			logger.warn("Discarding the entries of replaced cache level (", from, ") because its cache type does not support migrating entries");
+			return null;
+		}
+		return entries;
+	}
+
+	/**
+	 * Compares two configuration values, which may be {@link ConfigObject}s or {@link ConfigArray}s, deeply.
+	 */
+	private static boolean configEquals(Object a, Object b) {
+		if(a instanceof ConfigObject && b instanceof ConfigObject){
+			Map<String, Object> da = ((ConfigObject) a).copyData();
+			Map<String, Object> db = ((ConfigObject) b).copyData();
+			if(!da.keySet().equals(db.keySet()))
+				return false;
+			for(String key : da.keySet()){
+				if(!configEquals(da.get(key), db.get(key)))
+					return false;
+			}
+			return true;
+		}else if(a instanceof ConfigArray && b instanceof ConfigArray){
+			Iterator<Object> ia = ((ConfigArray) a).iterator();
+			Iterator<Object> ib = ((ConfigArray) b).iterator();
+			while(ia.hasNext() && ib.hasNext()){
+				if(!configEquals(ia.next(), ib.next()))
+					return false;
+			}
+			return !ia.hasNext() && !ib.hasNext();
+		}else
+			return Objects.equals(a, b);
+	}
+
+	/**
+	 * Returns a copy of the given <b>config</b> without the property with the given <b>key</b>.
+	 */
+	private static ConfigObject withoutKey(ConfigObject config, String key) {
+		Map<String, Object> data = config.copyData();
+		data.remove(key);
+		return new ConfigObject(data);
+	}
+
+	/**
+	 * Returns the link values of the given <i>Link</i> header <b>value</b> with a <code>preload</code>, <code>modulepreload</code> or <code>preconnect</code> relation type,
+	 * separated by commas.
+	 *
+	 * @return The link values, or <code>null</code> if there are none
+	 */
+	private static String getEarlyHintLinks(String value) {
+		if(value == null)
+			return null;
+		StringBuilder sb = new StringBuilder();
+		boolean inUri = false;
+		boolean inQuote = false;
+		int start = 0;
+		for(int i = 0; i <= value.length(); i++){
+			char c = i < value.length() ? value.charAt(i) : ',';
+			if(inQuote){
+				if(c == '\\')
+					i++;
+				else if(c == '"')
+					inQuote = false;
+			}else if(c == '"'){
+				inQuote = true;
+			}else if(c == '<'){
+				inUri = true;
+			}else if(c == '>'){
+				inUri = false;
+			}else if(c == ',' && !inUri){
+				String link = value.substring(start, i).trim();
+				start = i + 1;
+				Matcher m = EARLY_HINT_REL.matcher(link);
+				if(link.startsWith("<") && m.find()){
+					if(sb.length() > 0)
+						sb.append(", ");
+					sb.append(link);
+				}
+			}
+		}
+		return sb.length() > 0 ? sb.toString() : null;
+	}
+
+	/**
+	 * Checks if the given <b>response</b> is an ESI template, which is a successful response that declares ESI processing in its <i>Surrogate-Control</i> header.
+	 */
+	private static boolean isESITemplate(HTTPResponse response) {
+		String surrogateControl = response.getHeader("surrogate-control");
+		return response.getStatus() == HTTPStatus.STATUS_OK && surrogateControl != null && surrogateControl.contains("ESI/1.0");
+	}
+
+	/**
+	 * Replaces the headers of an ESI template response that do not apply to the assembled document, whose length is not known in advance and which may contain
+	 * fragments that depend on request headers.
+	 */
+	private static void prepareESIResponse(HTTPResponse response) {
+		response.deleteHeader("surrogate-control");
+		response.deleteHeader("content-length");
+		response.deleteHeader("etag");
+		response.deleteHeader("last-modified");
+		response.deleteHeader("accept-ranges");
+		response.setHeader("cache-control", "private");
+	}
+
+	/**
+	 * Evaluates the preconditions of the given <b>request</b> against the cached response <b>res</b> (RFC 9110, section 13.2.2).
+	 *
+	 * @return <code>0</code> if the response should be sent normally, or the status of the response without body to send instead (<code>304</code> or <code>412</code>)
+	 */
+	static int evaluatePreconditions(HTTPRequest request, HTTPResponse res) {
+		String etag = res.getHeader("etag");
+		long lastModified = HTTPDateUtil.parse(res.getHeader("last-modified"));
+		String ifMatch = request.getHeader("if-match");
+		if(ifMatch != null){
+			if(!CachePlugin.matchesETag(ifMatch, etag, false))
+				return HTTPStatus.STATUS_PRECONDITION_FAILED;
+		}else{
+			long ifUnmodifiedSince = HTTPDateUtil.parse(request.getHeader("if-unmodified-since"));
+			if(ifUnmodifiedSince >= 0 && lastModified > ifUnmodifiedSince)
+				return HTTPStatus.STATUS_PRECONDITION_FAILED;
+		}
+		String ifNoneMatch = request.getHeader("if-none-match");
+		if(ifNoneMatch != null){
+			if(CachePlugin.matchesETag(ifNoneMatch, etag, true))
+				return HTTPStatus.STATUS_NOT_MODIFIED;
+		}else{
+			long ifModifiedSince = HTTPDateUtil.parse(request.getHeader("if-modified-since"));
+			if(ifModifiedSince >= 0 && lastModified >= 0 && lastModified <= ifModifiedSince)
+				return HTTPStatus.STATUS_NOT_MODIFIED;
+		}
+		return 0;
+	}
+
+	/**
+	 * Checks if any entity tag in the given <i>If-Match</i> or <i>If-None-Match</i> header <b>value</b> matches the given <b>etag</b>, using weak or strong comparison.
+	 */
+	static boolean matchesETag(String value, String etag, boolean weak) {
+		value = value.trim();
+		if(value.equals("*"))
+			return true;
+		if(etag == null || !weak && etag.startsWith("W/"))
+			return false;
+		String opaqueTag = etag.startsWith("W/") ? etag.substring(2) : etag;
+		int i = 0;
+		int len = value.length();
+		while(i < len){
+			char c = value.charAt(i);
+			if(c == ' ' || c == '\t' || c == ','){
+				i++;
+				continue;
+			}
+			boolean tagWeak = value.startsWith("W/", i);
+			int start = tagWeak ? i + 2 : i;
+			int end;
+			if(start < len && value.charAt(start) == '"'){
+				end = value.indexOf('"', start + 1);
+				end = end < 0 ? len : end + 1;
+			}else{ // not a valid entity-tag, skip to the next list element
+				end = value.indexOf(',', start);
+				if(end < 0)
+					end = len;
+			}
+			if((weak || !tagWeak) && value.regionMatches(start, opaqueTag, 0, opaqueTag.length()) && end - start == opaqueTag.length())
+				return true;
+			i = end;
+		}
+		return false;
+	}
+
+	/**
+	 * Returns the cache key of the given <b>request</b>. The key is computed on the first call and attached to the request.
+	 */
+	private static CacheKey getCacheKey(CacheConfig cc, ProxyHTTPRequest request) {
+		CacheKey key = (CacheKey) request.getAttachment(ATTACHMENT_CACHE_KEY);
+		if(key == null){
+			key = new CacheKey(cc.getCacheKey(request.getInitialMethod(), request.getInitialScheme(), request.getInitialAuthority(), request.getInitialPath()));
+			request.setAttachment(ATTACHMENT_CACHE_KEY, key);
+		}
+		return key;
+	}
+
+	private static boolean isFoldedHead(CacheConfig cc, ProxyHTTPRequest request) {
+		if(!request.getInitialMethod().equals("HEAD"))
+			return false;
+		CacheConfig.CacheConfigOverride cco = cc.getOverride(request.getInitialAuthority(), request.getInitialPath());
+		return cco != null && cco.keyFoldHead;
+	}
+
+	/**
+	 * Returns the cache key of the given <b>request</b>, without applying any key rules of a {@link CacheConfig}.
+	 *
+	 * @param request The request
+	 * @return The cache key
+	 * @see CacheConfig#getCacheKey(String, String, String, String)
+	 */
 	public static String getCacheKey(ProxyHTTPRequest request) {
 		return CachePlugin.getCacheKey(request.getInitialMethod(), request.getInitialScheme(), request.getInitialAuthority(), request.getInitialPath());
 	}
@@ -419,6 +1463,47 @@ public class CachePlugin {
 		return CachePlugin.varyComparators.put(header, comparator) != null;
 	}
 
+	/**
+	 * Registers a new {@link VaryNormalizer}, which maps the values of the given request <b>header</b> to a canonical value. If a normalizer is registered for a header
+	 * declared in the <b>Vary</b> HTTP header of a response, the normalized request header values are compared instead of using the {@link VaryComparator} of that
+	 * header. Normalizers configured in the plugin configuration take precedence over normalizers registered using this method.
+	 *
+	 * @param header The name of the HTTP header whose values this normalizer normalizes
+	 * @param normalizer The normalizer, or <code>null</code> to remove the normalizer
+	 * @return <code>true</code> if a normalizer was previously registered for the given header
+	 * @since 1.5
+	 */
+	public static boolean registerVaryNormalizer(String header, VaryNormalizer normalizer) {
+		if(normalizer == null)
+			return CachePlugin.varyNormalizers.remove(header) != null;
+		return CachePlugin.varyNormalizers.put(header, normalizer) != null;
+	}
+
+	static VaryNormalizer getVaryNormalizer(String header) {
+		VaryNormalizer n = CachePlugin.configuredVaryNormalizers.get(header);
+		if(n != null)
+			return n;
+		return CachePlugin.varyNormalizers.get(header);
+	}
+
+	private static VaryNormalizer parseVaryNormalizer(ConfigObject obj) {
+		String type = obj.getString("type");
+		ConfigArray valuesArr = obj.getArray("values");
+		String[] values = new String[valuesArr.size()];
+		int i = 0;
+		for(Object o : valuesArr){
+			if(!(o instanceof String))
+				throw new IllegalArgumentException("Values in 'values' must be strings");
+			values[i++] = (String) o;
+		}
+		if(type.equals("encoding"))
+			return VaryNormalizer.encodingBuckets(values);
+		else if(type.equals("language"))
+			return VaryNormalizer.languageBuckets(values);
+		else
+			throw new IllegalArgumentException("Invalid vary normalization type '" + type + "'");
+	}
+
 	static VaryComparator getVaryComparator(String header) {
 		VaryComparator c = CachePlugin.varyComparators.get(header);
 		if(c != null)
@@ -427,6 +1512,21 @@ public class CachePlugin {
 			return VaryComparator.EQUALS_COMPARATOR;
 	}
 
+	/**
+	 * Sets the {@link CacheEntryWeigher} used to estimate the memory usage of new {@linkplain CacheEntry cache entries}, which is used by size-limited caches to decide
+	 * when to evict entries.
+	 *
+	 * @param weigher The weigher, or {@code null} to reset to the {@linkplain CacheEntryWeigher#DEFAULT default}
+	 * @since 1.5
+	 */
+	public static void setCacheEntryWeigher(CacheEntryWeigher weigher) {
+		CachePlugin.cacheEntryWeigher = weigher != null ? weigher : CacheEntryWeigher.DEFAULT;
+	}
+
+	static CacheEntryWeigher getCacheEntryWeigher() {
+		return CachePlugin.cacheEntryWeigher;
+	}
+
 	/**
 	 * Parses the given string as a positive integer. The string must only contain digits. If the string is <code>null</code>, contains invalid characters or the resulting
 	 * number would be larger than <code>Integer.MAX_VALUE</code>, the value passed to <b>def</b> is returned.
@@ -462,22 +1562,35 @@ public class CachePlugin {
 	private static class PendingCacheEntry {
 
 		private final SocketConnection upstreamConnection;
+		private final HTTPResponse upstreamResponse;
 		private final HTTPResponse response;
+		private final ResourceCache cache;
 		private final CacheEntry.Properties ceProperties;
+		private final AtomicLong pendingSize;
 
 		private final ProxyHTTPRequest request;
-		private final String key;
+		private final CacheKey key;
 		private final long created = time();
 
 		private final int correctedAgeValue;
+		private final long responseTime;
 
-		private List<byte[]> data = new LinkedList<>();
-		private int dataLen = 0;
+		private final Queue<byte[]> data = new ConcurrentLinkedQueue<>();
+		private volatile int dataLen = 0; // only modified by the thread receiving the response
+		private final AtomicLong accountedLen; // bytes added to pendingSize, -1 after release()
 
-		public PendingCacheEntry(SocketConnection upstreamConnection, HTTPResponse response, CacheEntry.Properties properties) {
+		/**
+		 * Creates a new {@link PendingCacheEntry}. <b>reserved</b> bytes were already added to <b>pendingSize</b> for this entry and are released by {@link #release()}.
+		 */
+		public PendingCacheEntry(SocketConnection upstreamConnection, HTTPResponse response, ResourceCache cache, CacheKey key, CacheEntry.Properties properties,
+				AtomicLong pendingSize, long reserved) {
 			this.upstreamConnection = upstreamConnection;
+			this.upstreamResponse = response;
 			this.response = new HTTPResponse(response);
+			this.cache = cache;
 			this.ceProperties = properties;
+			this.pendingSize = pendingSize;
+			this.accountedLen = new AtomicLong(reserved);
 
 			ProxyHTTPRequest request = (ProxyHTTPRequest) response.getOther();
 			if(request == null)
@@ -486,10 +1599,10 @@ public class CachePlugin {
 			prequest.setAuthority(prequest.getInitialAuthority()); // reset any changes
 			prequest.setPath(prequest.getInitialPath());
 			this.request = prequest;
-			this.key = CachePlugin.getCacheKey(this.request);
+			this.key = key;
 
-			this.correctedAgeValue = CachePlugin.parseIntSafe(response.getHeader("age"), 0)
-					+ (int) ((response.getCreatedTime() - response.getOther().getCreatedTime()) / 1000);
+			this.responseTime = response.getCreatedTime() - response.getOther().getCreatedTime();
+			this.correctedAgeValue = CachePlugin.parseIntSafe(response.getHeader("age"), 0) + (int) (this.responseTime / 1000);
 
 			this.response.setOther(this.request);
 			this.request.setOther(this.response);
@@ -503,23 +1616,48 @@ public class CachePlugin {
 			return (int) ((time() - this.created) / 1000);
 		}
 
+		public int getFillTime() {
+			return (int) (this.responseTime + time() - this.created);
+		}
+
 
-		public synchronized boolean addData(byte[] d) {
+		public boolean addData(byte[] d, long maxPendingSize) {
+			int newLen = this.dataLen + d.length;
+			long accounted, newAccounted;
+			do{
+				accounted = this.accountedLen.get();
+				if(accounted < 0)
+					return false;
+				newAccounted = Math.max(accounted, newLen); // data within the reserved size is already accounted for
+			}while(!this.accountedLen.compareAndSet(accounted, newAccounted));
 			this.data.add(d);
-			this.dataLen += d.length;
-			return this.dataLen <= this.ceProperties.maxResourceSize;
+			this.dataLen = newLen;
+			long total = this.pendingSize.addAndGet(newAccounted - accounted);
+			return this.dataLen <= this.ceProperties.maxResourceSize && total <= maxPendingSize;
 		}
 
-		public synchronized CacheEntry get() {
-			if(this.data == null)
-				throw new IllegalStateException("Already created");
+		/**
+		 * Removes the data of this entry from the pending size. Must be called after this entry was removed from the pending cache entries.
+		 */
+		public void release() {
+			long accounted = this.accountedLen.getAndSet(-1);
+			if(accounted > 0)
+				this.pendingSize.addAndGet(-accounted);
+			this.data.clear();
+		}
+
+		/**
+		 * Creates the {@link CacheEntry} from the received data. Must be called before {@link #release()}.
+		 */
+		public CacheEntry get() {
+			if(this.accountedLen.get() < 0)
+				throw new IllegalStateException("Already released");
 			byte[] data = new byte[this.dataLen];
 			int i = 0;
 			for(byte[] d : this.data){
 				System.arraycopy(d, 0, data, i, d.length);
 				i += d.length;
 			}
-			this.data = null;
 
 			this.request.lock();
 			this.response.lock();
@@ -532,11 +1670,18 @@ public class CachePlugin {
 		CachePlugin.registerCacheImplementation("lru", (config) -> {
 			org.omegazero.proxyaccelerator.cache.impl.LRUCache cache = new org.omegazero.proxyaccelerator.cache.impl.LRUCache();
 			cache.setMaxCacheSize(config.optLong("sizeLimit", (long) (Runtime.getRuntime().maxMemory() * 0.5f)));
+			if(config.optBoolean("dedup", false))
+				cache.setContentStore(new ContentStore());
+			cache.setCompress(config.optBoolean("compress", false));
+			cache.setReservedCapacity(config.optInt("reservedCapacity", 25) / 100f);
 			return cache;
 		});
 		CachePlugin.registerCacheImplementation("softreference", (config) -> {
-			return new org.omegazero.proxyaccelerator.cache.impl.SoftReferenceCache();
+			org.omegazero.proxyaccelerator.cache.impl.SoftReferenceCache cache = new org.omegazero.proxyaccelerator.cache.impl.SoftReferenceCache();
+			cache.setCompress(config.optBoolean("compress", false));
+			return cache;
 		});
 		CachePlugin.registerCacheImplementationByClassName("disk", "org.omegazero.proxyaccelerator.cache.impl.DiskCache");
+		CachePlugin.registerCacheImplementationByClassName("peer", "org.omegazero.proxyaccelerator.cache.impl.PeerCache");
 	}
 }
@@ -0,0 +1,259 @@
+/*
+ * Copyright (C) 2023 omegazero.org, warp03
+ *
+ * This Source Code Form is subject to the terms of the Mozilla Public License, v. 2.0.
+ * If a copy of the MPL was not distributed with this file, You can obtain one at https://mozilla.org/MPL/2.0/.
+ */
+package org.omegazero.proxyaccelerator.cache;
+
+import java.io.IOException;
+import java.net.URI;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.json.JSONArray;
+import org.json.JSONObject;
+import org.omegazero.common.config.ConfigArray;
+import org.omegazero.common.config.ConfigObject;
+import org.omegazero.http.common.HTTPRequest;
+
+/**
+ * Command line tool that fills a <code>disk</code> cache directory with resources listed in an access log or URL list, so that a new proxy node can start with a warm
+ * cache.
+ * <p>
+ * Resources are fetched from the origin server (or the server given with <code>--origin</code>) with bounded concurrency. Responses are only stored if they are cacheable
+ * according to the given cache plugin configuration, using the same rules as {@link CachePlugin}.
+ * <p>
+ * Usage: <code>java -cp &lt;proxy jar&gt;:cache.jar org.omegazero.proxyaccelerator.cache.CacheWarmer --config &lt;file&gt; [options] &lt;input file&gt;</code>
+ *
+ * @since 1.5
+ */
+public final class CacheWarmer {
+
+	private final CacheConfig cacheConfig;
+	private final ResourceCache cache;
+	private final OriginClient client;
+	private final URI origin;
+	private final Map<String, String> headers;
+	private final int timeout;
+	private final Semaphore concurrency;
+
+	private final AtomicInteger stored = new AtomicInteger();
+	private final AtomicInteger uncacheable = new AtomicInteger();
+	private final AtomicInteger failed = new AtomicInteger();
+
+	private CacheWarmer(CacheConfig cacheConfig, ResourceCache cache, URI origin, Map<String, String> headers, int timeout, int concurrency) {
+		this.cacheConfig = cacheConfig;
+		this.cache = cache;
+		this.origin = origin;
+		this.headers = headers;
+		this.timeout = timeout * 1000;
+		this.concurrency = new Semaphore(concurrency);
+		this.client = new OriginClient(this.timeout);
+	}
+
+
+	private void run(List<URI> uris) throws InterruptedException {
+		List<CompletableFuture<Void>> futures = new ArrayList<>();
+		for(URI uri : uris){
+			this.concurrency.acquire();
+			futures.add(this.fetch(uri).whenComplete((v, e) -> this.concurrency.release()));
+		}
+		CompletableFuture.allOf(futures.toArray(new CompletableFuture<?>[futures.size()])).exceptionally((e) -> null).join();
+	}
+
+	private CompletableFuture<Void> fetch(URI uri) {
+		return this.client.fetch(uri, this.origin, this.headers, this.timeout).thenAccept((result) -> {
+			CacheEntry entry = OriginClient.createEntry(this.cacheConfig, result);
+			if(entry == null){
+				this.uncacheable.incrementAndGet();
+				return;
+			}
+			HTTPRequest request = result.request;
+			CacheKey key = new CacheKey(this.cacheConfig.getCacheKey("GET", request.getScheme(), request.getAuthority(), request.getPath()));
+			this.cache.store(key, entry);
+			this.stored.incrementAndGet();
+			System.out.println("Stored " + key + " (" + result.body.length + " bytes, max age " + entry.getProperties().maxAge + "s)");
+		}).exceptionally((e) -> {
+			System.err.println("Failed to fetch " + uri + ": " + e);
+			this.failed.incrementAndGet();
+			return null;
+		});
+	}
+
+
+	/**
+	 * Reads the resources to fetch from the given file. Each line is either an absolute URL, or an access log line in common or combined log format, whose request path is
+	 * resolved against <b>base</b>. Resources are returned in ascending order of the number of occurrences, so that the most requested resources are written last and are
+	 * evicted last if the cache size limit is exceeded.
+	 */
+	private static List<URI> readInput(String file, URI base) throws IOException {
+		Map<String, Integer> counts = new LinkedHashMap<>();
+		int lineNum = 0;
+		for(String line : Files.readAllLines(Paths.get(file), StandardCharsets.UTF_8)){
+			lineNum++;
+			line = line.trim();
+			if(line.isEmpty() || line.startsWith("#"))
+				continue;
+			String url;
+			if(line.startsWith("http://") || line.startsWith("https://")){
+				url = line;
+			}else{
+				int reqStart = line.indexOf('"');
+				int reqEnd = reqStart >= 0 ? line.indexOf('"', reqStart + 1) : -1;
+				String[] reqLine = reqEnd > 0 ? line.substring(reqStart + 1, reqEnd).split(" ") : null;
+				if(reqLine == null || reqLine.length < 2){
+					System.err.println("Skipping unrecognized line " + lineNum);
+					continue;
+				}
+				if(!reqLine[0].equals("GET"))
+					continue;
+				if(base == null)
+					throw new IllegalArgumentException("Line " + lineNum + " contains a relative path, but --base was not given");
+				url = base.getScheme() + "://" + base.getRawAuthority() + reqLine[1];
+			}
+			counts.merge(url, 1, Integer::sum);
+		}
+		List<Map.Entry<String, Integer>> entries = new ArrayList<>(counts.entrySet());
+		entries.sort(Map.Entry.comparingByValue());
+		List<URI> uris = new ArrayList<>(entries.size());
+		for(Map.Entry<String, Integer> e : entries){
+			try{
+				uris.add(new URI(e.getKey()));
+			}catch(java.net.URISyntaxException ex){
+				System.err.println("Skipping invalid URL '" + e.getKey() + "': " + ex.getMessage());
+			}
+		}
+		return uris;
+	}
+
+	/**
+	 * Returns the configuration of the first <code>disk</code> cache level in the given cache plugin configuration.
+	 */
+	private static ConfigObject findDiskCacheConfig(ConfigObject config) {
+		if("disk".equals(config.optString("type", null)))
+			return config;
+		ConfigArray caches = config.optArray("caches");
+		if(caches != null){
+			for(Object o : caches){
+				if(o instanceof ConfigObject && "disk".equals(((ConfigObject) o).optString("type", null)))
+					return (ConfigObject) o;
+			}
+		}
+		return null;
+	}
+
+	private static Object convertJSON(Object obj) {
+		if(obj instanceof JSONObject){
+			JSONObject json = (JSONObject) obj;
+			Map<String, Object> map = new HashMap<>();
+			for(String key : json.keySet())
+				map.put(key, convertJSON(json.get(key)));
+			return new ConfigObject(map);
+		}else if(obj instanceof JSONArray){
+			JSONArray json = (JSONArray) obj;
+			List<Object> list = new ArrayList<>(json.length());
+			for(int i = 0; i < json.length(); i++)
+				list.add(convertJSON(json.get(i)));
+			return new ConfigArray(list);
+		}else if(obj == JSONObject.NULL)
+			return null;
+		else
+			return obj;
+	}
+
+	private static void usage() {
+		System.err.println("Usage: CacheWarmer --config <file> [options] <input file>");
+		System.err.println("  --config <file>        The cache plugin configuration (JSON), containing a 'disk' cache level");
+		System.err.println("  --cache-dir <dir>      Overrides the 'cacheBaseDir' of the disk cache");
+		System.err.println("  --base <url>           The scheme and authority of paths in access log lines (e.g. https://example.com)");
+		System.err.println("  --origin <url>         Sends all requests to this plaintext HTTP server instead, with the original URL as the request target");
+		System.err.println("  --concurrency <n>      The maximum number of concurrent requests (default: 8)");
+		System.err.println("  --timeout <seconds>    The request timeout (default: 30)");
+		System.err.println("  --header <name:value>  Adds a request header, may be given multiple times");
+		System.exit(2);
+	}
+
+
+	public static void main(String[] args) throws Exception {
+		String configFile = null;
+		String cacheDir = null;
+		URI base = null;
+		URI origin = null;
+		int concurrency = 8;
+		int timeout = 30;
+		Map<String, String> headers = new LinkedHashMap<>();
+		String input = null;
+		for(int i = 0; i < args.length; i++){
+			String arg = args[i];
+			if(!arg.startsWith("--")){
+				input = arg;
+				continue;
+			}
+			if(i + 1 >= args.length)
+				usage();
+			String value = args[++i];
+			switch(arg){
+				case "--config":
+					configFile = value;
+					break;
+				case "--cache-dir":
+					cacheDir = value;
+					break;
+				case "--base":
+					base = new URI(value);
+					break;
+				case "--origin":
+					origin = new URI(value);
+					break;
+				case "--concurrency":
+					concurrency = Integer.parseInt(value);
+					break;
+				case "--timeout":
+					timeout = Integer.parseInt(value);
+					break;
+				case "--header":{
+					int sep = value.indexOf(':');
+					if(sep <= 0)
+						usage();
+					headers.put(value.substring(0, sep).trim().toLowerCase(), value.substring(sep + 1).trim());
+					break;
+				}
+				default:
+					usage();
+			}
+		}
+		if(configFile == null || input == null || concurrency <= 0)
+			usage();
+
+		ConfigObject config = (ConfigObject) convertJSON(new JSONObject(new String(Files.readAllBytes(Paths.get(configFile)), StandardCharsets.UTF_8)));
+		ConfigObject diskConfig = findDiskCacheConfig(config);
+		if(diskConfig == null){
+			System.err.println("The configuration does not contain a 'disk' cache level");
+			System.exit(1);
+		}
+		Map<String, Object> diskConfigData = diskConfig.copyData();
+		if(cacheDir != null)
+			diskConfigData.put("cacheBaseDir", cacheDir);
+		diskConfigData.put("rewriteDelay", 0);
+
+		List<URI> uris = readInput(input, base);
+		ResourceCache cache = CachePlugin.initCache(new ConfigObject(diskConfigData));
+		CacheWarmer warmer = new CacheWarmer(CacheConfig.from(config, null), cache, origin, headers, timeout, concurrency);
+		try{
+			warmer.run(uris);
+		}finally{
+			cache.close();
+		}
+		System.out.println(uris.size() + " resources: " + warmer.stored.get() + " stored, " + warmer.uncacheable.get() + " not cacheable, " + warmer.failed.get() + " failed");
+	}
+}
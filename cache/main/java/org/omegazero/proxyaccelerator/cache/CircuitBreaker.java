@@ -0,0 +1,112 @@
+/*
+ * Copyright (C) 2023 omegazero.org, warp03
+ *
+ * This Source Code Form is subject to the terms of the Mozilla Public License, v. 2.0.
+ * If a copy of the MPL was not distributed with this file, You can obtain one at https://mozilla.org/MPL/2.0/.
+ */
+package org.omegazero.proxyaccelerator.cache;
+
+/**
+ * Tracks consecutive forwarding failures of an upstream server.
+ * <p>
+ * After <i>threshold</i> consecutive failures, the circuit is opened and {@link #allowRequest()} returns <code>false</code> for <i>openTime</i> milliseconds. After that,
+ * the circuit is half-open: a single probe request is allowed through every <i>openTime</i> milliseconds until a request succeeds, which closes the circuit, or fails,
+ * which opens it again.
+ *
+ * @since 1.5
+ */
+public class CircuitBreaker {
+
+	private int threshold;
+	private int openTime;
+
+	private int failures = 0;
+	private boolean open = false;
+	private long openUntil;
+
+	/**
+	 * Creates a new {@link CircuitBreaker}.
+	 *
+	 * @param threshold The number of consecutive failures after which the circuit is opened
+	 * @param openTime The time in milliseconds the circuit stays open before a probe request is allowed
+	 */
+	public CircuitBreaker(int threshold, int openTime) {
+		this.setLimits(threshold, openTime);
+	}
+
+
+	/**
+	 * Changes the failure threshold and open time, keeping the current state of the circuit. An open circuit stays open until the next probe request is allowed.
+	 *
+	 * @param threshold The number of consecutive failures after which the circuit is opened
+	 * @param openTime The time in milliseconds the circuit stays open before a probe request is allowed
+	 */
+	public synchronized void setLimits(int threshold, int openTime) {
+		if(threshold <= 0 || openTime <= 0)
+			throw new IllegalArgumentException("Invalid threshold or open time: " + threshold + ", " + openTime);
+		this.threshold = threshold;
+		this.openTime = openTime;
+	}
+
+
+	/**
+	 * Checks whether a request may be forwarded to the upstream server. If the circuit is half-open, this claims the probe slot of the current interval.
+	 *
+	 * @return <code>true</code> if the circuit is closed or this request is a probe
+	 */
+	public synchronized boolean allowRequest() {
+		if(!this.open)
+			return true;
+		long now = CachePlugin.time();
+		if(now < this.openUntil)
+			return false;
+		this.openUntil = now + this.openTime;
+		return true;
+	}
+
+	/**
+	 * Records a successful response received from the upstream server, closing the circuit.
+	 *
+	 * @return <code>true</code> if the circuit was open and is now closed
+	 */
+	public synchronized boolean onSuccess() {
+		boolean wasOpen = this.open;
+		this.failures = 0;
+		this.open = false;
+		return wasOpen;
+	}
+
+	/**
+	 * Records a failure to forward a request to the upstream server or a server error response.
+	 *
+	 * @return <code>true</code> if the circuit was closed and is now open
+	 */
+	public synchronized boolean onFailure() {
+		this.failures++;
+		boolean wasClosed = !this.open;
+		if(this.failures >= this.threshold){
+			this.open = true;
+			this.openUntil = CachePlugin.time() + this.openTime;
+			return wasClosed;
+		}
+		return false;
+	}
+
+	/**
+	 * Returns whether the circuit is currently open or half-open.
+	 *
+	 * @return <code>true</code> if the circuit is not closed
+	 */
+	public synchronized boolean isOpen() {
+		return this.open;
+	}
+
+	/**
+	 * Returns whether the circuit is closed and no failures were recorded since the last success, meaning this {@link CircuitBreaker} holds no state.
+	 *
+	 * @return <code>true</code> if this circuit breaker is idle
+	 */
+	public synchronized boolean isIdle() {
+		return !this.open && this.failures == 0;
+	}
+}
@@ -0,0 +1,178 @@
+/*
+ * Copyright (C) 2023 omegazero.org, warp03
+ *
+ * This Source Code Form is subject to the terms of the Mozilla Public License, v. 2.0.
+ * If a copy of the MPL was not distributed with this file, You can obtain one at https://mozilla.org/MPL/2.0/.
+ */
+package org.omegazero.proxyaccelerator.cache;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+import org.omegazero.http.common.HTTPResponse;
+
+/**
+ * Utility methods for storing response bodies of {@linkplain CacheEntry cache entries} in compressed form.
+ *
+ * @since 1.5
+ */
+public final class CompressionUtil {
+
+	/**
+	 * The content encoding used for compressed response bodies.
+	 */
+	public static final String ENCODING = "gzip";
+
+	/**
+	 * The minimum response body size in bytes for the body to be compressed.
+	 */
+	public static final int MIN_SIZE = 256;
+
+	private static final String[] PRECOMPRESSED_TYPES = { "application/zip", "application/gzip", "application/x-gzip", "application/x-bzip2", "application/x-xz",
+			"application/x-7z-compressed", "application/x-rar-compressed", "application/zstd", "application/wasm", "font/woff", "font/woff2" };
+	private static final String[] COMPRESSIBLE_TYPES = { "application/json", "application/javascript", "application/xml", "application/xhtml+xml",
+			"application/rss+xml", "application/atom+xml", "application/manifest+json", "image/svg+xml" };
+
+
+	private CompressionUtil() {
+	}
+
+
+	/**
+	 * Returns a copy of the given <b>entry</b> with a gzip-compressed response body if the response is text-like, not already encoded and compression reduces its size.
+	 * Otherwise, the given entry is returned.
+	 *
+	 * @param entry The cache entry
+	 * @return The compressed entry, or <b>entry</b>
+	 */
+	public static CacheEntry compress(CacheEntry entry) {
+		if(entry.getDataEncoding() != null || entry.getResponseData().length < MIN_SIZE || !isCompressible(entry.getResponse()))
+			return entry;
+		byte[] data = entry.getResponseData();
+		ByteArrayOutputStream baos = new ByteArrayOutputStream(data.length / 4);
+		try(GZIPOutputStream gos = new GZIPOutputStream(baos)){
+			gos.write(data);
+		}catch(IOException e){
+			throw new UncheckedIOException(e);
+		}
+		if(baos.size() >= data.length)
+			return entry;
+		return new CacheEntry(entry, baos.toByteArray(), ENCODING);
+	}
+
+	/**
+	 * Decompresses the given <b>data</b> encoded with the given <b>encoding</b>.
+	 *
+	 * @param data The compressed data
+	 * @param encoding The encoding, as returned by {@link CacheEntry#getDataEncoding()}
+	 * @return The decompressed data
+	 * @throws IllegalArgumentException If the encoding is not supported
+	 */
+	public static byte[] decompress(byte[] data, String encoding) {
+		if(!ENCODING.equals(encoding))
+			throw new IllegalArgumentException("Unsupported encoding: " + encoding);
+		ByteArrayOutputStream baos = new ByteArrayOutputStream(data.length * 4);
+		try(GZIPInputStream gis = new GZIPInputStream(new ByteArrayInputStream(data))){
+			byte[] buf = new byte[8192];
+			int r;
+			while((r = gis.read(buf)) > 0)
+				baos.write(buf, 0, r);
+		}catch(IOException e){
+			throw new UncheckedIOException(e);
+		}
+		return baos.toByteArray();
+	}
+
+	/**
+	 * Checks if the response body of the given response is text-like and not already encoded.
+	 *
+	 * @param response The response
+	 * @return <code>true</code> if the response body may be compressed
+	 */
+	public static boolean isCompressible(HTTPResponse response) {
+		if(response.headerExists("content-encoding"))
+			return false;
+		String cacheControl = response.getHeader("cache-control");
+		if(cacheControl != null && cacheControl.contains("no-transform"))
+			return false;
+		String ctype = CompressionUtil.getMediaType(response);
+		if(ctype == null)
+			return false;
+		if(ctype.startsWith("text/") || ctype.endsWith("+json") || ctype.endsWith("+xml"))
+			return true;
+		for(String t : COMPRESSIBLE_TYPES){
+			if(t.equals(ctype))
+				return true;
+		}
+		return false;
+	}
+
+	/**
+	 * Checks if the response body of the given response is likely already compressed, either because it has a content encoding or because its content type is a
+	 * compressed format (for example, images, video, audio or archives).
+	 *
+	 * @param response The response
+	 * @return <code>true</code> if compressing the response body again is unlikely to reduce its size
+	 */
+	public static boolean isPrecompressed(HTTPResponse response) {
+		String encoding = response.getHeader("content-encoding");
+		if(encoding != null && !encoding.equalsIgnoreCase("identity"))
+			return true;
+		String ctype = CompressionUtil.getMediaType(response);
+		if(ctype == null)
+			return false;
+		if(ctype.startsWith("image/"))
+			return !ctype.equals("image/svg+xml") && !ctype.equals("image/bmp") && !ctype.equals("image/x-icon");
+		if(ctype.startsWith("video/") || ctype.startsWith("audio/"))
+			return true;
+		for(String t : PRECOMPRESSED_TYPES){
+			if(t.equals(ctype))
+				return true;
+		}
+		return false;
+	}
+
+	private static String getMediaType(HTTPResponse response) {
+		String ctype = response.getHeader("content-type");
+		if(ctype == null)
+			return null;
+		int ctypeEnd = ctype.indexOf(';');
+		if(ctypeEnd > 0)
+			ctype = ctype.substring(0, ctypeEnd);
+		return ctype.trim().toLowerCase();
+	}
+
+	/**
+	 * Checks if the given <b>encoding</b> is acceptable according to the value of an <i>Accept-Encoding</i> request header.
+	 *
+	 * @param acceptEncoding The value of the <i>Accept-Encoding</i> header, may be <code>null</code>
+	 * @param encoding The content encoding
+	 * @return <code>true</code> if the encoding is listed with a non-zero quality value or a wildcard is present
+	 */
+	public static boolean isEncodingAccepted(String acceptEncoding, String encoding) {
+		if(acceptEncoding == null)
+			return false;
+		boolean wildcard = false;
+		for(String part : acceptEncoding.split(",")){
+			String name = part;
+			boolean zero = false;
+			int pind = part.indexOf(';');
+			if(pind >= 0){
+				name = part.substring(0, pind);
+				String param = part.substring(pind + 1).trim();
+				if(param.startsWith("q=") || param.startsWith("Q="))
+					zero = param.substring(2).trim().matches("0(\\.0{0,3})?");
+			}
+			name = name.trim();
+			if(name.equalsIgnoreCase(encoding))
+				return !zero;
+			else if(name.equals("*"))
+				wildcard = !zero;
+		}
+		return wildcard;
+	}
+}
@@ -0,0 +1,214 @@
+/*
+ * Copyright (C) 2023 omegazero.org, warp03
+ *
+ * This Source Code Form is subject to the terms of the Mozilla Public License, v. 2.0.
+ * If a copy of the MPL was not distributed with this file, You can obtain one at https://mozilla.org/MPL/2.0/.
+ */
+package org.omegazero.proxyaccelerator.cache;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * A reference-counted, content-addressed store for response bodies, used by {@link ResourceCache}s to keep only a single copy of identical response bodies of different
+ * {@linkplain CacheEntry cache entries}.
+ * <p>
+ * Every call to {@link #acquire(CacheEntry)} must be followed by exactly one call to {@link #release(CacheEntry)} with the same entry when it is removed from the cache.
+ *
+ * @since 1.5
+ */
+public class ContentStore {
+
+	private final Map<ContentHash, Content> contents = new HashMap<>();
+	private long size = 0;
+
+
+	/**
+	 * Adds a reference to the response body of the given <b>entry</b>. If an identical body is already stored, the body of the entry is replaced with the stored array.
+	 *
+	 * @param entry The cache entry
+	 * @return <code>true</code> if the response body was not stored previously, <code>false</code> if it is shared with other entries
+	 */
+	public synchronized boolean acquire(CacheEntry entry) {
+		byte[] data = entry.getResponseData();
+		ContentHash hash = ContentHash.of(data);
+		Content content = this.contents.get(hash);
+		if(content == null){
+			this.contents.put(hash, new Content(data));
+			this.size += data.length;
+			return true;
+		}else if(content.data == data || Arrays.equals(content.data, data)){
+			content.refs++;
+			entry.replaceResponseData(content.data);
+			return false;
+		}else // hash collision, store entry independently
+			return true;
+	}
+
+	/**
+	 * Removes a reference to the response body of the given <b>entry</b> previously added using {@link #acquire(CacheEntry)}.
+	 *
+	 * @param entry The cache entry
+	 * @return <code>true</code> if this was the last reference to the response body and it was removed from this store
+	 */
+	public synchronized boolean release(CacheEntry entry) {
+		byte[] data = entry.getResponseData();
+		ContentHash hash = ContentHash.of(data);
+		Content content = this.contents.get(hash);
+		if(content == null || !(content.data == data || Arrays.equals(content.data, data)))
+			return true;
+		if(--content.refs <= 0){
+			this.contents.remove(hash);
+			this.size -= data.length;
+			return true;
+		}else
+			return false;
+	}
+
+	/**
+	 * Returns the number of distinct response bodies in this store.
+	 *
+	 * @return The number of response bodies
+	 */
+	public synchronized int count() {
+		return this.contents.size();
+	}
+
+	/**
+	 * Returns the total size of all distinct response bodies in this store in bytes.
+	 *
+	 * @return The size in bytes
+	 */
+	public synchronized long size() {
+		return this.size;
+	}
+
+	/**
+	 * Removes all response bodies from this store.
+	 */
+	public synchronized void clear() {
+		this.contents.clear();
+		this.size = 0;
+	}
+
+
+	private static class Content {
+
+		private final byte[] data;
+		private int refs = 1;
+
+		public Content(byte[] data) {
+			this.data = data;
+		}
+	}
+
+	/**
+	 * A 128-bit <a href="https://github.com/aappleby/smhasher/wiki/MurmurHash3">MurmurHash3</a> (x64 variant) of a byte array.
+	 */
+	public static final class ContentHash {
+
+		private static final long C1 = 0x87c37b91114253d5L;
+		private static final long C2 = 0x4cf5ad432745937fL;
+
+		private final long h1;
+		private final long h2;
+
+		private ContentHash(long h1, long h2) {
+			this.h1 = h1;
+			this.h2 = h2;
+		}
+
+
+		@Override
+		public int hashCode() {
+			return (int) this.h1;
+		}
+
+		@Override
+		public boolean equals(Object o) {
+			if(!(o instanceof ContentHash))
+				return false;
+			ContentHash h = (ContentHash) o;
+			return this.h1 == h.h1 && this.h2 == h.h2;
+		}
+
+		@Override
+		public String toString() {
+			return String.format("%016x%016x", this.h1, this.h2);
+		}
+
+
+		public static ContentHash of(byte[] data) {
+			long h1 = 0;
+			long h2 = 0;
+			int len = data.length;
+			int blocks = len >>> 4;
+			for(int i = 0; i < blocks; i++){
+				long k1 = getLong(data, i << 4);
+				long k2 = getLong(data, (i << 4) + 8);
+
+				h1 ^= mixK1(k1);
+				h1 = Long.rotateLeft(h1, 27);
+				h1 += h2;
+				h1 = h1 * 5 + 0x52dce729;
+
+				h2 ^= mixK2(k2);
+				h2 = Long.rotateLeft(h2, 31);
+				h2 += h1;
+				h2 = h2 * 5 + 0x38495ab5;
+			}
+
+			int tail = blocks << 4;
+			long k1 = 0;
+			long k2 = 0;
+			for(int i = len - tail - 1; i >= 0; i--){
+				long b = data[tail + i] & 0xffL;
+				if(i >= 8)
+					k2 |= b << ((i - 8) << 3);
+				else
+					k1 |= b << (i << 3);
+			}
+			h1 ^= mixK1(k1);
+			h2 ^= mixK2(k2);
+
+			h1 ^= len;
+			h2 ^= len;
+			h1 += h2;
+			h2 += h1;
+			h1 = fmix64(h1);
+			h2 = fmix64(h2);
+			h1 += h2;
+			h2 += h1;
+			return new ContentHash(h1, h2);
+		}
+
+		private static long getLong(byte[] data, int i) {
+			return (data[i] & 0xffL) | (data[i + 1] & 0xffL) << 8 | (data[i + 2] & 0xffL) << 16 | (data[i + 3] & 0xffL) << 24 | (data[i + 4] & 0xffL) << 32
+					| (data[i + 5] & 0xffL) << 40 | (data[i + 6] & 0xffL) << 48 | (data[i + 7] & 0xffL) << 56;
+		}
+
+		private static long mixK1(long k1) {
+			k1 *= C1;
+			k1 = Long.rotateLeft(k1, 31);
+			k1 *= C2;
+			return k1;
+		}
+
+		private static long mixK2(long k2) {
+			k2 *= C2;
+			k2 = Long.rotateLeft(k2, 33);
+			k2 *= C1;
+			return k2;
+		}
+
+		private static long fmix64(long k) {
+			k ^= k >>> 33;
+			k *= 0xff51afd7ed558ccdL;
+			k ^= k >>> 33;
+			k *= 0xc4ceb9fe1a85ec53L;
+			k ^= k >>> 33;
+			return k;
+		}
+	}
+}
@@ -0,0 +1,111 @@
+/*
+ * Copyright (C) 2023 omegazero.org, warp03
+ *
+ * This Source Code Form is subject to the terms of the Mozilla Public License, v. 2.0.
+ * If a copy of the MPL was not distributed with this file, You can obtain one at https://mozilla.org/MPL/2.0/.
+ */
+package org.omegazero.proxyaccelerator.cache;
+
+import java.nio.charset.StandardCharsets;
+
+/**
+ * A counting <a href="https://en.wikipedia.org/wiki/Bloom_filter">Bloom filter</a> of strings, supporting removal of elements. Used by {@link ResourceCache}s to quickly
+ * determine that a key is definitely not stored (see {@link ResourceCache#mayContain(String)}).
+ * <p>
+ * Each counter is 8 bits wide. A counter that reaches its maximum value is never decremented again, which may cause false positives but never false negatives.
+ *
+ * @since 1.5
+ */
+public class CountingBloomFilter {
+
+	private final byte[] counters;
+	private final int hashCount;
+
+	/**
+	 * Creates a new {@link CountingBloomFilter} sized for the given number of elements and false positive probability.
+	 *
+	 * @param expectedElements The expected number of elements
+	 * @param fpp The desired false positive probability, between 0 and 1
+	 */
+	public CountingBloomFilter(int expectedElements, double fpp) {
+		if(expectedElements < 1)
+			expectedElements = 1;
+		if(fpp <= 0 || fpp >= 1)
+			throw new IllegalArgumentException("Invalid false positive probability: " + fpp);
+		long size = (long) Math.ceil(-expectedElements * Math.log(fpp) / (Math.log(2) * Math.log(2)));
+		this.counters = new byte[(int) Math.max(64, Math.min(size, Integer.MAX_VALUE - 8))];
+		this.hashCount = (int) Math.max(1, Math.round((double) this.counters.length / expectedElements * Math.log(2)));
+	}
+
+
+	/**
+	 * Adds the given <b>key</b> to this filter.
+	 *
+	 * @param key The key
+	 */
+	public synchronized void add(String key) {
+		long hash = hash(key);
+		for(int i = 0; i < this.hashCount; i++){
+			int index = this.index(hash, i);
+			if(this.counters[index] != (byte) 0xff)
+				this.counters[index]++;
+		}
+	}
+
+	/**
+	 * Removes the given <b>key</b> from this filter. The key must have been {@linkplain #add(String) added} previously.
+	 *
+	 * @param key The key
+	 */
+	public synchronized void remove(String key) {
+		long hash = hash(key);
+		for(int i = 0; i < this.hashCount; i++){
+			int index = this.index(hash, i);
+			if(this.counters[index] != 0 && this.counters[index] != (byte) 0xff)
+				this.counters[index]--;
+		}
+	}
+
+	/**
+	 * Checks if the given <b>key</b> may have been added to this filter.
+	 *
+	 * @param key The key
+	 * @return <code>false</code> if the key is definitely not in this filter, <code>true</code> if it might be
+	 */
+	public synchronized boolean mightContain(String key) {
+		long hash = hash(key);
+		for(int i = 0; i < this.hashCount; i++){
+			if(this.counters[this.index(hash, i)] == 0)
+				return false;
+		}
+		return true;
+	}
+
+	/**
+	 * Removes all keys from this filter.
+	 */
+	public synchronized void clear() {
+		java.util.Arrays.fill(this.counters, (byte) 0);
+	}
+
+
+	private int index(long hash, int i) {
+		int combined = (int) hash + i * (int) (hash >>> 32);
+		return (combined & Integer.MAX_VALUE) % this.counters.length;
+	}
+
+
+	private static long hash(String key) {
+		long h = 0xcbf29ce484222325L;
+		for(byte b : key.getBytes(StandardCharsets.UTF_8)){
+			h ^= b & 0xff;
+			h *= 0x100000001b3L;
+		}
+		h ^= h >>> 33;
+		h *= 0xff51afd7ed558ccdL;
+		h ^= h >>> 33;
+		h *= 0xc4ceb9fe1a85ec53L;
+		h ^= h >>> 33;
+		return h;
+	}
+}
@@ -0,0 +1,395 @@
+/*
+ * Copyright (C) 2023 omegazero.org, warp03
+ *
+ * This Source Code Form is subject to the terms of the Mozilla Public License, v. 2.0.
+ * If a copy of the MPL was not distributed with this file, You can obtain one at https://mozilla.org/MPL/2.0/.
+ */
+package org.omegazero.proxyaccelerator.cache;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Function;
+
+import org.omegazero.common.logging.Logger;
+
+/**
+ * Assembles <a href="https://www.w3.org/TR/esi-lang/">Edge Side Includes</a> templates.
+ * <p>
+ * Supported are <code>&lt;esi:include src="..." alt="..."/&gt;</code>, <code>&lt;esi:remove&gt;</code>, <code>&lt;esi:comment/&gt;</code> and
+ * <code>&lt;!--esi ... --&gt;</code> blocks. Includes whose fragment cannot be retrieved are replaced with empty content. Fragments are not processed recursively.
+ * <p>
+ * The template may be passed in multiple parts using {@link #add(byte[])}. Fragments are requested as soon as their include tag was received, and the assembled document
+ * is written to an internal buffer in order as the template and the fragments become available, which can be retrieved at any time using {@link #drain()}. This class is
+ * thread-safe.
+ *
+ * @since 1.5
+ */
+final class ESIProcessor {
+
+	private static final Logger logger = Logger.create();
+
+	private static final byte[] INCLUDE_TAG = "<esi:include".getBytes();
+	private static final byte[] REMOVE_TAG = "<esi:remove".getBytes();
+	private static final byte[] REMOVE_END_TAG = "</esi:remove>".getBytes();
+	private static final byte[] COMMENT_TAG = "<esi:comment".getBytes();
+	private static final byte[] ESI_COMMENT_START = "<!--esi".getBytes();
+	private static final byte[] ESI_COMMENT_END = "-->".getBytes();
+
+	private static final int LOOKAHEAD = INCLUDE_TAG.length + 1; // the number of bytes required to recognize any tag
+
+	private static final int MAX_INCLUDES = 100;
+
+
+	private final Function<String, CompletableFuture<byte[]>> fragmentResolver;
+	private final long deadline;
+	private final CompletableFuture<Void> completion = new CompletableFuture<>();
+
+	private byte[] template = new byte[0];
+	private int length = 0;
+
+	// parser state
+	private final List<Object> segments = new ArrayList<>();
+	private int includes = 0;
+	private int index = 0;
+	private int prevEnd = 0;
+	private boolean inEsiComment = false;
+	private boolean ended = false;
+
+	// output state
+	private final ByteArrayOutputStream output = new ByteArrayOutputStream();
+	private int written = 0; // number of fully written segments
+	private int literalWritten = 0; // end of the template data written as literal content
+	private CompletableFuture<byte[]> waitingFor;
+
+	/**
+	 * Creates a new {@link ESIProcessor}.
+	 *
+	 * @param fragmentResolver Returns the content of the fragment with the given <code>src</code> URL
+	 * @param timeout The maximum time in milliseconds to wait for the fragments of the template, starting now
+	 */
+	public ESIProcessor(Function<String, CompletableFuture<byte[]>> fragmentResolver, int timeout) {
+		this.fragmentResolver = fragmentResolver;
+		this.deadline = CachePlugin.time() + timeout;
+	}
+
+
+	/**
+	 * Appends the given data to the template, requests the fragments of all new include tags and writes any newly available content of the assembled document.
+	 *
+	 * @param data The next part of the template
+	 */
+	public synchronized void add(byte[] data) {
+		if(this.ended)
+			throw new IllegalStateException("Template already ended");
+		if(this.length + data.length > this.template.length)
+			this.template = Arrays.copyOf(this.template, Math.max(this.template.length * 2, this.length + data.length));
+		System.arraycopy(data, 0, this.template, this.length, data.length);
+		this.length += data.length;
+		this.parse(false);
+		this.flush(false);
+	}
+
+	/**
+	 * Marks the template as complete. The returned future is completed once the entire assembled document was written, which is when all fragments were received or
+	 * failed, or the timeout has passed.
+	 *
+	 * @return A future completed when the assembled document is complete
+	 */
+	public synchronized CompletableFuture<Void> end() {
+		this.finishTemplate();
+		this.flush(false);
+		return this.completion;
+	}
+
+	/**
+	 * Marks the template as complete and writes the remaining assembled document without waiting for fragments. Includes whose fragment is not available yet are replaced
+	 * with empty content.
+	 */
+	public synchronized void endNow() {
+		this.finishTemplate();
+		this.flush(true);
+	}
+
+	/**
+	 * Stops processing the template. The assembled document written so far is followed by the unprocessed remainder of the template received so far, as is. Includes
+	 * whose fragment is not available yet are replaced with empty content.
+	 */
+	public synchronized void abort() {
+		this.ended = true;
+		this.flush(true);
+		int start = Math.max(this.prevEnd, this.literalWritten);
+		this.output.write(this.template, start, this.length - start);
+		this.completion.complete(null);
+	}
+
+	/**
+	 * Returns and clears the assembled document data written since the last call to this method.
+	 *
+	 * @return The data
+	 */
+	public synchronized byte[] drain() {
+		byte[] data = this.output.toByteArray();
+		this.output.reset();
+		return data;
+	}
+
+	/**
+	 * Returns the number of bytes of the template received.
+	 *
+	 * @return The template size
+	 */
+	public synchronized int getTemplateSize() {
+		return this.length;
+	}
+
+
+	private void finishTemplate() {
+		if(this.ended)
+			throw new IllegalStateException("Template already ended");
+		this.parse(true);
+		if(this.length > this.prevEnd)
+			this.segments.add(new int[] { this.prevEnd, this.length });
+		this.prevEnd = this.length;
+		this.index = this.length;
+		this.ended = true;
+		if(this.includes >= MAX_INCLUDES)
+			logger.warn("ESI template contains more than ", MAX_INCLUDES, " includes, ignoring the remaining includes");
+	}
+
+	/**
+	 * Writes the segments that are available, in order. Stops at the first include whose fragment was not received yet, unless <b>force</b> is <code>true</code>, and
+	 * continues when it is received.
+	 */
+	private void flush(boolean force) {
+		while(this.written < this.segments.size()){
+			Object segment = this.segments.get(this.written);
+			if(segment instanceof int[]){
+				int[] range = (int[]) segment;
+				int start = Math.max(range[0], this.literalWritten);
+				this.output.write(this.template, start, range[1] - start);
+				this.literalWritten = range[1];
+			}else{
+				@SuppressWarnings("unchecked")
+				CompletableFuture<byte[]> future = (CompletableFuture<byte[]>) segment;
+				if(!future.isDone() && !force){
+					if(this.waitingFor != future){
+						this.waitingFor = future;
+						future.whenComplete((d, e) -> {
+							synchronized(this){
+								if(this.waitingFor == future && !this.completion.isDone())
+									this.flush(false);
+							}
+						});
+					}
+					return;
+				}
+				byte[] fragment = future.getNow(null);
+				if(!future.isDone())
+					logger.debug("Omitting ESI fragment that was not received yet");
+				else if(fragment != null)
+					this.output.write(fragment, 0, fragment.length);
+			}
+			this.written++;
+		}
+		if(this.ended){
+			this.completion.complete(null);
+		}else if(this.prevEnd < this.index){ // literal content that was already parsed, but may continue in the next part
+			int start = Math.max(this.prevEnd, this.literalWritten);
+			this.output.write(this.template, start, this.index - start);
+			this.literalWritten = this.index;
+		}
+	}
+
+	private CompletableFuture<byte[]> resolve(Include include) {
+		CompletableFuture<byte[]> future = this.resolveSafe(include.src);
+		if(include.alt != null)
+			future = future.handle((d, e) -> {
+				if(e == null)
+					return CompletableFuture.completedFuture(d);
+				logger.debug("ESI fragment '", include.src, "' failed, trying alt '", include.alt, "': ", e);
+				return this.resolveSafe(include.alt);
+			}).thenCompose(Function.identity());
+		return future.handle((d, e) -> {
+			if(e != null)
+				logger.debug("Error while resolving ESI fragment '", include.src, "': ", e);
+			return d;
+		}).completeOnTimeout(null, Math.max(this.deadline - CachePlugin.time(), 0), TimeUnit.MILLISECONDS);
+	}
+
+	private CompletableFuture<byte[]> resolveSafe(String src) {
+		try{
+			return this.fragmentResolver.apply(src);
+		}catch(RuntimeException e){
+			return CompletableFuture.failedFuture(e);
+		}
+	}
+
+	/**
+	 * Parses the template received so far, adding literal segments (<code>int[] { start, end }</code>) and fragment futures to the segment list. Unless <b>last</b> is
+	 * <code>true</code>, stops at markup that may not have been received completely.
+	 */
+	private void parse(boolean last) {
+		byte[] data = this.template;
+		int length = this.length;
+		while(this.index < length){
+			if(!last && length - this.index < LOOKAHEAD)
+				return;
+			if(this.inEsiComment && nextSequenceEqual(data, length, this.index, ESI_COMMENT_END)){
+				this.addLiteral(this.index);
+				this.index += ESI_COMMENT_END.length;
+				this.prevEnd = this.index;
+				this.inEsiComment = false;
+				continue;
+			}
+			if(data[this.index] != '<'){
+				this.index++;
+				continue;
+			}
+
+			if(nextSequenceEqual(data, length, this.index, ESI_COMMENT_START)){
+				this.addLiteral(this.index);
+				this.index += ESI_COMMENT_START.length;
+				this.prevEnd = this.index;
+				this.inEsiComment = true;
+			}else if(isTag(data, length, this.index, INCLUDE_TAG) && this.includes < MAX_INCLUDES){
+				int end = tagEnd(data, length, this.index);
+				if(end < 0){
+					if(last)
+						break;
+					return;
+				}
+				this.addLiteral(this.index);
+				String src = getAttribute(data, this.index + INCLUDE_TAG.length, end, "src");
+				if(src != null){
+					this.segments.add(this.resolve(new Include(src, getAttribute(data, this.index + INCLUDE_TAG.length, end, "alt"))));
+					this.includes++;
+				}
+				this.index = end + 1;
+				this.prevEnd = this.index;
+			}else if(isTag(data, length, this.index, COMMENT_TAG)){
+				int end = tagEnd(data, length, this.index);
+				if(end < 0){
+					if(last)
+						break;
+					return;
+				}
+				this.addLiteral(this.index);
+				this.index = end + 1;
+				this.prevEnd = this.index;
+			}else if(isTag(data, length, this.index, REMOVE_TAG)){
+				int end = indexOf(data, length, REMOVE_END_TAG, this.index);
+				if(end < 0){
+					if(last)
+						break;
+					return;
+				}
+				this.addLiteral(this.index);
+				this.index = end + REMOVE_END_TAG.length;
+				this.prevEnd = this.index;
+			}else
+				this.index++;
+		}
+	}
+
+	private void addLiteral(int end) {
+		if(end > this.prevEnd)
+			this.segments.add(new int[] { this.prevEnd, end });
+	}
+
+
+	/**
+	 * Checks if the tag with the given name starts at <b>offset</b>, followed by whitespace, <code>/</code> or <code>&gt;</code>.
+	 */
+	private static boolean isTag(byte[] data, int length, int offset, byte[] name) {
+		if(!nextSequenceEqual(data, length, offset, name) || offset + name.length >= length)
+			return false;
+		byte next = data[offset + name.length];
+		return next == '>' || next == '/' || next == ' ' || next == '\t' || next == '\r' || next == '\n';
+	}
+
+	/**
+	 * Returns the index of the <code>&gt;</code> that closes the tag starting at <b>offset</b>, skipping quoted attribute values.
+	 */
+	private static int tagEnd(byte[] data, int length, int offset) {
+		byte quote = 0;
+		for(int i = offset; i < length; i++){
+			byte b = data[i];
+			if(quote != 0){
+				if(b == quote)
+					quote = 0;
+			}else if(b == '"' || b == '\'')
+				quote = b;
+			else if(b == '>')
+				return i;
+		}
+		return -1;
+	}
+
+	private static String getAttribute(byte[] data, int start, int end, String name) {
+		int index = start;
+		while(index < end){
+			while(index < end && (data[index] == ' ' || data[index] == '\t' || data[index] == '\r' || data[index] == '\n' || data[index] == '/'))
+				index++;
+			int nameStart = index;
+			while(index < end && data[index] != '=' && data[index] != ' ' && data[index] != '\t' && data[index] != '\r' && data[index] != '\n' && data[index] != '/')
+				index++;
+			String attrName = new String(data, nameStart, index - nameStart, StandardCharsets.UTF_8);
+			if(index >= end || data[index] != '=')
+				continue;
+			index++;
+			int valueStart, valueEnd;
+			if(index < end && (data[index] == '"' || data[index] == '\'')){
+				byte quote = data[index];
+				valueStart = index + 1;
+				valueEnd = valueStart;
+				while(valueEnd < end && data[valueEnd] != quote)
+					valueEnd++;
+				index = valueEnd + 1;
+			}else{
+				valueStart = index;
+				valueEnd = valueStart;
+				while(valueEnd < end && data[valueEnd] != ' ' && data[valueEnd] != '\t' && data[valueEnd] != '\r' && data[valueEnd] != '\n')
+					valueEnd++;
+				index = valueEnd;
+			}
+			if(attrName.equalsIgnoreCase(name))
+				return new String(data, valueStart, valueEnd - valueStart, StandardCharsets.UTF_8).replace("&amp;", "&");
+		}
+		return null;
+	}
+
+	private static boolean nextSequenceEqual(byte[] data, int length, int offset, byte[] seq) {
+		if(offset + seq.length > length)
+			return false;
+		for(int i = 0; i < seq.length; i++){
+			if(data[offset + i] != seq[i])
+				return false;
+		}
+		return true;
+	}
+
+	private static int indexOf(byte[] data, int length, byte[] seq, int offset) {
+		for(int i = offset; i <= length - seq.length; i++){
+			if(nextSequenceEqual(data, length, i, seq))
+				return i;
+		}
+		return -1;
+	}
+
+
+	static class Include {
+
+		public final String src;
+		public final String alt;
+
+		public Include(String src, String alt) {
+			this.src = src;
+			this.alt = alt;
+		}
+	}
+}
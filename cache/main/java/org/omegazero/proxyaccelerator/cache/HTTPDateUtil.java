@@ -0,0 +1,110 @@
+/*
+ * Copyright (C) 2023 omegazero.org, warp03
+ *
+ * This Source Code Form is subject to the terms of the Mozilla Public License, v. 2.0.
+ * If a copy of the MPL was not distributed with this file, You can obtain one at https://mozilla.org/MPL/2.0/.
+ */
+package org.omegazero.proxyaccelerator.cache;
+
+import java.time.DateTimeException;
+import java.time.LocalDate;
+
+/**
+ * Class used for parsing <i>HTTP-date</i> values (RFC 9110, section 5.6.7), as used in the <i>Date</i>, <i>Last-Modified</i> or <i>If-Modified-Since</i> headers.
+ *
+ * @since 1.5
+ */
+public final class HTTPDateUtil {
+
+	private static final String[] MONTHS = { "jan", "feb", "mar", "apr", "may", "jun", "jul", "aug", "sep", "oct", "nov", "dec" };
+
+
+	private HTTPDateUtil() {
+	}
+
+
+	/**
+	 * Parses the given <i>HTTP-date</i> <b>value</b>. Supported are the preferred format (<i>IMF-fixdate</i>, e.g. <code>Sun, 06 Nov 1994 08:49:37 GMT</code>) and the
+	 * obsolete RFC 850 (<code>Sunday, 06-Nov-94 08:49:37 GMT</code>) and asctime (<code>Sun Nov  6 08:49:37 1994</code>) formats.
+	 *
+	 * @param value The date string, may be <code>null</code>
+	 * @return The time in milliseconds since the UNIX epoch, or <code>-1</code> if <b>value</b> is <code>null</code> or invalid
+	 */
+	public static long parse(String value) {
+		if(value == null)
+			return -1;
+		String[] tokens = new String[8];
+		int count = 0;
+		int len = value.length();
+		int start = -1;
+		for(int i = 0; i <= len; i++){
+			char c = i < len ? value.charAt(i) : ' ';
+			if(c == ' ' || c == ',' || c == '-' || c == ':'){
+				if(start >= 0){
+					if(count >= tokens.length)
+						return -1;
+					tokens[count++] = value.substring(start, i);
+					start = -1;
+				}
+			}else if(start < 0)
+				start = i;
+		}
+		if(count < 7)
+			return -1;
+
+		int day, month, year, hour, minute, second;
+		month = HTTPDateUtil.month(tokens[1]);
+		if(month >= 0){ // asctime: day-name month day hour minute second year
+			if(count != 7)
+				return -1;
+			day = HTTPDateUtil.number(tokens[2]);
+			hour = HTTPDateUtil.number(tokens[3]);
+			minute = HTTPDateUtil.number(tokens[4]);
+			second = HTTPDateUtil.number(tokens[5]);
+			year = HTTPDateUtil.number(tokens[6]);
+		}else{ // IMF-fixdate or RFC 850: day-name day month year hour minute second GMT
+			if(count != 8 || !tokens[7].equals("GMT"))
+				return -1;
+			day = HTTPDateUtil.number(tokens[1]);
+			month = HTTPDateUtil.month(tokens[2]);
+			year = HTTPDateUtil.number(tokens[3]);
+			hour = HTTPDateUtil.number(tokens[4]);
+			minute = HTTPDateUtil.number(tokens[5]);
+			second = HTTPDateUtil.number(tokens[6]);
+			if(tokens[3].length() == 2 && year >= 0)
+				year += year < 70 ? 2000 : 1900;
+		}
+		if(month < 0 || day < 0 || year < 0 || hour < 0 || hour > 23 || minute < 0 || minute > 59 || second < 0 || second > 60)
+			return -1;
+		try{
+			long epochDay = LocalDate.of(year, month + 1, day).toEpochDay();
+			return ((epochDay * 24 + hour) * 60 + minute) * 60000L + second * 1000L;
+		}catch(DateTimeException e){
+			return -1;
+		}
+	}
+
+
+	private static int month(String s) {
+		if(s.length() != 3)
+			return -1;
+		for(int i = 0; i < MONTHS.length; i++){
+			if(MONTHS[i].equalsIgnoreCase(s))
+				return i;
+		}
+		return -1;
+	}
+
+	private static int number(String s) {
+		if(s.isEmpty() || s.length() > 4)
+			return -1;
+		int n = 0;
+		for(int i = 0; i < s.length(); i++){
+			char c = s.charAt(i);
+			if(c < '0' || c > '9')
+				return -1;
+			n = n * 10 + (c - '0');
+		}
+		return n;
+	}
+}
@@ -0,0 +1,212 @@
+/*
+ * Copyright (C) 2023 omegazero.org, warp03
+ *
+ * This Source Code Form is subject to the terms of the Mozilla Public License, v. 2.0.
+ * If a copy of the MPL was not distributed with this file, You can obtain one at https://mozilla.org/MPL/2.0/.
+ */
+package org.omegazero.proxyaccelerator.cache;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Tracks the most frequent keys of a stream using the <i>space-saving</i> algorithm with a bounded number of counters.
+ * <p>
+ * Updating the count of a tracked key is lock-free. When a new key is seen and all counters are in use, the counter with the lowest count is replaced while holding a
+ * lock. Counters are kept in a min-heap ordered by their count at the time they were last positioned in the heap; because counts only increase, the heap is only
+ * corrected lazily when the minimum is removed.
+ *
+ * @since 1.5
+ */
+public class HeavyHitterSketch {
+
+	private final int capacity;
+	private final Map<String, Counter> counters = new ConcurrentHashMap<>();
+	private final ReentrantLock lock = new ReentrantLock();
+	private final Counter[] heap;
+	private int heapSize = 0;
+
+	/**
+	 * Creates a new {@link HeavyHitterSketch}.
+	 *
+	 * @param capacity The maximum number of tracked keys
+	 */
+	public HeavyHitterSketch(int capacity) {
+		if(capacity < 1)
+			throw new IllegalArgumentException("capacity must be positive");
+		this.capacity = capacity;
+		this.heap = new Counter[capacity];
+	}
+
+
+	/**
+	 * Adds the given <b>weight</b> to the count of the given <b>key</b>.
+	 *
+	 * @param key The key
+	 * @param weight The weight, for example <code>1</code> to count occurrences
+	 */
+	public void add(String key, long weight) {
+		Counter counter = this.counters.get(key);
+		if(counter != null){
+			counter.count.addAndGet(weight);
+			return;
+		}
+		this.lock.lock();
+		try{
+			counter = this.counters.get(key);
+			if(counter != null){
+				counter.count.addAndGet(weight);
+				return;
+			}
+			long min = 0;
+			if(this.heapSize == this.capacity){
+				Counter minCounter = this.removeMin();
+				this.counters.remove(minCounter.key);
+				min = minCounter.count.get();
+			}
+			counter = new Counter(key, min + weight, min);
+			this.counters.put(key, counter);
+			this.heap[this.heapSize] = counter;
+			counter.heapCount = counter.count.get();
+			this.siftUp(this.heapSize++);
+		}finally{
+			this.lock.unlock();
+		}
+	}
+
+	/**
+	 * Removes the counter with the lowest count from the heap. Counters whose count increased since they were positioned are moved down first.
+	 */
+	private Counter removeMin() {
+		while(true){
+			Counter top = this.heap[0];
+			long count = top.count.get();
+			if(count == top.heapCount){
+				Counter last = this.heap[--this.heapSize];
+				this.heap[this.heapSize] = null;
+				if(this.heapSize > 0){
+					this.heap[0] = last;
+					this.siftDown(0);
+				}
+				return top;
+			}
+			top.heapCount = count;
+			this.siftDown(0);
+		}
+	}
+
+	private void siftUp(int index) {
+		Counter counter = this.heap[index];
+		while(index > 0){
+			int parent = (index - 1) >>> 1;
+			if(this.heap[parent].heapCount <= counter.heapCount)
+				break;
+			this.heap[index] = this.heap[parent];
+			index = parent;
+		}
+		this.heap[index] = counter;
+	}
+
+	private void siftDown(int index) {
+		Counter counter = this.heap[index];
+		int half = this.heapSize >>> 1;
+		while(index < half){
+			int child = 2 * index + 1;
+			if(child + 1 < this.heapSize && this.heap[child + 1].heapCount < this.heap[child].heapCount)
+				child++;
+			if(counter.heapCount <= this.heap[child].heapCount)
+				break;
+			this.heap[index] = this.heap[child];
+			index = child;
+		}
+		this.heap[index] = counter;
+	}
+
+	/**
+	 * Returns the <b>n</b> keys with the highest estimated count, in descending order.
+	 *
+	 * @param n The maximum number of keys to return
+	 * @return The list of entries
+	 */
+	public List<Entry> top(int n) {
+		List<Entry> list = new ArrayList<>(this.counters.size());
+		for(Map.Entry<String, Counter> e : this.counters.entrySet())
+			list.add(new Entry(e.getKey(), e.getValue().count.get(), e.getValue().error));
+		list.sort((a, b) -> Long.compare(b.count, a.count));
+		return list.size() > n ? list.subList(0, n) : list;
+	}
+
+	/**
+	 * Removes all tracked keys.
+	 */
+	public void clear() {
+		this.lock.lock();
+		try{
+			this.counters.clear();
+			Arrays.fill(this.heap, null);
+			this.heapSize = 0;
+		}finally{
+			this.lock.unlock();
+		}
+	}
+
+
+	private static class Counter {
+
+		private final String key;
+		private final AtomicLong count;
+		private final long error;
+
+		private long heapCount; // guarded by lock
+
+		public Counter(String key, long count, long error) {
+			this.key = key;
+			this.count = new AtomicLong(count);
+			this.error = error;
+		}
+	}
+
+	/**
+	 * A tracked key with its estimated count.
+	 */
+	public static class Entry {
+
+		private final String key;
+		private final long count;
+		private final long error;
+
+		public Entry(String key, long count, long error) {
+			this.key = key;
+			this.count = count;
+			this.error = error;
+		}
+
+
+		public String getKey() {
+			return this.key;
+		}
+
+		/**
+		 * Returns the estimated count of this key, which is at most {@link #getError()} higher than the actual count.
+		 *
+		 * @return The estimated count
+		 */
+		public long getCount() {
+			return this.count;
+		}
+
+		/**
+		 * Returns the maximum overestimation of the count of this key.
+		 *
+		 * @return The maximum error
+		 */
+		public long getError() {
+			return this.error;
+		}
+	}
+}
@@ -0,0 +1,170 @@
+/*
+ * Copyright (C) 2023 omegazero.org, warp03
+ *
+ * This Source Code Form is subject to the terms of the Mozilla Public License, v. 2.0.
+ * If a copy of the MPL was not distributed with this file, You can obtain one at https://mozilla.org/MPL/2.0/.
+ */
+package org.omegazero.proxyaccelerator.cache;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryNotificationInfo;
+import java.lang.management.MemoryPoolMXBean;
+import java.lang.management.MemoryType;
+import java.lang.management.MemoryUsage;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.function.Consumer;
+
+import javax.management.ListenerNotFoundException;
+import javax.management.Notification;
+import javax.management.NotificationEmitter;
+import javax.management.NotificationListener;
+
+import org.omegazero.common.logging.Logger;
+
+/**
+ * Adjusts the capacity of memory caches based on the heap usage after garbage collections.
+ * <p>
+ * A collection usage threshold is set on all heap memory pools that support it. If the usage of a pool after a garbage collection exceeds the high watermark, the
+ * capacity factor is reduced, causing memory caches to evict their least recently used entries. If the usage of all pools after a garbage collection is below the low
+ * watermark when {@link #check()} is called, the capacity factor is increased again. The capacity factor is changed in steps to evict entries gradually.
+ *
+ * @since 1.5
+ * @see ResourceCache#setCapacityFactor(float)
+ */
+public class MemoryGovernor implements NotificationListener {
+
+	private static final Logger logger = Logger.create();
+
+	private static final float SHRINK_STEP = 0.8f;
+	private static final float GROW_STEP = 1.1f;
+	private static final float MIN_FACTOR = 0.05f;
+
+	private final float highWatermark;
+	private final float lowWatermark;
+	private final Consumer<Float> listener;
+
+	private final List<MemoryPoolMXBean> pools = new ArrayList<>();
+	private volatile float capacityFactor;
+
+	/**
+	 * Creates a new {@link MemoryGovernor} with a capacity factor of <code>1</code>.
+	 *
+	 * @param highWatermark The fraction of the maximum size of a heap memory pool above which caches are shrunk
+	 * @param lowWatermark The fraction of the maximum size of heap memory pools below which caches are grown
+	 * @param listener Called with the new capacity factor every time it changes
+	 */
+	public MemoryGovernor(float highWatermark, float lowWatermark, Consumer<Float> listener) {
+		this(highWatermark, lowWatermark, 1, listener);
+	}
+
+	/**
+	 * Creates a new {@link MemoryGovernor} starting with the given capacity factor, for example the factor of a previous {@link MemoryGovernor} this one replaces. The
+	 * <b>listener</b> is not called with the initial factor.
+	 *
+	 * @param highWatermark The fraction of the maximum size of a heap memory pool above which caches are shrunk
+	 * @param lowWatermark The fraction of the maximum size of heap memory pools below which caches are grown
+	 * @param capacityFactor The initial capacity factor
+	 * @param listener Called with the new capacity factor every time it changes
+	 */
+	public MemoryGovernor(float highWatermark, float lowWatermark, float capacityFactor, Consumer<Float> listener) {
+		if(highWatermark <= 0 || highWatermark > 1 || lowWatermark < 0 || lowWatermark >= highWatermark)
+			throw new IllegalArgumentException("Invalid watermarks: " + lowWatermark + ", " + highWatermark);
+		if(capacityFactor < MIN_FACTOR || capacityFactor > 1)
+			throw new IllegalArgumentException("Invalid capacity factor: " + capacityFactor);
+		this.highWatermark = highWatermark;
+		this.lowWatermark = lowWatermark;
+		this.capacityFactor = capacityFactor;
+		this.listener = listener;
+	}
+
+
+	/**
+	 * Sets the collection usage thresholds and starts listening for threshold notifications.
+	 */
+	public synchronized void start() {
+		for(MemoryPoolMXBean pool : ManagementFactory.getMemoryPoolMXBeans()){
+			if(pool.getType() != MemoryType.HEAP || !pool.isCollectionUsageThresholdSupported())
+				continue;
+			long max = pool.getUsage().getMax();
+			if(max <= 0)
+				continue;
+			pool.setCollectionUsageThreshold((long) (max * this.highWatermark));
+			this.pools.add(pool);
+			logger.debug("Monitoring memory pool '", pool.getName(), "' with threshold ", pool.getCollectionUsageThreshold());
+		}
+		((NotificationEmitter) ManagementFactory.getMemoryMXBean()).addNotificationListener(this, null, null);
+	}
+
+	/**
+	 * Stops listening for threshold notifications.
+	 */
+	public synchronized void close() {
+		try{
+			((NotificationEmitter) ManagementFactory.getMemoryMXBean()).removeNotificationListener(this);
+		}catch(ListenerNotFoundException e){
+			// not started
+		}
+		this.pools.clear();
+	}
+
+	/**
+	 * Increases the capacity factor if the heap usage after the last garbage collection of all monitored pools is below the low watermark. Should be called periodically.
+	 */
+	public synchronized void check() {
+		if(this.capacityFactor >= 1 || this.pools.isEmpty())
+			return;
+		for(MemoryPoolMXBean pool : this.pools){
+			MemoryUsage usage = pool.getCollectionUsage();
+			if(usage == null || usage.getUsed() > usage.getMax() * this.lowWatermark)
+				return;
+		}
+		this.setCapacityFactor(Math.min(1, this.capacityFactor * GROW_STEP));
+	}
+
+	@Override
+	public void handleNotification(Notification notification, Object handback) {
+		if(!MemoryNotificationInfo.MEMORY_COLLECTION_THRESHOLD_EXCEEDED.equals(notification.getType()))
+			return;
+		synchronized(this){
+			logger.debug("Memory usage after garbage collection exceeds high watermark");
+			this.setCapacityFactor(Math.max(MIN_FACTOR, this.capacityFactor * SHRINK_STEP));
+		}
+	}
+
+	private void setCapacityFactor(float factor) {
+		if(factor == this.capacityFactor)
+			return;
+		logger.info("Changing memory cache capacity factor from ", this.capacityFactor, " to ", factor);
+		this.capacityFactor = factor;
+		this.listener.accept(factor);
+	}
+
+
+	/**
+	 * Returns the current capacity factor.
+	 *
+	 * @return The capacity factor, between <code>0</code> and <code>1</code>
+	 */
+	public float getCapacityFactor() {
+		return this.capacityFactor;
+	}
+
+	/**
+	 * Returns the high watermark passed in the constructor.
+	 *
+	 * @return The high watermark
+	 */
+	public float getHighWatermark() {
+		return this.highWatermark;
+	}
+
+	/**
+	 * Returns the low watermark passed in the constructor.
+	 *
+	 * @return The low watermark
+	 */
+	public float getLowWatermark() {
+		return this.lowWatermark;
+	}
+}
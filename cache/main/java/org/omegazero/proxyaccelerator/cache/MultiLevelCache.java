@@ -20,19 +20,31 @@ public class MultiLevelCache implements ResourceCache {
 
 	@Override
 	public void store(String primaryKey, CacheEntry entry){
+		this.store(new CacheKey(primaryKey), entry);
+	}
+
+	@Override
+	public void store(CacheKey key, CacheEntry entry){
 		for(ResourceCache cache : this.caches)
-			cache.store(primaryKey, entry);
+			cache.store(key, entry);
 	}
 
 	@Override
 	public CacheEntry fetch(String primaryKey){
+		return this.fetch(new CacheKey(primaryKey));
+	}
+
+	@Override
+	public CacheEntry fetch(CacheKey key){
 		for(int i = 0; i < this.caches.size(); i++){
 			ResourceCache cache = this.caches.get(i);
-			CacheEntry entry = cache.fetch(primaryKey);
+			if(!cache.mayContain(key))
+				continue;
+			CacheEntry entry = cache.fetch(key);
 			if(entry != null){
 				if(!entry.isStale()){
 					for(int j = i - 1; j >= 0; j--)
-						this.caches.get(j).store(primaryKey, entry);
+						this.caches.get(j).store(key, entry);
 				}
 				return entry;
 			}
@@ -40,11 +52,30 @@ public class MultiLevelCache implements ResourceCache {
 		return null;
 	}
 
+	@Override
+	public boolean mayContain(String primaryKey){
+		return this.mayContain(new CacheKey(primaryKey));
+	}
+
+	@Override
+	public boolean mayContain(CacheKey key){
+		for(ResourceCache cache : this.caches){
+			if(cache.mayContain(key))
+				return true;
+		}
+		return false;
+	}
+
 	@Override
 	public CacheEntry delete(String primaryKey){
+		return this.delete(new CacheKey(primaryKey));
+	}
+
+	@Override
+	public CacheEntry delete(CacheKey key){
 		CacheEntry entry = null;
 		for(ResourceCache cache : this.caches){
-			CacheEntry e = cache.delete(primaryKey);
+			CacheEntry e = cache.delete(key);
 			if(entry == null)
 				entry = e;
 		}
@@ -62,6 +93,23 @@ public class MultiLevelCache implements ResourceCache {
 		return count;
 	}
 
+	@Override
+	public int deleteIfKeyStartsWith(String prefix){
+		int count = 0;
+		for(ResourceCache cache : this.caches){
+			int c = cache.deleteIfKeyStartsWith(prefix);
+			if(c > 0)
+				count += c;
+		}
+		return count;
+	}
+
+	@Override
+	public void setCapacityFactor(float factor){
+		for(ResourceCache cache : this.caches)
+			cache.setCapacityFactor(factor);
+	}
+
 	@Override
 	public void cleanup(){
 		for(ResourceCache cache : this.caches)
@@ -0,0 +1,160 @@
+/*
+ * Copyright (C) 2023 omegazero.org, warp03
+ *
+ * This Source Code Form is subject to the terms of the Mozilla Public License, v. 2.0.
+ * If a copy of the MPL was not distributed with this file, You can obtain one at https://mozilla.org/MPL/2.0/.
+ */
+package org.omegazero.proxyaccelerator.cache;
+
+import java.net.InetSocketAddress;
+import java.net.ProxySelector;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.time.Duration;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+
+import org.omegazero.http.common.HTTPHeaderContainer;
+import org.omegazero.http.common.HTTPRequest;
+import org.omegazero.http.common.HTTPResponse;
+
+/**
+ * Fetches resources from origin servers outside of the proxy request flow, for example fragments of ESI templates or resources to pre-warm a cache with.
+ *
+ * @since 1.5
+ */
+public class OriginClient {
+
+	private static final Set<String> HOP_BY_HOP_HEADERS = Set.of("connection", "keep-alive", "transfer-encoding", "upgrade", "proxy-connection", "te", "trailer");
+
+
+	private final int connectTimeout;
+	private final HttpClient client;
+	private final Map<URI, HttpClient> originClients = new ConcurrentHashMap<>();
+
+	/**
+	 * Creates a new {@link OriginClient}.
+	 *
+	 * @param connectTimeout The connect timeout in milliseconds
+	 */
+	public OriginClient(int connectTimeout) {
+		this.connectTimeout = connectTimeout;
+		this.client = HttpClient.newBuilder().followRedirects(HttpClient.Redirect.NEVER).connectTimeout(Duration.ofMillis(connectTimeout)).build();
+	}
+
+
+	/**
+	 * Requests the resource at the given <b>uri</b> using a <code>GET</code> request.
+	 * <p>
+	 * If an <b>origin</b> is given, the request is sent to this plaintext HTTP server instead, with the absolute URL of the resource as the request target (as if the
+	 * origin server was a forward proxy). The origin server then uses the authority of <b>uri</b> as the target host.
+	 *
+	 * @param uri The absolute URI of the resource
+	 * @param origin If not <code>null</code>, the <code>http</code> URI of the server to send the request to instead
+	 * @param headers Additional request headers, with lowercase names
+	 * @param timeout The request timeout in milliseconds
+	 * @return A future completed with the response
+	 */
+	public CompletableFuture<Result> fetch(URI uri, URI origin, Map<String, String> headers, int timeout) {
+		HTTPRequest request = OriginClient.createRequest(uri, headers);
+		HttpClient client;
+		URI target;
+		if(origin != null){
+			if(!"http".equalsIgnoreCase(origin.getScheme()) || origin.getHost() == null)
+				return CompletableFuture.failedFuture(new IllegalArgumentException("Invalid origin server URI '" + origin + "', must be an http URI"));
+			client = this.originClients.computeIfAbsent(origin, (o) -> HttpClient.newBuilder().followRedirects(HttpClient.Redirect.NEVER)
+					.connectTimeout(Duration.ofMillis(this.connectTimeout))
+					.proxy(ProxySelector.of(InetSocketAddress.createUnresolved(o.getHost(), o.getPort() >= 0 ? o.getPort() : 80))).build());
+			target = URI.create("http://" + uri.getRawAuthority() + OriginClient.getRequestTarget(uri)); // the client only uses the proxy for http URIs
+		}else{
+			client = this.client;
+			target = uri;
+		}
+		HttpRequest.Builder builder = HttpRequest.newBuilder(target).GET().timeout(Duration.ofMillis(timeout));
+		for(Map.Entry<String, String> h : headers.entrySet())
+			builder.header(h.getKey(), h.getValue());
+		long start = CachePlugin.time();
+		return client.sendAsync(builder.build(), HttpResponse.BodyHandlers.ofByteArray()).thenApply((res) -> {
+			long responseTime = CachePlugin.time() - start;
+			HTTPResponse response = new HTTPResponse(res.statusCode(), "HTTP/1.1", new HTTPHeaderContainer());
+			for(Map.Entry<String, List<String>> h : res.headers().map().entrySet()){
+				String name = h.getKey().toLowerCase();
+				if(name.startsWith(":") || HOP_BY_HOP_HEADERS.contains(name))
+					continue;
+				for(String value : h.getValue())
+					response.addHeader(name, value);
+			}
+			response.setOther(request);
+			request.setOther(response);
+			return new Result(request, response, res.body(), responseTime);
+		});
+	}
+
+
+	/**
+	 * Creates the {@link HTTPRequest} that {@link #fetch(URI, URI, Map, int)} sends for the given <b>uri</b> and <b>headers</b>.
+	 *
+	 * @param uri The absolute URI of the resource
+	 * @param headers Additional request headers, with lowercase names
+	 * @return The request
+	 */
+	public static HTTPRequest createRequest(URI uri, Map<String, String> headers) {
+		HTTPRequest request = new HTTPRequest("GET", uri.getScheme(), uri.getRawAuthority(), OriginClient.getRequestTarget(uri), "HTTP/1.1", new HTTPHeaderContainer());
+		for(Map.Entry<String, String> h : headers.entrySet())
+			request.setHeader(h.getKey(), h.getValue());
+		return request;
+	}
+
+	private static String getRequestTarget(URI uri) {
+		String path = uri.getRawPath();
+		if(path == null || path.isEmpty())
+			path = "/";
+		if(uri.getRawQuery() != null)
+			path += "?" + uri.getRawQuery();
+		return path;
+	}
+
+	/**
+	 * Creates a {@link CacheEntry} from the given response, if it is cacheable according to the given {@link CacheConfig}.
+	 *
+	 * @param cc The cache configuration
+	 * @param result The response
+	 * @return The cache entry, or <code>null</code> if the response is not cacheable
+	 */
+	public static CacheEntry createEntry(CacheConfig cc, Result result) {
+		CacheEntry.Properties properties = cc.getResourceProperties(result.response);
+		if(properties == null || result.body.length > properties.maxResourceSize)
+			return null;
+		int correctedAgeValue = CachePlugin.parseIntSafe(result.response.getHeader("age"), 0) + (int) (result.responseTime / 1000);
+		result.request.lock();
+		result.response.lock();
+		CacheEntry entry = new CacheEntry(result.response, result.body, CachePlugin.time() + (properties.maxAge - correctedAgeValue) * 1000L, correctedAgeValue,
+				properties);
+		entry.setFillTime((int) result.responseTime);
+		return entry;
+	}
+
+
+	/**
+	 * A response received by an {@link OriginClient}.
+	 */
+	public static class Result {
+
+		public final HTTPRequest request;
+		public final HTTPResponse response;
+		public final byte[] body;
+		public final long responseTime;
+
+		Result(HTTPRequest request, HTTPResponse response, byte[] body, long responseTime) {
+			this.request = request;
+			this.response = response;
+			this.body = body;
+			this.responseTime = responseTime;
+		}
+	}
+}
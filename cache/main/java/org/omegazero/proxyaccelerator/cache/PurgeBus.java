@@ -0,0 +1,288 @@
+/*
+ * Copyright (C) 2023 omegazero.org, warp03
+ *
+ * This Source Code Form is subject to the terms of the Mozilla Public License, v. 2.0.
+ * If a copy of the MPL was not distributed with this file, You can obtain one at https://mozilla.org/MPL/2.0/.
+ */
+package org.omegazero.proxyaccelerator.cache;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.net.DatagramPacket;
+import java.net.DatagramSocket;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.MulticastSocket;
+import java.net.SocketException;
+import java.nio.charset.StandardCharsets;
+import java.security.GeneralSecurityException;
+import java.security.MessageDigest;
+import java.security.SecureRandom;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.crypto.Mac;
+import javax.crypto.spec.SecretKeySpec;
+
+import org.omegazero.common.config.ConfigArray;
+import org.omegazero.common.config.ConfigObject;
+import org.omegazero.common.logging.Logger;
+
+/**
+ * Propagates purge requests between proxy nodes using UDP datagrams, sent to a list of peers or a multicast group.
+ * <p>
+ * Each message carries the random ID of the sending node, a sequence number and a timestamp, which are used to discard duplicate and replayed messages, and is
+ * authenticated using HMAC-SHA256 with a shared secret. Messages older than <i>maxMessageAge</i> are rejected, so that the received sequence numbers of a node only need
+ * to be remembered for this duration after its last message. Every message is sent several times to tolerate packet loss.
+ *
+ * @since 1.5
+ */
+public class PurgeBus {
+
+	private static final Logger logger = Logger.create();
+
+	private static final int MAGIC = 0x4f504232; // "OPB2"
+	private static final int MAC_LENGTH = 32;
+	private static final int MAX_MESSAGE_SIZE = 8192;
+	private static final int REPLAY_WINDOW = 64;
+
+
+	private final Listener listener;
+	private final byte[] secret;
+	private final int repeat;
+	private final int maxMessageAge;
+	private final List<InetSocketAddress> peers = new ArrayList<>();
+	private final DatagramSocket socket;
+	private final Thread receiveThread;
+
+	private final long nodeId = new SecureRandom().nextLong();
+	private final AtomicLong sequence = new AtomicLong();
+	private final Map<Long, long[]> receivedSequences = new HashMap<>();
+	private long lastPrune = System.currentTimeMillis();
+
+	private volatile boolean closed = false;
+
+	/**
+	 * Creates a new {@link PurgeBus} from the given configuration and starts receiving messages.
+	 *
+	 * @param config The configuration object, containing at least <code>port</code> and <code>secret</code>
+	 * @param listener Called for every purge message received from another node
+	 * @throws IOException If the socket could not be created
+	 */
+	public PurgeBus(ConfigObject config, Listener listener) throws IOException {
+		this.listener = listener;
+		this.secret = config.getString("secret").getBytes(StandardCharsets.UTF_8);
+		this.repeat = Math.max(1, config.optInt("repeat", 2));
+		this.maxMessageAge = config.optInt("maxMessageAge", 60000);
+		if(this.maxMessageAge <= 0)
+			throw new IllegalArgumentException("'maxMessageAge' must be positive");
+		int port = config.getInt("port");
+		InetSocketAddress bindAddress = new InetSocketAddress(config.optString("bindAddress", "0.0.0.0"), port);
+
+		ConfigArray peersArr = config.optArray("peers");
+		if(peersArr != null){
+			for(Object o : peersArr){
+				if(!(o instanceof String))
+					throw new IllegalArgumentException("Values in 'peers' must be strings");
+				this.peers.add(PurgeBus.parseAddress((String) o, port));
+			}
+		}
+
+		String group = config.optString("multicastGroup", null);
+		if(group != null){
+			InetAddress groupAddress = InetAddress.getByName(group);
+			if(!groupAddress.isMulticastAddress())
+				throw new IllegalArgumentException("'" + group + "' is not a multicast address");
+			MulticastSocket msocket = new MulticastSocket(bindAddress);
+			msocket.joinGroup(new InetSocketAddress(groupAddress, 0), null);
+			this.socket = msocket;
+			this.peers.add(new InetSocketAddress(groupAddress, port));
+		}else
+			this.socket = new DatagramSocket(bindAddress);
+
+		this.receiveThread = new Thread(this::receiveLoop, "PurgeBus-" + port);
+		this.receiveThread.setDaemon(true);
+		this.receiveThread.start();
+		logger.debug("Purge bus listening on ", bindAddress, " with ", this.peers.size(), " peers");
+	}
+
+
+	/**
+	 * Sends a purge message to all peers.
+	 *
+	 * @param partition The name of the cache partition, or an empty string for the default cache
+	 * @param key The cache key, or a cache key prefix if <b>wildcard</b> is <code>true</code>
+	 * @param wildcard Whether all entries whose key starts with <b>key</b> should be purged
+	 */
+	public void publish(String partition, String key, boolean wildcard) {
+		byte[] msg;
+		try{
+			ByteArrayOutputStream baos = new ByteArrayOutputStream();
+			DataOutputStream dos = new DataOutputStream(baos);
+			dos.writeInt(MAGIC);
+			dos.writeLong(this.nodeId);
+			dos.writeLong(this.sequence.incrementAndGet());
+			dos.writeLong(System.currentTimeMillis());
+			dos.writeBoolean(wildcard);
+			dos.writeUTF(partition);
+			dos.writeUTF(key);
+			dos.write(this.mac(baos.toByteArray(), baos.size()));
+			msg = baos.toByteArray();
+		}catch(IOException e){
+			throw new UncheckedIOException(e);
+		}
+		if(msg.length > MAX_MESSAGE_SIZE){
+			logger.warn("Purge message for key '", key, "' is too large (", msg.length, " bytes)");
+			return;
+		}
+		for(int i = 0; i < this.repeat; i++){
+			for(InetSocketAddress peer : this.peers){
+				try{
+					this.socket.send(new DatagramPacket(msg, msg.length, peer));
+				}catch(IOException e){
+					logger.warn("Error while sending purge message to ", peer, ": ", e);
+				}
+			}
+		}
+	}
+
+	/**
+	 * Stops receiving messages and closes the socket.
+	 */
+	public void close() {
+		this.closed = true;
+		this.socket.close();
+	}
+
+
+	private void receiveLoop() {
+		byte[] buf = new byte[MAX_MESSAGE_SIZE];
+		while(!this.closed){
+			DatagramPacket packet = new DatagramPacket(buf, buf.length);
+			try{
+				this.socket.receive(packet);
+				this.handleMessage(packet.getData(), packet.getLength());
+			}catch(SocketException e){
+				if(!this.closed)
+					logger.error("Purge bus socket error: ", e);
+				break;
+			}catch(Exception e){
+				logger.warn("Invalid purge message from ", packet.getSocketAddress(), ": ", e);
+			}
+		}
+	}
+
+	private void handleMessage(byte[] data, int len) throws IOException {
+		if(len < MAC_LENGTH + 4)
+			throw new IOException("Message too short");
+		byte[] mac = this.mac(data, len - MAC_LENGTH);
+		if(!MessageDigest.isEqual(mac, Arrays.copyOfRange(data, len - MAC_LENGTH, len)))
+			throw new IOException("Invalid MAC");
+		DataInputStream dis = new DataInputStream(new ByteArrayInputStream(data, 0, len - MAC_LENGTH));
+		if(dis.readInt() != MAGIC)
+			throw new IOException("Invalid magic");
+		long node = dis.readLong();
+		long seq = dis.readLong();
+		long timestamp = dis.readLong();
+		boolean wildcard = dis.readBoolean();
+		String partition = dis.readUTF();
+		String key = dis.readUTF();
+		if(node == this.nodeId) // own message (multicast loopback)
+			return;
+		long now = System.currentTimeMillis();
+		if(Math.abs(now - timestamp) > this.maxMessageAge)
+			throw new IOException("Message timestamp is " + (now - timestamp) + "ms in the past");
+		if(!this.checkSequence(node, seq, now)) // duplicate
+			return;
+		logger.debug("Received purge message for '", key, "' (wildcard: ", wildcard, ", partition: '", partition, "')");
+		this.listener.onPurge(partition, key, wildcard);
+	}
+
+	/**
+	 * Checks if the given sequence number of a node was not received before, using a sliding window of the most recent sequence numbers.
+	 * <p>
+	 * The state of nodes from which no message was received for twice the maximum message age (to tolerate clock differences between nodes) is removed, because all their
+	 * messages that could be replayed are rejected due to their age.
+	 *
+	 * @param now The current time in milliseconds
+	 */
+	synchronized boolean checkSequence(long node, long seq, long now) {
+		if(now - this.lastPrune > this.maxMessageAge){
+			long expire = now - 2L * this.maxMessageAge;
+			this.receivedSequences.values().removeIf((state) -> state[2] < expire);
+			this.lastPrune = now;
+		}
+		long[] state = this.receivedSequences.get(node); // { highest sequence number, bitmap of received sequence numbers below it, time of the last message }
+		if(state == null){
+			this.receivedSequences.put(node, new long[] { seq, 0, now });
+			return true;
+		}
+		state[2] = now;
+		long diff = seq - state[0];
+		if(diff > 0){
+			state[1] = diff >= REPLAY_WINDOW ? 0 : (state[1] << diff) | (1L << (diff - 1));
+			state[0] = seq;
+			return true;
+		}else if(diff == 0 || -diff >= REPLAY_WINDOW){
+			return false;
+		}else{
+			long bit = 1L << (-diff - 1);
+			if((state[1] & bit) != 0)
+				return false;
+			state[1] |= bit;
+			return true;
+		}
+	}
+
+	/**
+	 * Returns the number of nodes whose received sequence numbers are currently remembered.
+	 */
+	synchronized int getTrackedNodeCount() {
+		return this.receivedSequences.size();
+	}
+
+	private byte[] mac(byte[] data, int len) {
+		try{
+			Mac mac = Mac.getInstance("HmacSHA256");
+			mac.init(new SecretKeySpec(this.secret, "HmacSHA256"));
+			mac.update(data, 0, len);
+			return mac.doFinal();
+		}catch(GeneralSecurityException e){
+			throw new AssertionError(e);
+		}
+	}
+
+
+	private static InetSocketAddress parseAddress(String str, int defaultPort) {
+		int portStart = str.lastIndexOf(':');
+		if(portStart > 0 && str.indexOf(']', portStart) < 0)
+			return new InetSocketAddress(str.substring(0, portStart).replace("[", "").replace("]", ""), Integer.parseInt(str.substring(portStart + 1)));
+		else
+			return new InetSocketAddress(str.replace("[", "").replace("]", ""), defaultPort);
+	}
+
+
+	/**
+	 * Receives purge messages from other nodes.
+	 */
+	@FunctionalInterface
+	public static interface Listener {
+
+		/**
+		 * Called when a purge message was received.
+		 *
+		 * @param partition The name of the cache partition, or an empty string for the default cache
+		 * @param key The cache key, or a cache key prefix if <b>wildcard</b> is <code>true</code>
+		 * @param wildcard Whether all entries whose key starts with <b>key</b> should be purged
+		 */
+		public void onPurge(String partition, String key, boolean wildcard);
+	}
+}
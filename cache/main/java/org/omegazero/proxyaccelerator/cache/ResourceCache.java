@@ -11,6 +11,7 @@
  */
 package org.omegazero.proxyaccelerator.cache;
 
+import java.util.function.BiConsumer;
 import java.util.function.Predicate;
 
 import org.omegazero.common.util.PropertyUtil;
@@ -47,6 +48,19 @@ public interface ResourceCache {
 	 */
 	public CacheEntry fetch(String primaryKey);
 
+	/**
+	 * Checks if this cache may contain an entry associated with the given primary key. This method is used to skip calls to {@link #fetch(String)} for slow caches
+	 * and must never return <code>false</code> if an entry for the key exists. The default implementation always returns <code>true</code>.
+	 *
+	 * @param primaryKey The primary key
+	 * @return <code>false</code> if this cache definitely does not contain an entry for the given key
+	 * @since 1.5
+	 * @see CountingBloomFilter
+	 */
+	public default boolean mayContain(String primaryKey) {
+		return true;
+	}
+
 	/**
 	 * Deletes a {@link CacheEntry} associated with the given primary key from this cache and returns the deleted entry. The returned entry may be
 	 * {@linkplain CacheEntry#isStale() stale}.
@@ -68,6 +82,76 @@ public interface ResourceCache {
 		return -1;
 	}
 
+	/**
+	 * Deletes all {@linkplain CacheEntry cache entries} whose primary key starts with the given <b>prefix</b> and returns the number of deleted entries. Caches distributed
+	 * among several nodes should override this method to also delete the matching entries stored on other nodes. The default implementation calls
+	 * {@link #deleteIfKey(Predicate)}.
+	 *
+	 * @param prefix The primary key prefix
+	 * @return The number of deleted entries, or <code>-1</code> if this cache does not support this method
+	 * @since 1.5
+	 */
+	public default int deleteIfKeyStartsWith(String prefix) {
+		return this.deleteIfKey((s) -> s.startsWith(prefix));
+	}
+
+	/**
+	 * Passes all {@linkplain CacheEntry cache entries} in this cache with their primary keys to the given <b>action</b>, least recently used first if the cache tracks
+	 * usage. Used for migrating entries to a new cache when the configuration is reloaded. The default implementation does nothing and returns <code>false</code>.
+	 *
+	 * @param action The action to perform for each entry
+	 * @return <code>true</code> if this method is supported by the cache
+	 * @since 1.5
+	 */
+	public default boolean forEachEntry(BiConsumer<String, CacheEntry> action) {
+		return false;
+	}
+
+	/**
+	 * Stores the given {@link CacheEntry} with the given primary key in this cache. The default implementation calls {@link #store(String, CacheEntry)}.
+	 *
+	 * @param key The primary key
+	 * @param entry The {@link CacheEntry}
+	 * @since 1.5
+	 */
+	public default void store(CacheKey key, CacheEntry entry) {
+		this.store(key.getKey(), entry);
+	}
+
+	/**
+	 * Fetches a {@link CacheEntry} associated with the given primary key from this cache. The default implementation calls {@link #fetch(String)}.
+	 *
+	 * @param key The primary key
+	 * @return The {@link CacheEntry}, or <code>null</code> if there is no valid entry associated with the given key
+	 * @since 1.5
+	 */
+	public default CacheEntry fetch(CacheKey key) {
+		return this.fetch(key.getKey());
+	}
+
+	/**
+	 * Checks if this cache may contain an entry associated with the given primary key. The default implementation calls {@link #mayContain(String)}.
+	 *
+	 * @param key The primary key
+	 * @return <code>false</code> if this cache definitely does not contain an entry for the given key
+	 * @since 1.5
+	 */
+	public default boolean mayContain(CacheKey key) {
+		return this.mayContain(key.getKey());
+	}
+
+	/**
+	 * Deletes a {@link CacheEntry} associated with the given primary key from this cache and returns the deleted entry. The default implementation calls
+	 * {@link #delete(String)}.
+	 *
+	 * @param key The primary key
+	 * @return The deleted {@link CacheEntry}, or <code>null</code> if there was no entry associated with the given key
+	 * @since 1.5
+	 */
+	public default CacheEntry delete(CacheKey key) {
+		return this.delete(key.getKey());
+	}
+
 
 	/**
 	 * Performs internal cleanup operations, for example deleting {@linkplain CacheEntry#isStale() stale} entries.
@@ -86,6 +170,17 @@ public interface ResourceCache {
 	public default void setMaxCacheSize(long bytes){
 	}
 
+	/**
+	 * Scales the configured capacity of this cache by the given <b>factor</b>. Caches storing entries in memory should evict entries if they exceed the reduced capacity.
+	 * Caches not storing entries in memory may ignore this value. The default implementation does nothing.
+	 *
+	 * @param factor The capacity factor, between <code>0</code> (exclusive) and <code>1</code>
+	 * @since 1.5
+	 * @see MemoryGovernor
+	 */
+	public default void setCapacityFactor(float factor){
+	}
+
 
 	/**
 	 * Deletes this cache. Behavior of all methods in this cache is undefined after calling this method.
@@ -0,0 +1,110 @@
+/*
+ * Copyright (C) 2023 omegazero.org, warp03
+ *
+ * This Source Code Form is subject to the terms of the Mozilla Public License, v. 2.0.
+ * If a copy of the MPL was not distributed with this file, You can obtain one at https://mozilla.org/MPL/2.0/.
+ */
+package org.omegazero.proxyaccelerator.cache;
+
+import java.util.Arrays;
+
+/**
+ * Maps the value of a request header declared in a <i>Vary</i> response header to a canonical value. Two requests whose header values are normalized to the same value
+ * may be served the same cached response.
+ *
+ * @since 1.5
+ * @see CachePlugin#registerVaryNormalizer(String, VaryNormalizer)
+ */
+@FunctionalInterface
+public interface VaryNormalizer {
+
+	/**
+	 * Returns the canonical value of the given header <b>value</b>.
+	 *
+	 * @param value The header value, may be <code>null</code> if the header is not present
+	 * @return The canonical value
+	 */
+	public String normalize(String value);
+
+
+	/**
+	 * Returns a {@link VaryNormalizer} for <i>Accept-Encoding</i> header values, which maps the header value to the first of the given <b>encodings</b> that is accepted,
+	 * or <code>"identity"</code> if none is accepted.
+	 *
+	 * @param encodings The supported content encodings, in order of preference
+	 * @return The {@link VaryNormalizer}
+	 */
+	public static VaryNormalizer encodingBuckets(String... encodings) {
+		String[] e = Arrays.copyOf(encodings, encodings.length);
+		return (value) -> {
+			for(String encoding : e){
+				if(CompressionUtil.isEncodingAccepted(value, encoding))
+					return encoding;
+			}
+			return "identity";
+		};
+	}
+
+	/**
+	 * Returns a {@link VaryNormalizer} for <i>Accept-Language</i> header values, which maps the header value to the supported language with the highest quality value.
+	 * A language range matches a supported language if it is equal or a prefix of it (for example, <code>"en"</code> matches <code>"en-US"</code>) or if the primary
+	 * subtags are equal. If no language matches, the first supported language is returned.
+	 *
+	 * @param languages The supported languages, the first being the default
+	 * @return The {@link VaryNormalizer}
+	 */
+	public static VaryNormalizer languageBuckets(String... languages) {
+		if(languages.length < 1)
+			throw new IllegalArgumentException("At least one language is required");
+		String[] l = new String[languages.length];
+		for(int i = 0; i < languages.length; i++)
+			l[i] = languages[i].toLowerCase();
+		return (value) -> {
+			if(value == null)
+				return l[0];
+			String best = null;
+			float bestQ = 0;
+			for(String part : value.split(",")){
+				String range = part;
+				float q = 1;
+				int pind = part.indexOf(';');
+				if(pind >= 0){
+					range = part.substring(0, pind);
+					String param = part.substring(pind + 1).trim();
+					if(param.startsWith("q=")){
+						try{
+							q = Float.parseFloat(param.substring(2));
+						}catch(NumberFormatException ex){
+							q = 0;
+						}
+					}
+				}
+				if(q <= bestQ)
+					continue;
+				range = range.trim().toLowerCase();
+				String match = matchLanguage(l, range);
+				if(match != null){
+					best = match;
+					bestQ = q;
+				}
+			}
+			return best != null ? best : l[0];
+		};
+	}
+
+	static String matchLanguage(String[] languages, String range) {
+		if(range.equals("*"))
+			return languages[0];
+		for(String lang : languages){
+			if(lang.equals(range) || lang.startsWith(range + "-"))
+				return lang;
+		}
+		int sep = range.indexOf('-');
+		String primary = sep > 0 ? range.substring(0, sep) : range;
+		for(String lang : languages){
+			if(lang.equals(primary) || lang.startsWith(primary + "-"))
+				return lang;
+		}
+		return null;
+	}
+}
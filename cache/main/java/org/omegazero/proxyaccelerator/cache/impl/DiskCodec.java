@@ -0,0 +1,189 @@
+/*
+ * Copyright (C) 2023 omegazero.org, warp03
+ *
+ * This Source Code Form is subject to the terms of the Mozilla Public License, v. 2.0.
+ * If a copy of the MPL was not distributed with this file, You can obtain one at https://mozilla.org/MPL/2.0/.
+ */
+package org.omegazero.proxyaccelerator.cache.impl;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.zip.Deflater;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.InflaterInputStream;
+
+/**
+ * A compression codec for entries stored by the {@link DiskCache}. The ID of the codec used to encode an entry is stored in the lower 4 bits of the header byte of each
+ * cache file.
+ *
+ * @since 1.5
+ */
+public abstract class DiskCodec {
+
+	/**
+	 * Stores data without compression.
+	 */
+	public static final DiskCodec NONE = new DiskCodec(0, "none") {
+
+		@Override
+		public byte[] encode(byte[] data) {
+			return data;
+		}
+
+		@Override
+		public InputStream decode(InputStream in) {
+			return in;
+		}
+	};
+
+	/**
+	 * Compresses data using the <i>LZ4</i> block format, prefixed with the uncompressed length as a 4-byte big endian integer. Much faster than {@linkplain #deflate(int)
+	 * deflate}, but with a lower compression ratio.
+	 */
+	public static final DiskCodec LZ4 = new DiskCodec(2, "lz4") {
+
+		@Override
+		public byte[] encode(byte[] data) {
+			byte[] buf = new byte[4 + LZ4Block.maxCompressedLength(data.length)];
+			buf[0] = (byte) (data.length >>> 24);
+			buf[1] = (byte) (data.length >>> 16);
+			buf[2] = (byte) (data.length >>> 8);
+			buf[3] = (byte) data.length;
+			int len = LZ4Block.compress(data, 0, data.length, buf, 4);
+			return java.util.Arrays.copyOf(buf, 4 + len);
+		}
+
+		@Override
+		public InputStream decode(InputStream in) throws IOException {
+			DataInputStream din = new DataInputStream(in);
+			int len = din.readInt();
+			if(len < 0)
+				throw new IOException("Invalid length: " + len);
+			byte[] src = din.readAllBytes();
+			byte[] dst = new byte[len];
+			LZ4Block.decompress(src, 0, src.length, dst);
+			return new ByteArrayInputStream(dst);
+		}
+	};
+
+	private static final int DEFLATE_ID = 1;
+	private static final DiskCodec DEFLATE_DEFAULT = deflate(Deflater.DEFAULT_COMPRESSION);
+
+
+	private final int id;
+	private final String name;
+
+	private DiskCodec(int id, String name) {
+		this.id = id;
+		this.name = name;
+	}
+
+
+	/**
+	 * Encodes the given <b>data</b>.
+	 *
+	 * @param data The data
+	 * @return The encoded data
+	 * @throws IOException If an I/O error occurs
+	 */
+	public abstract byte[] encode(byte[] data) throws IOException;
+
+	/**
+	 * Returns an {@link InputStream} that reads the decoded data from the given encoded input stream.
+	 *
+	 * @param in The encoded input stream
+	 * @return The decoding input stream
+	 * @throws IOException If an I/O error occurs or the data is malformed
+	 */
+	public abstract InputStream decode(InputStream in) throws IOException;
+
+
+	/**
+	 * Returns the ID of this codec.
+	 *
+	 * @return The ID, between <code>0</code> and <code>15</code>
+	 */
+	public int getId() {
+		return this.id;
+	}
+
+	@Override
+	public String toString() {
+		return this.name;
+	}
+
+
+	/**
+	 * Returns a codec compressing data using the <i>deflate</i> algorithm (zlib format) with the given compression level.
+	 *
+	 * @param level The compression level (<code>0</code>-<code>9</code>, or <code>-1</code> for the default level)
+	 * @return The codec
+	 */
+	public static DiskCodec deflate(int level) {
+		if(level < -1 || level > 9)
+			throw new IllegalArgumentException("Invalid deflate level: " + level);
+		return new DiskCodec(DEFLATE_ID, "deflate") {
+
+			@Override
+			public byte[] encode(byte[] data) throws IOException {
+				ByteArrayOutputStream baos = new ByteArrayOutputStream(data.length / 2);
+				Deflater deflater = new Deflater(level);
+				try(DeflaterOutputStream dos = new DeflaterOutputStream(baos, deflater)){
+					dos.write(data);
+				}finally{
+					deflater.end();
+				}
+				return baos.toByteArray();
+			}
+
+			@Override
+			public InputStream decode(InputStream in) {
+				return new InflaterInputStream(in);
+			}
+		};
+	}
+
+	/**
+	 * Returns the codec with the given <b>name</b>.
+	 *
+	 * @param name The name of the codec (<code>"none"</code>, <code>"deflate"</code> or <code>"lz4"</code>)
+	 * @param level The compression level, used by the <code>"deflate"</code> codec
+	 * @return The codec
+	 * @throws IllegalArgumentException If there is no codec with the given name
+	 */
+	public static DiskCodec forName(String name, int level) {
+		switch(name){
+			case "none":
+				return NONE;
+			case "deflate":
+				return deflate(level);
+			case "lz4":
+				return LZ4;
+			default:
+				throw new IllegalArgumentException("Invalid codec '" + name + "'");
+		}
+	}
+
+	/**
+	 * Returns the codec with the given <b>id</b> for decoding data.
+	 *
+	 * @param id The codec ID
+	 * @return The codec
+	 * @throws IOException If there is no codec with the given ID
+	 */
+	public static DiskCodec forId(int id) throws IOException {
+		switch(id){
+			case 0:
+				return NONE;
+			case DEFLATE_ID:
+				return DEFLATE_DEFAULT;
+			case 2:
+				return LZ4;
+			default:
+				throw new IOException("Unsupported codec ID " + id);
+		}
+	}
+}
@@ -11,14 +11,22 @@
  */
 package org.omegazero.proxyaccelerator.cache.impl;
 
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
 import java.util.Iterator;
 import java.util.LinkedHashMap;
+import java.util.List;
 import java.util.Map;
+import java.util.TreeMap;
+import java.util.function.BiConsumer;
 import java.util.function.Predicate;
 
 import org.omegazero.common.logging.Logger;
 import org.omegazero.common.logging.LoggerUtil;
 import org.omegazero.proxyaccelerator.cache.CacheEntry;
+import org.omegazero.proxyaccelerator.cache.CompressionUtil;
+import org.omegazero.proxyaccelerator.cache.ContentStore;
 import org.omegazero.proxyaccelerator.cache.ResourceCache;
 
 public class LRUCache implements ResourceCache {
@@ -26,94 +34,245 @@ public class LRUCache implements ResourceCache {
 	private static final Logger logger = LoggerUtil.createLogger();
 
 
-	private final LRUCacheHashMap cache = new LRUCacheHashMap();
+	private final Map<String, CacheEntry> cache = new HashMap<>(ResourceCache.INITIAL_CACHE_CAPACITY);
+	// entries by priority, each in access order (least recently used first)
+	private final TreeMap<Integer, LinkedHashMap<String, CacheEntry>> lruLists = new TreeMap<>();
 
 	private long maxCacheSize;
 	private long cacheSize = 0;
+	private long prioritySize = 0;
+	private float capacityFactor = 1;
+	private float reservedCapacity = 0;
 
+	private ContentStore contentStore;
+	// number of entries with a priority above 0 referencing each (possibly shared) response body, which is counted in prioritySize once while this is above 0
+	private final Map<byte[], Integer> prioritizedBodies = new IdentityHashMap<>();
+	private boolean compress = false;
 
-	@Override
-	public synchronized void store(String primaryKey, CacheEntry entry) {
-		this.cache.put(primaryKey, entry);
+
+	private void added(CacheEntry entry) {
 		long size = entry.getSize();
+		if(this.contentStore != null && !this.contentStore.acquire(entry)) // response body is already accounted for by another entry
+			size -= entry.getResponseData().length;
 		this.cacheSize += size;
-		float capacity = (float) this.cacheSize / this.maxCacheSize;
-		if(capacity > 1.2f){
-			logger.debug("Cache is at ", capacity * 100, "% capacity, deleting old entries");
-			Iterator<CacheEntry> it = this.cache.values().iterator();
-			while(it.hasNext() && this.cacheSize > this.maxCacheSize){
-				this.cacheSize -= it.next().getSize();
+		if(priority(entry) > 0){
+			byte[] body = entry.getResponseData(); // the shared array if deduplicated
+			long prioritized = entry.getSize() - body.length;
+			if(this.prioritizedBodies.merge(body, 1, Integer::sum) == 1)
+				prioritized += body.length;
+			this.prioritySize += prioritized;
+		}
+	}
+
+	private void removed(CacheEntry entry) {
+		long size = entry.getSize();
+		if(this.contentStore != null && !this.contentStore.release(entry))
+			size -= entry.getResponseData().length;
+		this.cacheSize -= size;
+		if(priority(entry) > 0){
+			byte[] body = entry.getResponseData();
+			long prioritized = entry.getSize() - body.length;
+			if(this.prioritizedBodies.merge(body, -1, Integer::sum) == 0){
+				this.prioritizedBodies.remove(body);
+				prioritized += body.length;
+			}
+			this.prioritySize -= prioritized;
+		}
+	}
+
+
+	private void link(String primaryKey, CacheEntry entry) {
+		this.lruLists.computeIfAbsent(priority(entry), (p) -> new LinkedHashMap<>(ResourceCache.INITIAL_CACHE_CAPACITY, 0.75f, true)).put(primaryKey, entry);
+	}
+
+	private void unlink(String primaryKey, CacheEntry entry) {
+		int priority = priority(entry);
+		LinkedHashMap<String, CacheEntry> list = this.lruLists.get(priority);
+		if(list != null){
+			list.remove(primaryKey);
+			if(list.isEmpty())
+				this.lruLists.remove(priority);
+		}
+	}
+
+
+	@Override
+	public void store(String primaryKey, CacheEntry entry) {
+		if(this.compress)
+			entry = CompressionUtil.compress(entry);
+		this.storeEntry(primaryKey, entry);
+	}
+
+	private synchronized void storeEntry(String primaryKey, CacheEntry entry) {
+		this.added(entry);
+		CacheEntry prev = this.cache.put(primaryKey, entry);
+		if(prev != null){
+			this.unlink(primaryKey, prev);
+			this.removed(prev);
+		}
+		this.link(primaryKey, entry);
+		if(this.cacheSize > this.limit())
+			this.evict();
+	}
+
+	/**
+	 * Evicts entries until the cache size is within the limit, in order of ascending priority, and least recently used first within each priority. Entries with a priority
+	 * above <code>0</code> are protected while their total size is within the reserved capacity.
+	 */
+	private void evict() {
+		long limit = this.limit();
+		long reserved = (long) (limit * this.reservedCapacity);
+		Iterator<Map.Entry<Integer, LinkedHashMap<String, CacheEntry>>> lists = this.lruLists.entrySet().iterator();
+		while(lists.hasNext() && this.cacheSize > limit){
+			Map.Entry<Integer, LinkedHashMap<String, CacheEntry>> list = lists.next();
+			boolean prioritized = list.getKey() > 0;
+			if(prioritized && this.prioritySize <= reserved)
+				break;
+			Iterator<Map.Entry<String, CacheEntry>> it = list.getValue().entrySet().iterator();
+			while(it.hasNext() && this.cacheSize > limit && (!prioritized || this.prioritySize > reserved)){
+				Map.Entry<String, CacheEntry> e = it.next();
 				it.remove();
+				this.cache.remove(e.getKey());
+				this.removed(e.getValue());
 			}
+			if(list.getValue().isEmpty())
+				lists.remove();
 		}
 	}
 
+	/**
+	 * Returns the total size of entries with a priority above <code>0</code>, counting each response body once, regardless of how many entries share it or whether it is
+	 * also used by entries without a priority.
+	 */
+	synchronized long getPrioritySize() {
+		return this.prioritySize;
+	}
+
+	private long limit() {
+		return (long) (this.maxCacheSize * this.capacityFactor);
+	}
+
+	private static int priority(CacheEntry entry) {
+		return entry.getProperties().priority;
+	}
+
 	@Override
 	public synchronized CacheEntry fetch(String primaryKey) {
-		return this.cache.get(primaryKey);
+		CacheEntry entry = this.cache.get(primaryKey);
+		if(entry != null)
+			this.lruLists.get(priority(entry)).get(primaryKey); // update access order
+		return entry;
 	}
 
 	@Override
 	public synchronized CacheEntry delete(String primaryKey) {
 		CacheEntry entry = this.cache.remove(primaryKey);
-		if(entry != null)
-			this.cacheSize -= entry.getSize();
+		if(entry != null){
+			this.unlink(primaryKey, entry);
+			this.removed(entry);
+		}
 		return entry;
 	}
 
 	@Override
 	public synchronized int deleteIfKey(Predicate<String> filter) {
 		int deleted = 0;
-		Iterator<String> iterator = this.cache.keySet().iterator();
+		Iterator<Map.Entry<String, CacheEntry>> iterator = this.cache.entrySet().iterator();
 		while(iterator.hasNext()){
-			if(filter.test(iterator.next())){
+			Map.Entry<String, CacheEntry> e = iterator.next();
+			if(filter.test(e.getKey())){
 				iterator.remove();
+				this.unlink(e.getKey(), e.getValue());
+				this.removed(e.getValue());
 				deleted++;
 			}
 		}
 		return deleted;
 	}
 
+	@Override
+	public boolean forEachEntry(BiConsumer<String, CacheEntry> action) {
+		List<Map.Entry<String, CacheEntry>> entries = new ArrayList<>();
+		synchronized(this){ // copy to not hold the lock while calling the action (which may store the entry in another cache)
+			for(LinkedHashMap<String, CacheEntry> list : this.lruLists.values())
+				entries.addAll(list.entrySet());
+		}
+		for(Map.Entry<String, CacheEntry> e : entries)
+			action.accept(e.getKey(), e.getValue());
+		return true;
+	}
+
 	@Override
 	public synchronized void cleanup() {
-		Iterator<CacheEntry> iterator = this.cache.values().iterator();
+		Iterator<Map.Entry<String, CacheEntry>> iterator = this.cache.entrySet().iterator();
 		while(iterator.hasNext()){
-			CacheEntry entry = iterator.next();
-			if(entry.isStale()){
+			Map.Entry<String, CacheEntry> e = iterator.next();
+			if(e.getValue().isStale()){
 				iterator.remove();
-				this.cacheSize -= entry.getSize();
+				this.unlink(e.getKey(), e.getValue());
+				this.removed(e.getValue());
 			}
 		}
 	}
 
 	@Override
 	@SuppressWarnings("deprecation")
-	public void setMaxCacheSize(long bytes) {
+	public synchronized void setMaxCacheSize(long bytes) {
 		this.maxCacheSize = bytes;
+		if(this.cacheSize > this.limit()){
+			logger.debug("Reducing cache size to ", this.limit(), " bytes (currently ", this.cacheSize, " bytes)");
+			this.evict();
+		}
 	}
 
 	@Override
-	public void close() {
+	public synchronized void setCapacityFactor(float factor) {
+		this.capacityFactor = factor;
+		if(this.cacheSize > this.limit()){
+			logger.debug("Reducing cache size to ", this.limit(), " bytes (currently ", this.cacheSize, " bytes)");
+			this.evict();
+		}
 	}
 
+	/**
+	 * Sets the fraction of the capacity reserved for entries with a priority above <code>0</code>. Such entries are not evicted while their total size is within this
+	 * fraction of the capacity.
+	 *
+	 * @param reservedCapacity The reserved fraction of the capacity, between <code>0</code> and <code>1</code>
+	 * @since 1.5
+	 * @see CacheEntry.Properties#priority
+	 */
+	public synchronized void setReservedCapacity(float reservedCapacity) {
+		if(reservedCapacity < 0 || reservedCapacity > 1)
+			throw new IllegalArgumentException("reservedCapacity must be between 0 and 1");
+		this.reservedCapacity = reservedCapacity;
+	}
 
-	private class LRUCacheHashMap extends LinkedHashMap<String, CacheEntry> {
-
-		private static final long serialVersionUID = 1L;
-
-
-		public LRUCacheHashMap() {
-			super(ResourceCache.INITIAL_CACHE_CAPACITY, 0.75f, true);
-		}
+	/**
+	 * Sets the {@link ContentStore} used to share identical response bodies between entries in this cache. Must be called before any entries are stored.
+	 *
+	 * @param contentStore The content store, or <code>null</code> to disable deduplication
+	 * @since 1.5
+	 */
+	public void setContentStore(ContentStore contentStore) {
+		this.contentStore = contentStore;
+	}
 
+	/**
+	 * Sets whether text-like response bodies should be stored compressed.
+	 *
+	 * @param compress <code>true</code> to compress response bodies
+	 * @since 1.5
+	 * @see CompressionUtil#compress(CacheEntry)
+	 */
+	public void setCompress(boolean compress) {
+		this.compress = compress;
+	}
 
-		@Override
-		protected boolean removeEldestEntry(Map.Entry<String, CacheEntry> eldest) {
-			if(LRUCache.this.cacheSize > LRUCache.this.maxCacheSize){
-				LRUCache.this.cacheSize -= eldest.getValue().getSize();
-				return true;
-			}else
-				return false;
-		}
+	@Override
+	public synchronized void close() {
+		if(this.contentStore != null)
+			this.contentStore.clear();
+		this.prioritizedBodies.clear();
 	}
 }
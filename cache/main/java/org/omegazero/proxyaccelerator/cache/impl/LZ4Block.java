@@ -0,0 +1,184 @@
+/*
+ * Copyright (C) 2023 omegazero.org, warp03
+ *
+ * This Source Code Form is subject to the terms of the Mozilla Public License, v. 2.0.
+ * If a copy of the MPL was not distributed with this file, You can obtain one at https://mozilla.org/MPL/2.0/.
+ */
+package org.omegazero.proxyaccelerator.cache.impl;
+
+import java.io.IOException;
+import java.util.Arrays;
+
+/**
+ * Compressor and decompressor for the <a href="https://github.com/lz4/lz4/blob/dev/doc/lz4_Block_format.md">LZ4 block format</a>.
+ * <p>
+ * The compressor uses a single hash table lookup per position and greedy matching, trading compression ratio for speed.
+ *
+ * @since 1.5
+ */
+final class LZ4Block {
+
+	private static final int MIN_MATCH = 4;
+	private static final int LAST_LITERALS = 5;
+	private static final int MF_LIMIT = 12;
+	private static final int MAX_OFFSET = 0xffff;
+	private static final int HASH_LOG = 14;
+
+
+	private LZ4Block() {
+	}
+
+
+	/**
+	 * Returns the maximum size of the compressed data of <b>len</b> bytes.
+	 *
+	 * @param len The uncompressed size
+	 * @return The maximum compressed size
+	 */
+	public static int maxCompressedLength(int len) {
+		return len + len / 255 + 16;
+	}
+
+	/**
+	 * Compresses <b>len</b> bytes of <b>src</b> starting at <b>off</b> into <b>dst</b> starting at <b>dstOff</b>. <b>dst</b> must have at least
+	 * {@link #maxCompressedLength(int)} bytes available.
+	 *
+	 * @return The number of bytes written to <b>dst</b>
+	 */
+	public static int compress(byte[] src, int off, int len, byte[] dst, int dstOff) {
+		int hashLog = Math.max(8, Math.min(HASH_LOG, 32 - Integer.numberOfLeadingZeros(len))); // smaller table for small inputs
+		int[] table = new int[1 << hashLog];
+		Arrays.fill(table, -1);
+		int end = off + len;
+		int matchLimit = end - LAST_LITERALS;
+		int mfLimit = end - MF_LIMIT;
+		int anchor = off;
+		int ip = off;
+		int op = dstOff;
+		if(len >= MF_LIMIT){
+			while(ip < mfLimit){
+				int seq = readInt(src, ip);
+				int h = hash(seq, hashLog);
+				int ref = table[h];
+				table[h] = ip;
+				if(ref < 0 || ip - ref > MAX_OFFSET || readInt(src, ref) != seq){
+					ip++;
+					continue;
+				}
+				while(ip > anchor && ref > off && src[ip - 1] == src[ref - 1]){
+					ip--;
+					ref--;
+				}
+				int matchLen = MIN_MATCH;
+				while(ip + matchLen < matchLimit && src[ip + matchLen] == src[ref + matchLen])
+					matchLen++;
+
+				int tokenPos = op;
+				op = writeLiterals(src, anchor, ip - anchor, dst, op);
+				dst[op++] = (byte) (ip - ref);
+				dst[op++] = (byte) ((ip - ref) >>> 8);
+				int ml = matchLen - MIN_MATCH;
+				if(ml >= 15){
+					dst[tokenPos] |= 15;
+					op = writeLength(dst, op, ml - 15);
+				}else
+					dst[tokenPos] |= ml;
+
+				ip += matchLen;
+				anchor = ip;
+				if(ip - 2 >= off && ip - 2 < mfLimit)
+					table[hash(readInt(src, ip - 2), hashLog)] = ip - 2;
+			}
+		}
+		return writeLiterals(src, anchor, end - anchor, dst, op) - dstOff;
+	}
+
+	/**
+	 * Decompresses the compressed data in <b>src</b> into <b>dst</b>, which must have exactly the size of the uncompressed data.
+	 *
+	 * @throws IOException If the compressed data is malformed
+	 */
+	public static void decompress(byte[] src, int off, int len, byte[] dst) throws IOException {
+		int ip = off;
+		int end = off + len;
+		int op = 0;
+		try{
+			while(true){
+				int token = src[ip++] & 0xff;
+				int litLen = token >>> 4;
+				if(litLen == 15){
+					int b;
+					do{
+						b = src[ip++] & 0xff;
+						litLen += b;
+					}while(b == 255);
+				}
+				if(ip + litLen > end || op + litLen > dst.length)
+					throw new IOException("Literal length exceeds buffer");
+				System.arraycopy(src, ip, dst, op, litLen);
+				ip += litLen;
+				op += litLen;
+				if(ip >= end)
+					break;
+
+				int offset = (src[ip] & 0xff) | (src[ip + 1] & 0xff) << 8;
+				ip += 2;
+				int matchLen = token & 0x0f;
+				if(matchLen == 15){
+					int b;
+					do{
+						b = src[ip++] & 0xff;
+						matchLen += b;
+					}while(b == 255);
+				}
+				matchLen += MIN_MATCH;
+				int ref = op - offset;
+				if(offset == 0 || ref < 0 || op + matchLen > dst.length)
+					throw new IOException("Invalid match");
+				if(offset >= matchLen){
+					System.arraycopy(dst, ref, dst, op, matchLen);
+					op += matchLen;
+				}else{ // overlapping copy
+					for(int i = 0; i < matchLen; i++)
+						dst[op++] = dst[ref++];
+				}
+			}
+		}catch(ArrayIndexOutOfBoundsException e){
+			throw new IOException("Truncated input", e);
+		}
+		if(op != dst.length)
+			throw new IOException("Decompressed size mismatch: " + op + " != " + dst.length);
+	}
+
+
+	/**
+	 * Writes the token with the literal length and the literals of a sequence. The match length is added to the token by the caller.
+	 */
+	private static int writeLiterals(byte[] src, int litStart, int litLen, byte[] dst, int op) {
+		int tokenPos = op++;
+		if(litLen >= 15){
+			dst[tokenPos] = (byte) (15 << 4);
+			op = writeLength(dst, op, litLen - 15);
+		}else
+			dst[tokenPos] = (byte) (litLen << 4);
+		System.arraycopy(src, litStart, dst, op, litLen);
+		return op + litLen;
+	}
+
+	private static int writeLength(byte[] dst, int op, int len) {
+		while(len >= 255){
+			dst[op++] = (byte) 255;
+			len -= 255;
+		}
+		dst[op++] = (byte) len;
+		return op;
+	}
+
+	private static int readInt(byte[] b, int i) {
+		return (b[i] & 0xff) | (b[i + 1] & 0xff) << 8 | (b[i + 2] & 0xff) << 16 | (b[i + 3] & 0xff) << 24;
+	}
+
+	private static int hash(int seq, int hashLog) {
+		return (seq * -1640531535) >>> (32 - hashLog);
+	}
+}
@@ -0,0 +1,668 @@
+/*
+ * Copyright (C) 2023 omegazero.org, warp03
+ *
+ * This Source Code Form is subject to the terms of the Mozilla Public License, v. 2.0.
+ * If a copy of the MPL was not distributed with this file, You can obtain one at https://mozilla.org/MPL/2.0/.
+ */
+package org.omegazero.proxyaccelerator.cache.impl;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.ObjectInputFilter;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.SocketException;
+import java.nio.charset.StandardCharsets;
+import java.security.GeneralSecurityException;
+import java.security.MessageDigest;
+import java.security.SecureRandom;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.SynchronousQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.function.Predicate;
+
+import javax.crypto.Mac;
+import javax.crypto.spec.SecretKeySpec;
+
+import org.omegazero.common.config.ConfigArray;
+import org.omegazero.common.config.ConfigObject;
+import org.omegazero.common.logging.Logger;
+import org.omegazero.common.logging.LoggerUtil;
+import org.omegazero.proxyaccelerator.cache.CacheEntry;
+import org.omegazero.proxyaccelerator.cache.CachePlugin;
+import org.omegazero.proxyaccelerator.cache.ResourceCache;
+
+/**
+ * A {@link ResourceCache} distributing entries among several proxy nodes. Each key is assigned to an owner node using a consistent hash ring. Entries of keys owned by
+ * this node are stored in a local cache and served to other nodes on request, while requests for other keys are forwarded to the respective owner.
+ * <p>
+ * Requests to other nodes are sent by worker threads. The calling thread waits at most <i>lookupTimeout</i> milliseconds for the result of a lookup, and lookups are
+ * skipped if no worker thread is available, so that request threads are not blocked by slow or overloaded peers. Concurrent lookups of the same key share a single
+ * request.
+ * <p>
+ * Both ends of a connection exchange random nonces when it is opened. Every message is then authenticated using HMAC-SHA256 with a shared secret over the nonces, a
+ * per-direction message counter and the message itself, and only serialized {@link CacheEntry} objects consisting of an allow-listed set of classes are accepted.
+ *
+ * @since 1.5
+ */
+public class PeerCache implements ResourceCache {
+
+	private static final Logger logger = LoggerUtil.createLogger();
+
+	private static final int OP_FETCH = 1;
+	private static final int OP_STORE = 2;
+	private static final int OP_DELETE = 3;
+	private static final int OP_DELETE_PREFIX = 4;
+
+	private static final int STATUS_NONE = 0;
+	private static final int STATUS_OK = 1;
+
+	private static final int NONCE_LENGTH = 16;
+	private static final int MAC_LENGTH = 32;
+	private static final SecureRandom random = new SecureRandom();
+
+	private static final ObjectInputFilter ENTRY_FILTER = ObjectInputFilter.Config.createFilter("maxdepth=32;maxrefs=10000;"
+			+ "org.omegazero.proxyaccelerator.cache.CacheEntry;org.omegazero.proxyaccelerator.cache.CacheEntry$Properties;org.omegazero.http.common.*;"
+			+ "org.omegazero.proxy.http.*;java.lang.*;java.util.*;!*");
+
+
+	private final int timeout;
+	private final int lookupTimeout;
+	private final int retryDelay;
+	private final int maxEntrySize;
+	private final SecretKeySpec secret;
+
+	private final List<Peer> peers = new ArrayList<>();
+	private final TreeMap<Long, Peer> ring = new TreeMap<>();
+	private final Peer self;
+
+	private final ResourceCache localCache;
+	private final ServerSocket serverSocket;
+	private final Thread acceptThread;
+	private final ExecutorService serverExecutor;
+	private final ExecutorService executor;
+	private final ExecutorService lookupExecutor;
+	private final Map<String, CompletableFuture<byte[]>> pendingFetches = new ConcurrentHashMap<>();
+	private final Set<Socket> serverConnections = ConcurrentHashMap.newKeySet();
+
+	private volatile boolean closed = false;
+
+	public PeerCache(ConfigObject config) throws IOException {
+		this.timeout = config.optInt("timeout", 200);
+		this.lookupTimeout = config.optInt("lookupTimeout", 50);
+		this.retryDelay = config.optInt("retryDelay", 5000);
+		this.maxEntrySize = config.optInt("maxEntrySize", 0x1000000);
+		int virtualNodes = config.optInt("virtualNodes", 100);
+		this.secret = new SecretKeySpec(config.getString("secret").getBytes(StandardCharsets.UTF_8), "HmacSHA256");
+
+		String selfAddr = config.getString("self");
+		ConfigArray peersArr = config.getArray("peers");
+		Peer self = null;
+		for(Object o : peersArr){
+			if(!(o instanceof String))
+				throw new IllegalArgumentException("Values in 'peers' must be strings");
+			Peer peer = new Peer((String) o);
+			if(peer.name.equals(selfAddr))
+				self = peer;
+			this.peers.add(peer);
+			for(int i = 0; i < virtualNodes; i++)
+				this.ring.put(hash(peer.name + "#" + i), peer);
+		}
+		if(self == null)
+			throw new IllegalArgumentException("'peers' must contain the address of this node ('" + selfAddr + "')");
+		this.self = self;
+
+		ConfigObject localConfig = config.optObject("store");
+		if(localConfig == null){
+			java.util.Map<String, Object> lc = new java.util.HashMap<>();
+			lc.put("type", "lru");
+			localConfig = new ConfigObject(lc);
+		}
+		this.localCache = CachePlugin.initCache(localConfig);
+
+		ThreadFactory threadFactory = (r) -> {
+			Thread t = new Thread(r, "PeerCacheWorker");
+			t.setDaemon(true);
+			return t;
+		};
+		int threads = config.optInt("threads", 4);
+		this.executor = new ThreadPoolExecutor(threads, threads, 0, TimeUnit.MILLISECONDS, new ArrayBlockingQueue<>(config.optInt("queueSize", 1000)), threadFactory);
+		int lookupThreads = config.optInt("lookupThreads", 8);
+		this.lookupExecutor = new ThreadPoolExecutor(lookupThreads, lookupThreads, 0, TimeUnit.MILLISECONDS, new SynchronousQueue<>(), threadFactory);
+		this.serverExecutor = new ThreadPoolExecutor(0, config.optInt("maxConnections", 256), 60, TimeUnit.SECONDS, new SynchronousQueue<>(), threadFactory);
+
+		this.serverSocket = new ServerSocket();
+		this.serverSocket.setReuseAddress(true);
+		this.serverSocket.bind(new InetSocketAddress(InetAddress.getByName(config.optString("bindAddress", "0.0.0.0")), self.address.getPort()));
+		this.acceptThread = new Thread(this::acceptLoop, "PeerCacheServer");
+		this.acceptThread.setDaemon(true);
+		this.acceptThread.start();
+		logger.debug("Listening for peer requests on ", this.serverSocket.getLocalSocketAddress(), "; ", this.peers.size(), " peers");
+	}
+
+
+	@Override
+	public void store(String primaryKey, CacheEntry entry) {
+		Peer owner = this.getOwner(primaryKey);
+		if(owner == this.self){
+			this.localCache.store(primaryKey, entry);
+		}else if(owner.isAvailable()){
+			byte[] data;
+			try{
+				data = serializeEntry(entry);
+			}catch(IOException e){
+				logger.warn("Error while serializing entry with primary key '", primaryKey, "': ", e);
+				return;
+			}
+			if(data.length > this.maxEntrySize)
+				return;
+			this.submit(() -> {
+				this.request(owner, OP_STORE, primaryKey, data);
+			});
+		}
+	}
+
+	@Override
+	public CacheEntry fetch(String primaryKey) {
+		Peer owner = this.getOwner(primaryKey);
+		if(owner == this.self)
+			return this.localCache.fetch(primaryKey);
+		if(!owner.isAvailable())
+			return null;
+		CompletableFuture<byte[]> future = new CompletableFuture<>();
+		CompletableFuture<byte[]> pending = this.pendingFetches.putIfAbsent(primaryKey, future);
+		if(pending != null)
+			future = pending;
+		else
+			this.lookup(owner, OP_FETCH, primaryKey, future);
+		byte[] data = this.await(future);
+		if(data == null)
+			return null;
+		try{
+			return deserializeEntry(data);
+		}catch(IOException | ClassNotFoundException e){
+			logger.warn("Error while reading entry with primary key '", primaryKey, "' from peer ", owner.name, ": ", e);
+			return null;
+		}
+	}
+
+	@Override
+	public CacheEntry delete(String primaryKey) {
+		Peer owner = this.getOwner(primaryKey);
+		if(owner == this.self)
+			return this.localCache.delete(primaryKey);
+		if(!owner.isAvailable())
+			return null;
+		CompletableFuture<byte[]> future = new CompletableFuture<>();
+		this.lookup(owner, OP_DELETE, primaryKey, future);
+		byte[] data = this.await(future);
+		if(data == null)
+			return null;
+		try{
+			return deserializeEntry(data);
+		}catch(IOException | ClassNotFoundException e){
+			return null;
+		}
+	}
+
+	@Override
+	public int deleteIfKey(Predicate<String> filter) {
+		return this.localCache.deleteIfKey(filter);
+	}
+
+	/**
+	 * {@inheritDoc}
+	 * <p>
+	 * The entries are deleted from the local cache, and the prefix is sent to all other nodes in the background. The returned number only includes locally deleted entries.
+	 */
+	@Override
+	public int deleteIfKeyStartsWith(String prefix) {
+		for(Peer peer : this.peers){
+			if(peer != this.self)
+				this.submit(() -> {
+					this.request(peer, OP_DELETE_PREFIX, prefix, null);
+				});
+		}
+		return this.localCache.deleteIfKeyStartsWith(prefix);
+	}
+
+	@Override
+	public void cleanup() {
+		this.localCache.cleanup();
+		for(Peer peer : this.peers)
+			peer.closeIdle();
+	}
+
+	@Override
+	public void close() {
+		this.closed = true;
+		try{
+			this.serverSocket.close();
+		}catch(IOException e){
+			logger.warn("Error while closing server socket: ", e);
+		}
+		try{
+			this.acceptThread.join(1000); // the socket is only released when the accept thread returns, the port may be bound again after a reload
+		}catch(InterruptedException e){
+			Thread.currentThread().interrupt();
+		}
+		this.executor.shutdownNow();
+		this.lookupExecutor.shutdownNow();
+		this.serverExecutor.shutdownNow();
+		for(Socket socket : this.serverConnections){
+			try{
+				socket.close();
+			}catch(IOException e){
+				// ignore
+			}
+		}
+		for(Peer peer : this.peers)
+			peer.closeIdle();
+		this.localCache.close();
+	}
+
+	@Override
+	public String toString() {
+		return "PeerCache{self=" + this.self.name + ", peers=" + this.peers.size() + ", store=" + this.localCache + "}";
+	}
+
+
+	/**
+	 * Returns whether entries with the given primary key are stored on this node.
+	 */
+	boolean isOwner(String primaryKey) {
+		return this.getOwner(primaryKey) == this.self;
+	}
+
+	private Peer getOwner(String key) {
+		Map.Entry<Long, Peer> e = this.ring.ceilingEntry(hash(key));
+		if(e == null)
+			e = this.ring.firstEntry();
+		return e.getValue();
+	}
+
+	private void submit(Runnable task) {
+		try{
+			this.executor.execute(task);
+		}catch(RejectedExecutionException e){
+			logger.debug("Peer task rejected: ", e);
+		}
+	}
+
+	/**
+	 * Sends a request to a peer using a lookup worker thread and completes the given <b>future</b> with the result. If the request is a fetch, it is removed from
+	 * {@link #pendingFetches} when it completes. If no lookup worker is available, the request is skipped and the future is completed with <code>null</code>.
+	 */
+	private void lookup(Peer peer, int op, String key, CompletableFuture<byte[]> future) {
+		try{
+			this.lookupExecutor.execute(() -> {
+				try{
+					future.complete(this.request(peer, op, key, null));
+				}finally{
+					future.complete(null);
+					if(op == OP_FETCH)
+						this.pendingFetches.remove(key, future);
+				}
+			});
+		}catch(RejectedExecutionException e){
+			logger.trace("No lookup worker available for '", key, "'");
+			future.complete(null);
+			if(op == OP_FETCH)
+				this.pendingFetches.remove(key, future);
+		}
+	}
+
+	/**
+	 * Waits at most {@link #lookupTimeout} milliseconds for the result of a request started by {@link #lookup(Peer, int, String, CompletableFuture)}. If the request does not
+	 * complete in time, it continues in the background and <code>null</code> is returned.
+	 */
+	private byte[] await(CompletableFuture<byte[]> future) {
+		try{
+			return future.get(this.lookupTimeout, TimeUnit.MILLISECONDS);
+		}catch(TimeoutException | ExecutionException e){
+			return null;
+		}catch(InterruptedException e){
+			Thread.currentThread().interrupt();
+			return null;
+		}
+	}
+
+	private byte[] request(Peer peer, int op, String key, byte[] data) {
+		while(true){
+			PeerConnection conn = null;
+			try{
+				conn = peer.connect(this.timeout, this.secret);
+				ByteArrayOutputStream baos = new ByteArrayOutputStream();
+				DataOutputStream dos = new DataOutputStream(baos);
+				dos.writeByte(op);
+				writeBytes(dos, key.getBytes(StandardCharsets.UTF_8));
+				if(op == OP_STORE)
+					dos.write(data);
+				conn.write(baos.toByteArray());
+				byte[] res = conn.read(this.maxEntrySize + 1);
+				if(res.length == 0)
+					throw new IOException("Empty response");
+				peer.release(conn);
+				return res[0] == STATUS_OK && op != OP_STORE ? Arrays.copyOfRange(res, 1, res.length) : null;
+			}catch(IOException e){
+				if(conn != null){
+					conn.close();
+					if(conn.reused && !(e instanceof java.net.SocketTimeoutException) && !(e instanceof AuthenticationException)) // idle connection was likely closed by the peer, retry with a new one
+						continue;
+				}
+				if(e instanceof AuthenticationException)
+					logger.warn("Request to peer ", peer.name, " failed: ", e);
+				else
+					logger.debug("Request to peer ", peer.name, " failed: ", e);
+				peer.failed(this.retryDelay);
+				return null;
+			}
+		}
+	}
+
+
+	private void acceptLoop() {
+		while(!this.closed){
+			try{
+				Socket socket = this.serverSocket.accept();
+				if(!this.isPeerAddress(socket.getInetAddress())){
+					logger.warn("Rejecting peer connection from unknown address ", socket.getRemoteSocketAddress());
+					socket.close();
+					continue;
+				}
+				try{
+					this.serverExecutor.execute(() -> {
+						this.handleConnection(socket);
+					});
+				}catch(RejectedExecutionException e){
+					logger.warn("Rejecting peer connection from ", socket.getRemoteSocketAddress(), " because the maximum number of connections is reached");
+					socket.close();
+				}
+			}catch(IOException e){
+				if(!this.closed)
+					logger.warn("Error while accepting peer connection: ", e);
+			}
+		}
+	}
+
+	private void handleConnection(Socket socket) {
+		this.serverConnections.add(socket);
+		try(Socket s = socket){
+			s.setSoTimeout(10000);
+			s.setTcpNoDelay(true);
+			PeerConnection conn = new PeerConnection(s, this.secret, false);
+			s.setSoTimeout(300000);
+			while(!this.closed){
+				byte[] msg;
+				try{
+					msg = conn.read(this.maxEntrySize + 0x10005);
+				}catch(EOFException | SocketException | java.net.SocketTimeoutException e){
+					break;
+				}
+				DataInputStream in = new DataInputStream(new ByteArrayInputStream(msg));
+				int op = in.readUnsignedByte();
+				String key = new String(readBytes(in, 0x10000), StandardCharsets.UTF_8);
+				CacheEntry entry;
+				switch(op){
+					case OP_FETCH:
+						entry = this.localCache.fetch(key);
+						break;
+					case OP_STORE:
+						this.localCache.store(key, deserializeEntry(in.readAllBytes()));
+						entry = null;
+						break;
+					case OP_DELETE:
+						entry = this.localCache.delete(key);
+						break;
+					case OP_DELETE_PREFIX:
+						this.localCache.deleteIfKeyStartsWith(key);
+						entry = null;
+						break;
+					default:
+						throw new IOException("Invalid operation: " + op);
+				}
+				byte[] res;
+				if(entry != null){
+					byte[] data = serializeEntry(entry);
+					res = new byte[data.length + 1];
+					res[0] = STATUS_OK;
+					System.arraycopy(data, 0, res, 1, data.length);
+				}else
+					res = new byte[] { (byte) (op == OP_STORE ? STATUS_OK : STATUS_NONE) };
+				conn.write(res);
+			}
+		}catch(AuthenticationException e){
+			logger.warn("Rejecting peer connection from ", socket.getRemoteSocketAddress(), ": ", e.getMessage());
+		}catch(IOException | ClassNotFoundException e){
+			logger.debug("Error in peer connection from ", socket.getRemoteSocketAddress(), ": ", e);
+		}finally{
+			this.serverConnections.remove(socket);
+		}
+	}
+
+	private boolean isPeerAddress(InetAddress address) {
+		for(Peer peer : this.peers){
+			if(address.equals(peer.address.getAddress()))
+				return true;
+		}
+		return false;
+	}
+
+
+	private static void writeBytes(DataOutputStream out, byte[] data) throws IOException {
+		out.writeInt(data.length);
+		out.write(data);
+	}
+
+	private static byte[] readBytes(DataInputStream in, int maxLength) throws IOException {
+		int len = in.readInt();
+		if(len < 0 || len > maxLength)
+			throw new IOException("Invalid length: " + len);
+		byte[] data = new byte[len];
+		in.readFully(data);
+		return data;
+	}
+
+	private static byte[] serializeEntry(CacheEntry entry) throws IOException {
+		ByteArrayOutputStream baos = new ByteArrayOutputStream();
+		try(ObjectOutputStream oos = new ObjectOutputStream(baos)){
+			oos.writeObject(entry);
+		}
+		return baos.toByteArray();
+	}
+
+	private static CacheEntry deserializeEntry(byte[] data) throws IOException, ClassNotFoundException {
+		try(ObjectInputStream ois = new ObjectInputStream(new ByteArrayInputStream(data))){
+			ois.setObjectInputFilter(ENTRY_FILTER);
+			Object obj = ois.readObject();
+			if(!(obj instanceof CacheEntry))
+				throw new IOException("Received object is not a CacheEntry");
+			return (CacheEntry) obj;
+		}
+	}
+
+	/**
+	 * 64-bit FNV-1a hash with a final avalanche step, used for placing nodes and keys on the hash ring.
+	 */
+	static long hash(String str) {
+		long h = 0xcbf29ce484222325L;
+		for(int i = 0; i < str.length(); i++){
+			h ^= str.charAt(i);
+			h *= 0x100000001b3L;
+		}
+		h ^= h >>> 33;
+		h *= 0xff51afd7ed558ccdL;
+		h ^= h >>> 33;
+		h *= 0xc4ceb9fe1a85ec53L;
+		h ^= h >>> 33;
+		return h;
+	}
+
+
+	private static class Peer {
+
+		private final String name;
+		private final InetSocketAddress address;
+		private final ConcurrentLinkedQueue<PeerConnection> idle = new ConcurrentLinkedQueue<>();
+
+		private volatile long downUntil = 0;
+
+		public Peer(String name) {
+			int portStart = name.lastIndexOf(':');
+			if(portStart < 0)
+				throw new IllegalArgumentException("Peer address must contain a port: " + name);
+			this.name = name;
+			this.address = new InetSocketAddress(name.substring(0, portStart), Integer.parseInt(name.substring(portStart + 1)));
+		}
+
+
+		public boolean isAvailable() {
+			return this.downUntil < CachePlugin.time();
+		}
+
+		public void failed(int retryDelay) {
+			this.downUntil = CachePlugin.time() + retryDelay;
+			this.closeIdle();
+		}
+
+		public PeerConnection connect(int timeout, SecretKeySpec secret) throws IOException {
+			PeerConnection conn = this.idle.poll();
+			if(conn != null){
+				conn.reused = true;
+				return conn;
+			}
+			Socket socket = new Socket();
+			try{
+				socket.connect(this.address, timeout);
+				socket.setSoTimeout(timeout);
+				socket.setTcpNoDelay(true);
+				return new PeerConnection(socket, secret, true);
+			}catch(IOException e){
+				socket.close();
+				throw e;
+			}
+		}
+
+		public void release(PeerConnection conn) {
+			this.idle.add(conn);
+		}
+
+		public void closeIdle() {
+			PeerConnection conn;
+			while((conn = this.idle.poll()) != null)
+				conn.close();
+		}
+	}
+
+	/**
+	 * An authenticated connection between two nodes, used by both the requesting and the serving side.
+	 */
+	private static class PeerConnection {
+
+		private final Socket socket;
+		private final DataInputStream in;
+		private final DataOutputStream out;
+		private final Mac mac;
+		private final byte[] nonce = new byte[NONCE_LENGTH * 2];
+		private final boolean client;
+
+		private long sent = 0;
+		private long received = 0;
+		private boolean reused = false;
+
+		/**
+		 * Creates a new {@link PeerConnection} and exchanges nonces with the other side. The requesting (<b>client</b>) side sends its nonce first.
+		 */
+		public PeerConnection(Socket socket, SecretKeySpec secret, boolean client) throws IOException {
+			this.socket = socket;
+			this.in = new DataInputStream(new java.io.BufferedInputStream(socket.getInputStream()));
+			this.out = new DataOutputStream(new java.io.BufferedOutputStream(socket.getOutputStream()));
+			this.client = client;
+			try{
+				this.mac = Mac.getInstance("HmacSHA256");
+				this.mac.init(secret);
+			}catch(GeneralSecurityException e){
+				throw new AssertionError(e);
+			}
+			byte[] ownNonce = new byte[NONCE_LENGTH];
+			random.nextBytes(ownNonce);
+			int ownOffset = client ? 0 : NONCE_LENGTH;
+			System.arraycopy(ownNonce, 0, this.nonce, ownOffset, NONCE_LENGTH);
+			if(client){
+				this.out.write(ownNonce);
+				this.out.flush();
+				this.in.readFully(this.nonce, NONCE_LENGTH, NONCE_LENGTH);
+			}else{
+				this.in.readFully(this.nonce, 0, NONCE_LENGTH);
+				this.out.write(ownNonce);
+				this.out.flush();
+			}
+		}
+
+
+		public void write(byte[] msg) throws IOException {
+			this.out.writeInt(msg.length);
+			this.out.write(msg);
+			this.out.write(this.mac(this.client, this.sent++, msg));
+			this.out.flush();
+		}
+
+		public byte[] read(int maxLength) throws IOException {
+			byte[] msg = readBytes(this.in, maxLength);
+			byte[] mac = new byte[MAC_LENGTH];
+			this.in.readFully(mac);
+			if(!MessageDigest.isEqual(mac, this.mac(!this.client, this.received++, msg)))
+				throw new AuthenticationException("Invalid message authentication code");
+			return msg;
+		}
+
+		private byte[] mac(boolean fromClient, long seq, byte[] msg) {
+			this.mac.update(this.nonce);
+			this.mac.update((byte) (fromClient ? 0 : 1));
+			for(int i = 56; i >= 0; i -= 8)
+				this.mac.update((byte) (seq >>> i));
+			this.mac.update(msg);
+			return this.mac.doFinal();
+		}
+
+		public void close() {
+			try{
+				this.socket.close();
+			}catch(IOException e){
+				// ignore
+			}
+		}
+	}
+
+	private static class AuthenticationException extends IOException {
+
+		private static final long serialVersionUID = 1L;
+
+		public AuthenticationException(String msg) {
+			super(msg);
+		}
+	}
+}
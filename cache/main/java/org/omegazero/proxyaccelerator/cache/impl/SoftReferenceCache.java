@@ -14,14 +14,18 @@ package org.omegazero.proxyaccelerator.cache.impl;
 import java.lang.ref.Reference;
 import java.lang.ref.ReferenceQueue;
 import java.lang.ref.SoftReference;
+import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.Iterator;
+import java.util.List;
 import java.util.Map;
+import java.util.function.BiConsumer;
 import java.util.function.Predicate;
 
 import org.omegazero.common.logging.Logger;
 import org.omegazero.common.logging.LoggerUtil;
 import org.omegazero.proxyaccelerator.cache.CacheEntry;
+import org.omegazero.proxyaccelerator.cache.CompressionUtil;
 import org.omegazero.proxyaccelerator.cache.ResourceCache;
 
 public class SoftReferenceCache implements ResourceCache {
@@ -32,6 +36,8 @@ public class SoftReferenceCache implements ResourceCache {
 	private final Map<String, SoftCacheEntryReference> cache = new HashMap<>(ResourceCache.INITIAL_CACHE_CAPACITY);
 	private final ReferenceQueue<CacheEntry> refQueue = new ReferenceQueue<>();
 
+	private boolean compress = false;
+
 
 	private synchronized void removeExpungedEntries() {
 		SoftCacheEntryReference ref;
@@ -46,7 +52,13 @@ public class SoftReferenceCache implements ResourceCache {
 
 
 	@Override
-	public synchronized void store(String primaryKey, CacheEntry entry) {
+	public void store(String primaryKey, CacheEntry entry) {
+		if(this.compress)
+			entry = CompressionUtil.compress(entry);
+		this.storeEntry(primaryKey, entry);
+	}
+
+	private synchronized void storeEntry(String primaryKey, CacheEntry entry) {
 		this.removeExpungedEntries();
 		this.cache.put(primaryKey, new SoftCacheEntryReference(entry, this.refQueue, primaryKey));
 	}
@@ -83,6 +95,20 @@ public class SoftReferenceCache implements ResourceCache {
 		return deleted;
 	}
 
+	@Override
+	public boolean forEachEntry(BiConsumer<String, CacheEntry> action) {
+		List<SoftCacheEntryReference> refs;
+		synchronized(this){
+			refs = new ArrayList<>(this.cache.values());
+		}
+		for(SoftCacheEntryReference ref : refs){
+			CacheEntry entry = ref.get();
+			if(entry != null)
+				action.accept(ref.key, entry);
+		}
+		return true;
+	}
+
 	@Override
 	public synchronized void cleanup() {
 		Iterator<SoftCacheEntryReference> iterator = this.cache.values().iterator();
@@ -94,6 +120,17 @@ public class SoftReferenceCache implements ResourceCache {
 		}
 	}
 
+	/**
+	 * Sets whether text-like response bodies should be stored compressed.
+	 *
+	 * @param compress <code>true</code> to compress response bodies
+	 * @since 1.5
+	 * @see CompressionUtil#compress(CacheEntry)
+	 */
+	public void setCompress(boolean compress) {
+		this.compress = compress;
+	}
+
 	@Override
 	public void close() {
 	}
@@ -12,16 +12,20 @@
 package org.omegazero.proxyaccelerator.cache.integration;
 
 import java.util.HashMap;
+import java.util.HashSet;
 import java.util.Map;
+import java.util.Set;
 
 import org.omegazero.common.config.ConfigObject;
 import org.omegazero.proxy.net.UpstreamServer;
 import org.omegazero.proxyaccelerator.cache.CacheConfig;
 import org.omegazero.proxyplugin.vhost.VirtualHost;
+import org.omegazero.proxyplugin.vhost.VirtualHostPlugin;
 
 public class VHostIntegration {
 
 	private Map<UpstreamServer, CacheConfig> configCache = new HashMap<>();
+	private Map<UpstreamServer, Partition> partitionCache = new HashMap<>();
 
 	public synchronized CacheConfig getConfigOverride(UpstreamServer userver, CacheConfig defaultConfig) {
 		if(!(userver instanceof VirtualHost))
@@ -41,7 +45,65 @@ public class VHostIntegration {
 		return cc;
 	}
 
+	/**
+	 * Returns the cache partition configured for the given virtual host using the <code>quota</code> and <code>partition</code> properties in the <code>cache</code>
+	 * object.
+	 *
+	 * @param userver The upstream server
+	 * @return The partition, or <code>null</code> if the upstream server is not a virtual host or no quota is configured
+	 */
+	public synchronized Partition getPartition(UpstreamServer userver) {
+		if(!(userver instanceof VirtualHost))
+			return null;
+
+		if(this.partitionCache.containsKey(userver))
+			return this.partitionCache.get(userver);
+
+		Partition partition = VHostIntegration.getPartition((VirtualHost) userver);
+		this.partitionCache.put(userver, partition);
+		return partition;
+	}
+
+	/**
+	 * Returns the names of the cache partitions of all virtual hosts currently configured in the <i>virtual-host</i> plugin.
+	 *
+	 * @return The partition names
+	 */
+	public Set<String> getConfiguredPartitionNames() {
+		Set<String> names = new HashSet<>();
+		for(VirtualHost vhost : VirtualHostPlugin.getConfiguredHosts()){
+			Partition partition = VHostIntegration.getPartition(vhost);
+			if(partition != null)
+				names.add(partition.name);
+		}
+		return names;
+	}
+
 	public synchronized void invalidate() {
 		this.configCache.clear();
+		this.partitionCache.clear();
+	}
+
+
+	private static Partition getPartition(VirtualHost vhost) {
+		ConfigObject cacheConfig = vhost.getConfig().optObject("cache");
+		if(cacheConfig == null)
+			return null;
+		long quota = cacheConfig.optLong("quota", -1);
+		if(quota < 0)
+			return null;
+		return new Partition(cacheConfig.optString("partition", vhost.getHost()), quota);
+	}
+
+
+	public static class Partition {
+
+		public final String name;
+		public final long quota;
+
+		public Partition(String name, long quota) {
+			this.name = name;
+			this.quota = quota;
+		}
 	}
 }
@@ -12,21 +12,24 @@ import java.nio.file.{Files, FileVisitResult, Path, Paths, SimpleFileVisitor};
 import java.nio.file.attribute.BasicFileAttributes;
 import java.security.MessageDigest;
 import java.util.{Arrays, List};
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.function.{BiConsumer, Predicate};
-import java.util.zip.{DeflaterOutputStream, InflaterInputStream};
 
 import scala.collection.mutable.ListBuffer;
 import scala.collection.mutable.Map;
 
 import org.omegazero.common.config.ConfigObject;
 import org.omegazero.common.logging.Logger;
-import org.omegazero.common.util.{ArrayUtil, SerializationUtil};
-import org.omegazero.proxyaccelerator.cache.{CacheEntry, ResourceCache};
+import org.omegazero.common.util.SerializationUtil;
+import org.omegazero.proxy.http.ProxyHTTPRequest;
+import org.omegazero.proxyaccelerator.cache.{CacheEntry, CacheKey, CachePlugin, CompressionUtil, CountingBloomFilter, ResourceCache};
 
 object DiskCache {
 
 	private final val logger = Logger.create();
 
+	private final val CompressionSampleSize = 16384;
+
 
 	def walkFileTree(path: Path, func: (Path, BasicFileAttributes) => Unit): Unit = {
 		Files.walkFileTree(path, new SimpleFileVisitor[Path] {
@@ -48,23 +51,36 @@ class DiskCache(private var config: ConfigObject) extends ResourceCache {
 
 	private val cacheBaseDir = Paths.get(config.getString("cacheBaseDir"));
 	private val maxSize = config.optLong("maxSize", 0x40000000);
-	private val compress = config.optBoolean("compress", true);
+	private val codec = DiskCodec.forName(config.optString("codec", if config.optBoolean("compress", true) then "deflate" else "none"), config.optInt("compressionLevel", -1));
+	private val compressionThreshold = config.optInt("compressionThreshold", 90) / 100.0;
 	private val rewriteDelay = config.optLong("rewriteDelay", 5000);
 
+	private val keyFilter = new CountingBloomFilter(config.optInt("expectedEntries", 100000), 0.01);
+	private val keys = new ConcurrentHashMap[String, String]();
+
 	private var manager: DiskCacheManager = null;
 
 	if(Files.isDirectory(this.cacheBaseDir)){
 		this.manager = new DiskCacheManager(this.cacheBaseDir, this.maxSize);
+		this.manager.removeListener = (id) => {
+			val key = this.keys.remove(id);
+			if(key != null)
+				this.keyFilter.remove(key);
+		};
+		this.loadKeys();
 		logger.debug("Configured cacheBaseDir '", this.cacheBaseDir, "' has ", this.manager.size, " of ", this.manager.maxSize, " bytes");
 	}else{
 		logger.warn("Given cacheBaseDir '", this.cacheBaseDir, "' is not a directory, cache will not be enabled");
 	}
 
 
-	override def store(primaryKey: String, entry: CacheEntry): Unit = {
+	override def store(primaryKey: String, entry: CacheEntry): Unit = this.store(new CacheKey(primaryKey), entry);
+
+	override def store(key: CacheKey, entry: CacheEntry): Unit = {
 		if(this.manager == null || entry.getSize() > this.maxSize)
 			return;
-		var id = ArrayUtil.toHexString(this.manager.sha256(Right(primaryKey)));
+		val primaryKey = key.getKey();
+		var id = key.getDigest();
 		var filePath = this.manager.filePath(id);
 		if(Files.isReadable(filePath) && System.currentTimeMillis() - Files.getLastModifiedTime(filePath).toMillis() < this.rewriteDelay){
 			logger.debug("Skipped storing of entry with '", primaryKey, "' because file '", filePath, "' was recently modified");
@@ -72,33 +88,34 @@ class DiskCache(private var config: ConfigObject) extends ResourceCache {
 		}
 		try{
 			var data = SerializationUtil.serialize(entry);
-			var baos = new ByteArrayOutputStream();
-			var hdr = 0x20;
-			if(this.compress)
-				hdr |= 0x01;
-			baos.write(hdr);
-
-			if(this.compress){
-				var dos = new DeflaterOutputStream(baos);
-				dos.write(data);
-				dos.close();
-			}else{
-				baos.write(data);
+			var codec = this.selectCodec(entry);
+			var encoded = codec.encode(data);
+			if(encoded.length >= data.length){
+				codec = DiskCodec.NONE;
+				encoded = data;
 			}
+			var baos = new ByteArrayOutputStream(encoded.length + 1);
+			baos.write(0x20 | codec.getId());
+			baos.write(encoded);
 			data = baos.toByteArray();
 			if(data.length > this.maxSize)
 				return;
 			logger.debug("Storing entry with primary key '", primaryKey, "' (", id, "; ", data.length, " bytes)");
-			this.manager += (id, data, None);
+			this.manager += (id, data, Some(primaryKey));
+			if(this.keys.putIfAbsent(id, primaryKey) == null)
+				this.keyFilter.add(primaryKey);
 		}catch{
 			case e: Exception => logger.warn("Error while storing entry with primary key '", primaryKey, "' (", id, "): ", e);
 		}
 	}
 
-	override def fetch(primaryKey: String): CacheEntry = {
-		if(this.manager == null)
+	override def fetch(primaryKey: String): CacheEntry = this.fetch(new CacheKey(primaryKey));
+
+	override def fetch(key: CacheKey): CacheEntry = {
+		if(!this.mayContain(key))
 			return null;
-		var id = ArrayUtil.toHexString(this.manager.sha256(Right(primaryKey)));
+		val primaryKey = key.getKey();
+		var id = key.getDigest();
 		try{
 			var entry = this.manager.get(id);
 			if(!entry.isDefined)
@@ -110,10 +127,17 @@ class DiskCache(private var config: ConfigObject) extends ResourceCache {
 		}
 	}
 
-	override def delete(primaryKey: String): CacheEntry = {
-		if(this.manager == null)
+	override def mayContain(primaryKey: String): Boolean = this.manager != null && this.keyFilter.mightContain(primaryKey);
+
+	override def mayContain(key: CacheKey): Boolean = this.mayContain(key.getKey());
+
+	override def delete(primaryKey: String): CacheEntry = this.delete(new CacheKey(primaryKey));
+
+	override def delete(key: CacheKey): CacheEntry = {
+		if(!this.mayContain(key))
 			return null;
-		var id = ArrayUtil.toHexString(this.manager.sha256(Right(primaryKey)));
+		val primaryKey = key.getKey();
+		var id = key.getDigest();
 		try{
 			var entry = this.manager.get(id);
 			if(entry.isDefined){
@@ -133,7 +157,10 @@ class DiskCache(private var config: ConfigObject) extends ResourceCache {
 		if(this.manager == null)
 			return 0;
 		try{
-			return this.manager.removeIf(filter.test(_));
+			return this.manager.removeIf((id) => {
+				val key = this.keys.get(id);
+				filter.test(if key != null then key else id);
+			});
 		}catch{
 			case e: Exception => logger.warn("Error while deleting entries with Predicate: ", e);
 			return 0;
@@ -146,6 +173,53 @@ class DiskCache(private var config: ConfigObject) extends ResourceCache {
 	override def close(): Unit = {
 	}
 
+	private def loadKeys(): Unit = {
+		val invalid = ListBuffer[String]();
+		for(entry <- this.manager.entries){
+			try{
+				var key: String = null;
+				if(entry.separateMetadata){
+					entry.metadata match {
+						case Some(k: String) => key = k;
+						case _ =>
+					}
+				}
+				if(key == null){ // stored by a previous version without the primary key in the metadata file
+					val cacheEntry = this.readEntryData(entry.data);
+					key = CachePlugin.getCacheKey(cacheEntry.getResponse().getOther().asInstanceOf[ProxyHTTPRequest]);
+					Files.write(this.manager.filePath(entry.id, true), SerializationUtil.serialize(key));
+					entry.separateMetadata = true;
+				}
+				if(this.keys.putIfAbsent(entry.id, key) == null)
+					this.keyFilter.add(key);
+			}catch{
+				case e: Exception => logger.warn("Removing unreadable cache file '", entry.id, "': ", e);
+				invalid += entry.id;
+			}
+		}
+		for(id <- invalid)
+			this.manager -= id;
+		logger.debug("Loaded ", this.keys.size(), " keys into filter");
+	}
+
+	/**
+	 * Returns the codec to use for the given entry: no compression if the response body is already compressed or if compressing a sample of it does not reduce its size by
+	 * enough, otherwise the configured codec.
+	 */
+	private def selectCodec(entry: CacheEntry): DiskCodec = {
+		if(this.codec eq DiskCodec.NONE)
+			return this.codec;
+		if(entry.getDataEncoding() != null || CompressionUtil.isPrecompressed(entry.getResponse()))
+			return DiskCodec.NONE;
+		val body = entry.getResponseData();
+		if(body.length > DiskCache.CompressionSampleSize){
+			val sample = Arrays.copyOfRange(body, (body.length - DiskCache.CompressionSampleSize) / 2, (body.length + DiskCache.CompressionSampleSize) / 2);
+			if(this.codec.encode(sample).length > sample.length * this.compressionThreshold)
+				return DiskCodec.NONE;
+		}
+		return this.codec;
+	}
+
 	private def readEntryData(data: Array[Byte]): CacheEntry = {
 		var bais = new ByteArrayInputStream(data);
 		var hdr = bais.read();
@@ -153,7 +227,7 @@ class DiskCache(private var config: ConfigObject) extends ResourceCache {
 		if(version != 1)
 			throw new IOException("Unsupported resource version: " + version);
 
-		var inputStream = if((hdr & 0x01) != 0) then new InflaterInputStream(bais) else bais;
+		var inputStream = DiskCodec.forId(hdr & 0x0f).decode(bais);
 		var objStream = new ObjectInputStream(inputStream);
 		var obj = objStream.readObject();
 		objStream.close();
@@ -184,6 +258,12 @@ class DiskCacheManager(val directory: Path, val maxSize: Long, checkValid: Strin
 
 	private val diskEntries = rentries.valuesIterator.to(ListBuffer).sortWith(_.mtime < _.mtime);
 
+	var removeListener: String => Unit = (_) => {};
+
+	def entries: scala.List[Entry] = this.synchronized {
+		return this.diskEntries.toList;
+	}
+
 	def size: Long = this.synchronized {
 		var total: Long = 0;
 		for(entry <- diskEntries){
@@ -252,6 +332,7 @@ class DiskCacheManager(val directory: Path, val maxSize: Long, checkValid: Strin
 		val entry = this.diskEntries.remove(index);
 		Files.deleteIfExists(this.filePath(entry.id, true));
 		Files.deleteIfExists(this.filePath(entry.id));
+		this.removeListener(entry.id);
 		return entry;
 	}
 
@@ -0,0 +1,146 @@
+/*
+ * Copyright (C) 2023 omegazero.org, warp03
+ *
+ * This Source Code Form is subject to the terms of the Mozilla Public License, v. 2.0.
+ * If a copy of the MPL was not distributed with this file, You can obtain one at https://mozilla.org/MPL/2.0/.
+ */
+package org.omegazero.proxyaccelerator.cache;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.omegazero.common.config.ConfigArray;
+import org.omegazero.common.config.ConfigObject;
+
+/**
+ * Checks the normalization of cache keys by {@link CacheConfig#getCacheKey(String, String, String, String)} using the <i>key*</i> configuration options.
+ */
+public class CacheKeyTest {
+
+
+	public static void main(String[] args) {
+		defaults();
+		foldHead();
+		stripParams();
+		includeParams();
+		sortParams();
+		combined();
+		authority();
+		System.out.println("CacheKeyTest passed");
+	}
+
+
+	private static void defaults() {
+		CacheConfig cc = config();
+		check(key(cc, "GET", "/a?b=1&a=2").equals(CachePlugin.getCacheKey("GET", "https", "example.com", "/a?b=1&a=2")), "key must not be changed by default");
+		check(!key(cc, "GET", "/a?b=1&a=2").equals(key(cc, "GET", "/a?a=2&b=1")), "parameter order must be significant by default");
+		check(!key(cc, "HEAD", "/a").equals(key(cc, "GET", "/a")), "HEAD must have a separate key by default");
+		check(key(cc, "GET", "/a?&&").equals(CachePlugin.getCacheKey("GET", "https", "example.com", "/a?&&")), "query string must not be changed by default");
+	}
+
+	private static void foldHead() {
+		CacheConfig cc = config("keyFoldHead", true);
+		check(key(cc, "HEAD", "/a").equals(key(cc, "GET", "/a")), "HEAD must be folded into GET");
+		check(!key(cc, "POST", "/a").equals(key(cc, "GET", "/a")), "other methods must not be folded");
+	}
+
+	private static void stripParams() {
+		CacheConfig cc = config("keyStripParams", array("utm_.*", "fbclid"));
+		check(key(cc, "GET", "/a?utm_source=x&id=1&fbclid=y").equals(key(cc, "GET", "/a?id=1")), "matching parameters must be removed");
+		check(key(cc, "GET", "/a?utm_source&id=1").equals(key(cc, "GET", "/a?id=1")), "matching parameters without value must be removed");
+		check(key(cc, "GET", "/a?utm_source=x&fbclid=y").equals(key(cc, "GET", "/a")), "query string without remaining parameters must be removed");
+		check(key(cc, "GET", "/a?fbclid2=y").endsWith("/a?fbclid2=y"), "parameter names must match the entire expression");
+		check(!key(cc, "GET", "/a?id=1").equals(key(cc, "GET", "/a?id=2")), "values of kept parameters must be significant");
+		check(key(cc, "GET", "/a?utm=x").endsWith("/a?utm=x"), "non-matching parameter must be kept");
+		check(key(cc, "GET", "/a").endsWith("/a"), "path without query string must not be changed");
+
+		check(key(config("keyStripParams", "x"), "GET", "/a?x=1&y=2").endsWith("/a?y=2"), "single expression must be accepted");
+	}
+
+	private static void includeParams() {
+		CacheConfig cc = config("keyIncludeParams", array("id", "page"));
+		check(key(cc, "GET", "/a?id=1&utm_source=x&page=2").endsWith("/a?id=1&page=2"), "only included parameters must be kept");
+		check(key(cc, "GET", "/a?idx=1").endsWith("/a"), "parameter names must match the entire expression");
+		check(!key(cc, "GET", "/a?id=1").equals(key(cc, "GET", "/a?id=2")), "values of included parameters must be significant");
+		check(key(cc, "GET", "/a?id=1&&page=2&").endsWith("/a?id=1&page=2"), "empty parameters must be removed");
+	}
+
+	private static void sortParams() {
+		CacheConfig cc = config("keySortParams", true);
+		check(key(cc, "GET", "/a?b=1&a=2&c").equals(key(cc, "GET", "/a?c&a=2&b=1")), "parameter order must not be significant");
+		check(key(cc, "GET", "/a?b=1&a=2").endsWith("/a?a=2&b=1"), "parameters must be sorted by name");
+		check(key(cc, "GET", "/a?a=2&b=1&a=1").endsWith("/a?a=2&a=1&b=1"), "parameters with the same name must keep their order");
+		check(!key(cc, "GET", "/a?a=2&a=1").equals(key(cc, "GET", "/a?a=1&a=2")), "order of parameters with the same name must be significant");
+		check(key(cc, "GET", "/a?").endsWith("/a"), "empty query string must be removed");
+	}
+
+	private static void combined() {
+		CacheConfig cc = config("keyStripParams", "utm_.*", "keySortParams", true, "keyFoldHead", true);
+		check(key(cc, "HEAD", "/a?utm_source=x&b=1&a=2").equals(key(cc, "GET", "/a?a=2&b=1")), "all rules must be applied together");
+		check(key(cc, "GET", "/a?utm_source=x&b=1&a=2").equals(CachePlugin.getCacheKey("GET", "https", "example.com", "/a?a=2&b=1")),
+				"rules must only change the method and path");
+
+		cc = config("keyIncludeParams", array("a", "b"), "keyStripParams", "b", "keySortParams", true);
+		check(key(cc, "GET", "/a?c=3&b=1&a=2").endsWith("/a?a=2"), "stripped parameters must be removed even if included");
+
+		Map<String, Object> override = map("path", "/api/.*", "keyIncludeParams", "id");
+		cc = config("keyStripParams", "utm_.*", "overrides", new ConfigArray(new ArrayList<>(List.of(new ConfigObject(override)))));
+		check(key(cc, "GET", "/api/x?utm_source=x&id=1&v=2").endsWith("/api/x?id=1"), "override rules must replace the default rules");
+		check(key(cc, "GET", "/x?utm_source=x&id=1&v=2").endsWith("/x?id=1&v=2"), "default rules must apply outside of overrides");
+	}
+
+	private static void authority() {
+		Map<String, Object> override = map("hostname", "(www\\.)?example\\.com", "path", ".*", "keyAuthority", "example.com");
+		CacheConfig cc = config("overrides", new ConfigArray(new ArrayList<>(List.of(new ConfigObject(override)))));
+		check(cc.getCacheKey("GET", "https", "www.example.com", "/a").equals(cc.getCacheKey("GET", "https", "example.com", "/a")),
+				"authority must be replaced in overrides with a hostname");
+		check(!cc.getCacheKey("GET", "https", "other.example.com", "/a").equals(cc.getCacheKey("GET", "https", "example.com", "/a")),
+				"authority must not be replaced for other hostnames");
+
+		CacheConfig vhost = CacheConfig.from(new ConfigObject(map("keyAuthority", "example.com")), config());
+		check(vhost.getCacheKey("GET", "https", "www.example.com", "/a").equals(vhost.getCacheKey("GET", "https", "example.com", "/a")),
+				"authority must be replaced in the configuration of a virtual host");
+
+		expectRejected(map("keyAuthority", "example.com"), "keyAuthority at the top level must be rejected");
+		expectRejected(map("overrides", new ConfigArray(new ArrayList<>(List.of(new ConfigObject(map("path", "/a", "keyAuthority", "example.com")))))),
+				"keyAuthority in an override without a hostname must be rejected");
+		expectRejected(map("overrides", new ConfigArray(new ArrayList<>(List.of(new ConfigObject(map("hostname", ".*", "path", ".*", "keyAuthority", "example.com")))))),
+				"keyAuthority in an override matching any hostname must be rejected");
+	}
+
+
+	private static CacheConfig config(Object... properties) {
+		return CacheConfig.from(new ConfigObject(map(properties)), null);
+	}
+
+	private static Map<String, Object> map(Object... properties) {
+		Map<String, Object> map = new HashMap<>();
+		for(int i = 0; i < properties.length; i += 2)
+			map.put((String) properties[i], properties[i + 1]);
+		return map;
+	}
+
+	private static ConfigArray array(String... values) {
+		return new ConfigArray(new ArrayList<>(List.of((Object[]) values)));
+	}
+
+	private static String key(CacheConfig cc, String method, String path) {
+		return cc.getCacheKey(method, "https", "example.com", path);
+	}
+
+	private static void expectRejected(Map<String, Object> config, String msg) {
+		try{
+			CacheConfig.from(new ConfigObject(config), null);
+		}catch(IllegalArgumentException e){
+			return;
+		}
+		throw new AssertionError(msg);
+	}
+
+	private static void check(boolean condition, String msg) {
+		if(!condition)
+			throw new AssertionError(msg);
+	}
+}
@@ -0,0 +1,85 @@
+/*
+ * Copyright (C) 2023 omegazero.org, warp03
+ *
+ * This Source Code Form is subject to the terms of the Mozilla Public License, v. 2.0.
+ * If a copy of the MPL was not distributed with this file, You can obtain one at https://mozilla.org/MPL/2.0/.
+ */
+package org.omegazero.proxyaccelerator.cache;
+
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.omegazero.common.config.ConfigArray;
+import org.omegazero.common.config.ConfigObject;
+import org.omegazero.http.common.HTTPHeaderContainer;
+import org.omegazero.http.common.HTTPResponse;
+
+/**
+ * Reloads the cache levels of a {@link CachePlugin} with changed configurations and checks that levels are kept or replaced as expected, in particular that a changed
+ * <i>peer</i> level can bind the port of the level it replaces.
+ */
+public class CacheReloadTest {
+
+	private static final String NODE = "127.0.0.1:41891";
+
+	private static final CacheConfig cacheConfig = CacheConfig.from(new ConfigObject(new HashMap<>()), null);
+
+
+	public static void main(String[] args) throws Exception {
+		CachePlugin plugin = new CachePlugin();
+		ResourceCache cache = plugin.reloadCacheLevels(List.of(lru(1000000), peer(200)), true);
+		cache.store("key", entry());
+		check(cache.fetch("key") != null, "stored entry must be found");
+
+		cache = plugin.reloadCacheLevels(List.of(lru(1000000), peer(300)), true);
+		check(cache.fetch("key") != null, "entry in the unchanged lru level must be kept");
+
+		cache = plugin.reloadCacheLevels(List.of(lru(2000000), peer(300)), true);
+		check(cache.fetch("key") != null, "entry in the resized lru level must be kept");
+
+		cache = plugin.reloadCacheLevels(List.of(peer(400)), false); // the peer level moves to the position of the lru level
+		check(cache.fetch("key") != null, "entries of the replaced lru level must be migrated");
+
+		cache = plugin.reloadCacheLevels(List.of(lru(1000000)), false);
+		check(cache.fetch("key") == null, "entries of the replaced peer level must not be migrated");
+		try(ServerSocket socket = new ServerSocket()){
+			socket.setReuseAddress(true);
+			socket.bind(new InetSocketAddress("127.0.0.1", 41891)); // throws if the port is still bound by the replaced peer level
+		}
+		cache.close();
+		System.out.println("CacheReloadTest passed");
+	}
+
+
+	private static ConfigObject lru(long sizeLimit) {
+		Map<String, Object> config = new HashMap<>();
+		config.put("type", "lru");
+		config.put("sizeLimit", sizeLimit);
+		return new ConfigObject(config);
+	}
+
+	private static ConfigObject peer(int timeout) {
+		Map<String, Object> config = new HashMap<>();
+		config.put("type", "peer");
+		config.put("self", NODE);
+		config.put("peers", new ConfigArray(new ArrayList<>(List.of(NODE))));
+		config.put("secret", "secret");
+		config.put("bindAddress", "127.0.0.1");
+		config.put("timeout", timeout);
+		return new ConfigObject(config);
+	}
+
+	private static CacheEntry entry() {
+		CacheEntry.Properties properties = new CacheEntry.Properties(cacheConfig.getOverride("localhost", "/"), 600, 0, false, new HashMap<>());
+		return new CacheEntry(new HTTPResponse(200, "HTTP/1.1", new HTTPHeaderContainer()), new byte[] { 1 }, CachePlugin.time() + 600000, 0, properties);
+	}
+
+	private static void check(boolean condition, String msg) {
+		if(!condition)
+			throw new AssertionError(msg);
+	}
+}
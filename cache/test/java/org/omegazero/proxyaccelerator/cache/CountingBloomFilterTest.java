@@ -0,0 +1,135 @@
+/*
+ * Copyright (C) 2023 omegazero.org, warp03
+ *
+ * This Source Code Form is subject to the terms of the Mozilla Public License, v. 2.0.
+ * If a copy of the MPL was not distributed with this file, You can obtain one at https://mozilla.org/MPL/2.0/.
+ */
+package org.omegazero.proxyaccelerator.cache;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+/**
+ * Checks that {@link CountingBloomFilter} never reports an added key as absent, including after removals and with saturated counters, and that removed keys are reported
+ * as absent again.
+ */
+public class CountingBloomFilterTest {
+
+	private static final Random random = new Random(0x43424631);
+
+
+	public static void main(String[] args) {
+		addRemove();
+		falsePositives();
+		saturation();
+		randomOperations();
+		System.out.println("CountingBloomFilterTest passed");
+	}
+
+
+	private static void addRemove() {
+		CountingBloomFilter filter = new CountingBloomFilter(100, 0.01);
+		check(!filter.mightContain("a"), "empty filter must not contain a key");
+		filter.add("a");
+		check(filter.mightContain("a"), "added key must be contained");
+		filter.add("a");
+		filter.remove("a");
+		check(filter.mightContain("a"), "key added twice must be contained after removing it once");
+		filter.remove("a");
+		check(!filter.mightContain("a"), "removed key must not be contained");
+
+		filter.add("a");
+		filter.add("b");
+		filter.clear();
+		check(!filter.mightContain("a") && !filter.mightContain("b"), "cleared filter must not contain a key");
+	}
+
+	private static void falsePositives() {
+		int n = 10000;
+		CountingBloomFilter filter = new CountingBloomFilter(n, 0.01);
+		for(int i = 0; i < n; i++)
+			filter.add("GET https://example.com/" + i);
+		for(int i = 0; i < n; i++)
+			check(filter.mightContain("GET https://example.com/" + i), "added key " + i + " must be contained");
+		check(falsePositiveRate(filter, "absent") < 0.03, "false positive rate must be close to the configured probability");
+
+		for(int i = 0; i < n; i += 2)
+			filter.remove("GET https://example.com/" + i);
+		for(int i = 1; i < n; i += 2)
+			check(filter.mightContain("GET https://example.com/" + i), "key " + i + " must be contained after removing other keys");
+		int removedContained = 0;
+		for(int i = 0; i < n; i += 2)
+			if(filter.mightContain("GET https://example.com/" + i))
+				removedContained++;
+		check(removedContained < n / 2 * 0.03, "removed keys must mostly not be contained (" + removedContained + ")");
+	}
+
+	/**
+	 * Counters that reached their maximum value must not wrap around or be decremented again, because their actual count is unknown.
+	 */
+	private static void saturation() {
+		CountingBloomFilter filter = new CountingBloomFilter(1, 0.5); // small filter, such that keys share most counters
+		for(int i = 0; i < 300; i++)
+			filter.add("a");
+		check(filter.mightContain("a"), "key with saturated counters must be contained");
+		filter.add("b");
+		for(int i = 0; i < 300; i++)
+			filter.remove("a");
+		check(filter.mightContain("b"), "key sharing saturated counters must be contained after removing the other key");
+		check(filter.mightContain("a"), "saturated counters must not be decremented");
+
+		filter = new CountingBloomFilter(1, 0.5);
+		for(int i = 0; i < 255; i++)
+			filter.add("c");
+		filter.add("d");
+		for(int i = 0; i < 255; i++)
+			filter.remove("c");
+		check(filter.mightContain("d"), "key must be contained after removing another key 255 times");
+	}
+
+	/**
+	 * Adds and removes keys in random order and checks that every key that is still added is contained at all times.
+	 */
+	private static void randomOperations() {
+		CountingBloomFilter filter = new CountingBloomFilter(500, 0.05);
+		Map<String, Integer> counts = new HashMap<>();
+		List<String> added = new ArrayList<>();
+		for(int i = 0; i < 200000; i++){
+			if(added.isEmpty() || random.nextInt(3) > 0){
+				String key = "/" + random.nextInt(1000);
+				filter.add(key);
+				counts.merge(key, 1, Integer::sum);
+				added.add(key);
+			}else{
+				String key = added.remove(random.nextInt(added.size()));
+				filter.remove(key);
+				if(counts.merge(key, -1, Integer::sum) == 0)
+					counts.remove(key);
+			}
+			if(i % 1000 == 0){
+				for(String key : counts.keySet())
+					check(filter.mightContain(key), "added key " + key + " must be contained after " + i + " operations");
+			}
+		}
+		for(String key : counts.keySet())
+			check(filter.mightContain(key), "added key " + key + " must be contained");
+	}
+
+
+	private static double falsePositiveRate(CountingBloomFilter filter, String prefix) {
+		int count = 100000;
+		int positives = 0;
+		for(int i = 0; i < count; i++)
+			if(filter.mightContain(prefix + i))
+				positives++;
+		return (double) positives / count;
+	}
+
+	private static void check(boolean condition, String msg) {
+		if(!condition)
+			throw new AssertionError(msg);
+	}
+}
@@ -0,0 +1,130 @@
+/*
+ * Copyright (C) 2023 omegazero.org, warp03
+ *
+ * This Source Code Form is subject to the terms of the Mozilla Public License, v. 2.0.
+ * If a copy of the MPL was not distributed with this file, You can obtain one at https://mozilla.org/MPL/2.0/.
+ */
+package org.omegazero.proxyaccelerator.cache;
+
+import org.omegazero.http.common.HTTPHeaderContainer;
+import org.omegazero.http.common.HTTPRequest;
+import org.omegazero.http.common.HTTPResponse;
+
+/**
+ * Checks the evaluation of conditional requests against cached responses (RFC 9110, section 13) and the parsing of <i>HTTP-date</i> values by {@link HTTPDateUtil}.
+ */
+public class PreconditionsTest {
+
+	private static final String DATE = "Sun, 06 Nov 1994 08:49:37 GMT";
+	private static final String EARLIER = "Sat, 05 Nov 1994 08:49:37 GMT";
+	private static final String LATER = "Mon, 07 Nov 1994 08:49:37 GMT";
+
+
+	public static void main(String[] args) {
+		dates();
+		etagComparison();
+		preconditions();
+		System.out.println("PreconditionsTest passed");
+	}
+
+
+	private static void dates() {
+		long expected = 784111777000L;
+		check(HTTPDateUtil.parse(DATE) == expected, "IMF-fixdate must be parsed");
+		check(HTTPDateUtil.parse("Sunday, 06-Nov-94 08:49:37 GMT") == expected, "RFC 850 date must be parsed");
+		check(HTTPDateUtil.parse("Sun Nov  6 08:49:37 1994") == expected, "asctime date must be parsed");
+		check(HTTPDateUtil.parse("sun, 06 nov 1994 08:49:37 GMT") == expected, "month and day names must be case-insensitive");
+		check(HTTPDateUtil.parse("Thursday, 01-Jan-15 00:00:00 GMT") == 1420070400000L, "two-digit years below 70 must be in the 21st century");
+		check(HTTPDateUtil.parse("Sat, 29 Feb 2020 00:00:00 GMT") == 1582934400000L, "leap day must be parsed");
+
+		check(HTTPDateUtil.parse(null) == -1, "null must be rejected");
+		check(HTTPDateUtil.parse("") == -1, "empty string must be rejected");
+		check(HTTPDateUtil.parse("Sun, 06 Nov 1994 08:49:37") == -1, "date without time zone must be rejected");
+		check(HTTPDateUtil.parse("Sun, 06 Nov 1994 08:49:37 UTC") == -1, "time zones other than GMT must be rejected");
+		check(HTTPDateUtil.parse("Sun, 06 Foo 1994 08:49:37 GMT") == -1, "invalid month must be rejected");
+		check(HTTPDateUtil.parse("Sun, 06 Nov 1994 24:00:00 GMT") == -1, "invalid hour must be rejected");
+		check(HTTPDateUtil.parse("Mon, 29 Feb 2021 00:00:00 GMT") == -1, "invalid day must be rejected");
+		check(HTTPDateUtil.parse("Sun, 06 Nov 1994 08:49:37 GMT extra") == -1, "trailing tokens must be rejected");
+		check(HTTPDateUtil.parse("1994-11-06T08:49:37Z") == -1, "ISO 8601 dates must be rejected");
+	}
+
+	private static void etagComparison() {
+		check(CachePlugin.matchesETag("\"a\"", "\"a\"", false), "identical strong tags must match with strong comparison");
+		check(!CachePlugin.matchesETag("W/\"a\"", "\"a\"", false), "weak tag in the header must not match with strong comparison");
+		check(!CachePlugin.matchesETag("\"a\"", "W/\"a\"", false), "weak tag of the response must not match with strong comparison");
+		check(CachePlugin.matchesETag("W/\"a\"", "\"a\"", true), "weak tag in the header must match with weak comparison");
+		check(CachePlugin.matchesETag("\"a\"", "W/\"a\"", true), "weak tag of the response must match with weak comparison");
+		check(CachePlugin.matchesETag("W/\"a\"", "W/\"a\"", true), "identical weak tags must match with weak comparison");
+
+		check(CachePlugin.matchesETag("\"x\", \"a\"", "\"a\"", false), "any tag in a list must match");
+		check(CachePlugin.matchesETag("\"x\",W/\"y\" ,\t\"a\"", "\"a\"", true), "list elements may be separated by optional whitespace");
+		check(!CachePlugin.matchesETag("\"x\", \"y\"", "\"a\"", true), "list without the tag must not match");
+		check(!CachePlugin.matchesETag("\"ab\"", "\"a\"", true), "tag with a common prefix must not match");
+		check(!CachePlugin.matchesETag("\"a\"", "\"ab\"", true), "prefix of a tag must not match");
+		check(!CachePlugin.matchesETag("\"A\"", "\"a\"", true), "tags must be compared case-sensitively");
+		check(CachePlugin.matchesETag("invalid, \"a\"", "\"a\"", false), "invalid list elements must be skipped");
+		check(!CachePlugin.matchesETag("a", "\"a\"", true), "unquoted tag must not match");
+
+		check(CachePlugin.matchesETag("*", "\"a\"", false), "'*' must match any tag");
+		check(CachePlugin.matchesETag(" * ", null, false), "'*' must match a response without a tag");
+		check(!CachePlugin.matchesETag("\"a\"", null, true), "response without a tag must not match a tag");
+	}
+
+	private static void preconditions() {
+		HTTPResponse res = response("\"v1\"", DATE);
+		check(status(res) == 0, "request without preconditions must be served normally");
+
+		check(status(res, "if-match", "\"v1\"") == 0, "matching If-Match must pass");
+		check(status(res, "if-match", "\"v2\"") == 412, "non-matching If-Match must fail");
+		check(status(res, "if-match", "W/\"v1\"") == 412, "If-Match must use strong comparison");
+		check(status(response("W/\"v1\"", DATE), "if-match", "W/\"v1\"") == 412, "If-Match must not match a weak response tag");
+		check(status(response(null, DATE), "if-match", "\"v1\"") == 412, "If-Match must fail for a response without a tag");
+		check(status(response(null, DATE), "if-match", "*") == 0, "If-Match '*' must pass for any cached response");
+
+		check(status(res, "if-unmodified-since", EARLIER) == 412, "If-Unmodified-Since before the modification must fail");
+		check(status(res, "if-unmodified-since", DATE) == 0, "If-Unmodified-Since at the modification must pass");
+		check(status(res, "if-unmodified-since", LATER) == 0, "If-Unmodified-Since after the modification must pass");
+		check(status(res, "if-unmodified-since", "invalid") == 0, "invalid If-Unmodified-Since must be ignored");
+		check(status(res, "if-match", "\"v1\"", "if-unmodified-since", EARLIER) == 0, "If-Unmodified-Since must be ignored if If-Match is present");
+		check(status(res, "if-match", "\"v2\"", "if-unmodified-since", LATER) == 412, "failing If-Match must not be overridden by If-Unmodified-Since");
+
+		check(status(res, "if-none-match", "\"v1\"") == 304, "matching If-None-Match must result in 304");
+		check(status(res, "if-none-match", "W/\"v1\"") == 304, "If-None-Match must use weak comparison");
+		check(status(res, "if-none-match", "\"v2\"") == 0, "non-matching If-None-Match must be served normally");
+		check(status(res, "if-none-match", "*") == 304, "If-None-Match '*' must result in 304");
+
+		check(status(res, "if-modified-since", DATE) == 304, "If-Modified-Since at the modification must result in 304");
+		check(status(res, "if-modified-since", LATER) == 304, "If-Modified-Since after the modification must result in 304");
+		check(status(res, "if-modified-since", EARLIER) == 0, "If-Modified-Since before the modification must be served normally");
+		check(status(res, "if-modified-since", "invalid") == 0, "invalid If-Modified-Since must be ignored");
+		check(status(response("\"v1\"", null), "if-modified-since", LATER) == 0, "If-Modified-Since must be ignored for a response without Last-Modified");
+		check(status(res, "if-none-match", "\"v2\"", "if-modified-since", LATER) == 0, "If-Modified-Since must be ignored if If-None-Match is present");
+		check(status(res, "if-none-match", "\"v1\"", "if-modified-since", EARLIER) == 304, "If-None-Match must take precedence over If-Modified-Since");
+
+		check(status(res, "if-match", "\"v2\"", "if-none-match", "\"v1\"") == 412, "If-Match must be evaluated before If-None-Match");
+		check(status(res, "if-unmodified-since", EARLIER, "if-none-match", "\"v1\"") == 412, "If-Unmodified-Since must be evaluated before If-None-Match");
+		check(status(res, "if-match", "\"v1\"", "if-none-match", "\"v1\"") == 304, "passing If-Match must be followed by If-None-Match");
+	}
+
+
+	private static HTTPResponse response(String etag, String lastModified) {
+		HTTPResponse res = new HTTPResponse(200, "HTTP/1.1", new HTTPHeaderContainer());
+		if(etag != null)
+			res.setHeader("etag", etag);
+		if(lastModified != null)
+			res.setHeader("last-modified", lastModified);
+		return res;
+	}
+
+	private static int status(HTTPResponse res, String... headers) {
+		HTTPRequest request = new HTTPRequest("GET", "https", "example.com", "/", "HTTP/1.1", new HTTPHeaderContainer());
+		for(int i = 0; i < headers.length; i += 2)
+			request.setHeader(headers[i], headers[i + 1]);
+		return CachePlugin.evaluatePreconditions(request, res);
+	}
+
+	private static void check(boolean condition, String msg) {
+		if(!condition)
+			throw new AssertionError(msg);
+	}
+}
@@ -0,0 +1,145 @@
+/*
+ * Copyright (C) 2023 omegazero.org, warp03
+ *
+ * This Source Code Form is subject to the terms of the Mozilla Public License, v. 2.0.
+ * If a copy of the MPL was not distributed with this file, You can obtain one at https://mozilla.org/MPL/2.0/.
+ */
+package org.omegazero.proxyaccelerator.cache;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.net.DatagramPacket;
+import java.net.DatagramSocket;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+import javax.crypto.Mac;
+import javax.crypto.spec.SecretKeySpec;
+
+import org.omegazero.common.config.ConfigArray;
+import org.omegazero.common.config.ConfigObject;
+
+/**
+ * Sends purge messages between {@link PurgeBus} instances on the loopback interface and checks that only authentic messages are delivered, and each of them only once.
+ */
+public class PurgeBusTest {
+
+	private static final int PORT_A = 41881;
+	private static final int PORT_B = 41882;
+	private static final int PORT_C = 41883;
+	private static final int PORT_CAPTURE = 41884;
+	private static final String SECRET = "secret";
+
+
+	public static void main(String[] args) throws Exception {
+		BlockingQueue<String> received = new LinkedBlockingQueue<>();
+		PurgeBus a = new PurgeBus(config(PORT_A, SECRET, PORT_B, PORT_CAPTURE), (partition, key, wildcard) -> {
+		});
+		PurgeBus b = new PurgeBus(config(PORT_B, SECRET), (partition, key, wildcard) -> received.add(partition + "/" + key + (wildcard ? "*" : "")));
+		PurgeBus c = new PurgeBus(config(PORT_C, "wrong secret", PORT_B), (partition, key, wildcard) -> {
+		});
+		DatagramSocket capture = new DatagramSocket(new InetSocketAddress("127.0.0.1", PORT_CAPTURE));
+		capture.setSoTimeout(2000);
+		try{
+			a.publish("", "GET:/a", false);
+			check("/GET:/a".equals(received.poll(2, TimeUnit.SECONDS)), "purge message must be delivered");
+			a.publish("p", "GET:/b", true);
+			check("p/GET:/b*".equals(received.poll(2, TimeUnit.SECONDS)), "wildcard purge message must be delivered");
+			checkNothingReceived(received, "repeated messages must be delivered only once");
+
+			DatagramPacket packet = new DatagramPacket(new byte[8192], 8192);
+			capture.receive(packet);
+			byte[] captured = Arrays.copyOf(packet.getData(), packet.getLength());
+			send(capture, captured);
+			checkNothingReceived(received, "replayed message must be rejected");
+
+			byte[] tampered = captured.clone();
+			tampered[tampered.length - 40] ^= 1;
+			send(capture, tampered);
+			checkNothingReceived(received, "modified message must be rejected");
+
+			c.publish("", "GET:/c", false);
+			checkNothingReceived(received, "message with a different secret must be rejected");
+
+			long now = System.currentTimeMillis();
+			send(capture, message(42, 1, now, "GET:/d"));
+			check("/GET:/d".equals(received.poll(2, TimeUnit.SECONDS)), "message with a current timestamp must be delivered");
+			send(capture, message(43, 1, now - 120000, "GET:/e"));
+			checkNothingReceived(received, "message older than maxMessageAge must be rejected");
+
+			check(b.checkSequence(1, 10, now), "first sequence number must be accepted");
+			check(!b.checkSequence(1, 10, now), "duplicate sequence number must be rejected");
+			check(b.checkSequence(1, 8, now), "reordered sequence number must be accepted");
+			check(!b.checkSequence(1, 8, now), "duplicate reordered sequence number must be rejected");
+			check(b.checkSequence(1, 9, now), "reordered sequence number must be accepted");
+			check(b.checkSequence(1, 100, now), "higher sequence number must be accepted");
+			check(!b.checkSequence(1, 30, now), "sequence number outside of the replay window must be rejected");
+			check(b.checkSequence(1, 99, now), "sequence number inside of the replay window must be accepted");
+
+			check(b.getTrackedNodeCount() == 3, "all sending nodes must be tracked");
+			long later = now + 3 * 60000;
+			check(b.checkSequence(2, 1, later), "new node must be accepted");
+			check(b.getTrackedNodeCount() == 1, "idle nodes must be expired");
+		}finally{
+			capture.close();
+			a.close();
+			b.close();
+			c.close();
+		}
+		System.out.println("PurgeBusTest passed");
+	}
+
+
+	private static ConfigObject config(int port, String secret, int... peers) {
+		Map<String, Object> config = new HashMap<>();
+		config.put("port", port);
+		config.put("bindAddress", "127.0.0.1");
+		config.put("secret", secret);
+		config.put("repeat", 2);
+		ArrayList<Object> peersList = new ArrayList<>();
+		for(int peer : peers)
+			peersList.add("127.0.0.1:" + peer);
+		config.put("peers", new ConfigArray(peersList));
+		return new ConfigObject(config);
+	}
+
+	/**
+	 * Creates a purge message with the given values in the format sent by {@link PurgeBus#publish(String, String, boolean)}.
+	 */
+	private static byte[] message(long node, long seq, long timestamp, String key) throws Exception {
+		ByteArrayOutputStream baos = new ByteArrayOutputStream();
+		DataOutputStream dos = new DataOutputStream(baos);
+		dos.writeInt(0x4f504232);
+		dos.writeLong(node);
+		dos.writeLong(seq);
+		dos.writeLong(timestamp);
+		dos.writeBoolean(false);
+		dos.writeUTF("");
+		dos.writeUTF(key);
+		Mac mac = Mac.getInstance("HmacSHA256");
+		mac.init(new SecretKeySpec(SECRET.getBytes(StandardCharsets.UTF_8), "HmacSHA256"));
+		dos.write(mac.doFinal(baos.toByteArray()));
+		return baos.toByteArray();
+	}
+
+	private static void send(DatagramSocket socket, byte[] msg) throws Exception {
+		socket.send(new DatagramPacket(msg, msg.length, new InetSocketAddress("127.0.0.1", PORT_B)));
+	}
+
+	private static void checkNothingReceived(BlockingQueue<String> received, String msg) throws InterruptedException {
+		String purge = received.poll(200, TimeUnit.MILLISECONDS);
+		check(purge == null, msg + " (received '" + purge + "')");
+	}
+
+	private static void check(boolean condition, String msg) {
+		if(!condition)
+			throw new AssertionError(msg);
+	}
+}
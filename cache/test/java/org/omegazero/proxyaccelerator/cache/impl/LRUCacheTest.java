@@ -0,0 +1,146 @@
+/*
+ * Copyright (C) 2023 omegazero.org, warp03
+ *
+ * This Source Code Form is subject to the terms of the Mozilla Public License, v. 2.0.
+ * If a copy of the MPL was not distributed with this file, You can obtain one at https://mozilla.org/MPL/2.0/.
+ */
+package org.omegazero.proxyaccelerator.cache.impl;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+import org.omegazero.common.config.ConfigObject;
+import org.omegazero.http.common.HTTPHeaderContainer;
+import org.omegazero.http.common.HTTPResponse;
+import org.omegazero.proxyaccelerator.cache.CacheConfig;
+import org.omegazero.proxyaccelerator.cache.CacheEntry;
+import org.omegazero.proxyaccelerator.cache.CachePlugin;
+import org.omegazero.proxyaccelerator.cache.ContentStore;
+
+/**
+ * Checks the eviction order and the accounting of prioritized entries of {@link LRUCache}, including entries sharing a deduplicated response body.
+ */
+public class LRUCacheTest {
+
+	private static final CacheConfig.CacheConfigOverride NORMAL = override(0);
+	private static final CacheConfig.CacheConfigOverride PRIORITIZED = override(1);
+
+
+	public static void main(String[] args) {
+		mixedPriorityDedup();
+		sharedPrioritizedBodies();
+		eviction();
+		System.out.println("LRUCacheTest passed");
+	}
+
+
+	/**
+	 * A body shared by a prioritized and a non-prioritized entry must be removed from the priority size when the prioritized entry is removed, regardless of which entry
+	 * was stored first.
+	 */
+	private static void mixedPriorityDedup() {
+		LRUCache cache = cache(true);
+		byte[] body = body(1000, 1);
+		for(int i = 0; i < 100; i++){
+			CacheEntry p = entry(PRIORITIZED, body);
+			CacheEntry n = entry(NORMAL, body);
+			if(i % 2 == 0){
+				cache.store("p", p);
+				cache.store("n", n);
+			}else{
+				cache.store("n", n);
+				cache.store("p", p);
+			}
+			check(cache.getPrioritySize() == p.getSize(), "prioritized entry must be counted with its full size");
+			if(i % 4 < 2){
+				cache.delete("p");
+				check(cache.getPrioritySize() == 0, "priority size must be 0 after removing the prioritized entry (" + cache.getPrioritySize() + ")");
+				cache.delete("n");
+			}else{
+				cache.delete("n");
+				check(cache.getPrioritySize() == p.getSize(), "removing the non-prioritized entry must not change the priority size");
+				cache.delete("p");
+			}
+			check(cache.getPrioritySize() == 0, "priority size must be 0 in an empty cache (" + cache.getPrioritySize() + ")");
+		}
+	}
+
+	private static void sharedPrioritizedBodies() {
+		LRUCache cache = cache(true);
+		byte[] body = body(1000, 2);
+		CacheEntry a = entry(PRIORITIZED, body);
+		CacheEntry b = entry(PRIORITIZED, body);
+		cache.store("a", a);
+		cache.store("b", b);
+		check(cache.getPrioritySize() == a.getSize() + b.getSize() - body.length, "shared body must be counted once");
+		cache.delete("a");
+		check(cache.getPrioritySize() == b.getSize(), "shared body must be counted while it is referenced");
+		cache.store("b", entry(PRIORITIZED, body(500, 3))); // replace
+		cache.delete("b");
+		check(cache.getPrioritySize() == 0, "priority size must be 0 in an empty cache");
+	}
+
+	/**
+	 * Entries without a priority must be evicted first, least recently used first, and prioritized entries only once they exceed the reserved capacity.
+	 */
+	private static void eviction() {
+		CacheEntry sample = entry(NORMAL, body(1000, 0));
+		long size = sample.getSize();
+		LRUCache cache = cache(false);
+		cache.setMaxCacheSize(size * 10);
+		cache.setReservedCapacity(0.3f);
+		for(int i = 0; i < 3; i++)
+			cache.store("p" + i, entry(PRIORITIZED, body(1000, 10 + i)));
+		for(int i = 0; i < 7; i++)
+			cache.store("n" + i, entry(NORMAL, body(1000, 20 + i)));
+		cache.fetch("n0");
+		cache.store("n7", entry(NORMAL, body(1000, 27)));
+		check(cache.fetch("n1") == null, "least recently used non-prioritized entry must be evicted");
+		check(cache.fetch("n0") != null, "recently used entry must be kept");
+		for(int i = 0; i < 3; i++)
+			check(cache.fetch("p" + i) != null, "prioritized entries within the reserved capacity must be kept");
+
+		cache.store("p3", entry(PRIORITIZED, body(1000, 13)));
+		check(cache.fetch("n2") == null, "non-prioritized entry must be evicted before prioritized entries");
+		cache.setReservedCapacity(0.1f);
+		cache.setMaxCacheSize(size * 3);
+		for(int i = 0; i < 8; i++)
+			check(cache.fetch("n" + i) == null, "all non-prioritized entries must be evicted before prioritized entries");
+		check(cache.fetch("p0") == null, "least recently used prioritized entry above the reserved capacity must be evicted");
+		for(int i = 1; i < 4; i++)
+			check(cache.fetch("p" + i) != null, "prioritized entries must only be evicted until the cache is within its size limit");
+	}
+
+
+	private static LRUCache cache(boolean dedup) {
+		LRUCache cache = new LRUCache();
+		cache.setMaxCacheSize(1L << 30);
+		if(dedup)
+			cache.setContentStore(new ContentStore());
+		return cache;
+	}
+
+	private static CacheConfig.CacheConfigOverride override(int priority) {
+		Map<String, Object> config = new HashMap<>();
+		config.put("priority", priority);
+		return CacheConfig.from(new ConfigObject(config), null).getOverride("localhost", "/");
+	}
+
+	private static CacheEntry entry(CacheConfig.CacheConfigOverride override, byte[] body) {
+		CacheEntry.Properties properties = new CacheEntry.Properties(override, 600, 0, false, new HashMap<>());
+		return new CacheEntry(new HTTPResponse(200, "HTTP/1.1", new HTTPHeaderContainer()), Arrays.copyOf(body, body.length), CachePlugin.time() + 600000, 0,
+				properties);
+	}
+
+	private static byte[] body(int len, int seed) {
+		byte[] b = new byte[len];
+		Arrays.fill(b, (byte) seed);
+		return b;
+	}
+
+	private static void check(boolean condition, String msg) {
+		if(!condition)
+			throw new AssertionError(msg);
+	}
+}
@@ -0,0 +1,172 @@
+/*
+ * Copyright (C) 2023 omegazero.org, warp03
+ *
+ * This Source Code Form is subject to the terms of the Mozilla Public License, v. 2.0.
+ * If a copy of the MPL was not distributed with this file, You can obtain one at https://mozilla.org/MPL/2.0/.
+ */
+package org.omegazero.proxyaccelerator.cache.impl;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Random;
+
+/**
+ * Checks that data compressed with {@link LZ4Block} is decompressed to the original data, and that malformed compressed data is rejected with an {@link IOException}.
+ */
+public class LZ4BlockTest {
+
+	private static final Random random = new Random(0x4c5a34);
+
+
+	public static void main(String[] args) throws Exception {
+		roundTrip(new byte[0], "empty input");
+		for(int len = 1; len <= 20; len++){ // inputs shorter than the minimum input length for matches (12 bytes) are stored as literals only
+			roundTrip(randomBytes(len), "random input of " + len + " bytes");
+			roundTrip(new byte[len], "zeros of " + len + " bytes");
+		}
+		roundTrip(randomBytes(100000), "incompressible input");
+		roundTrip(repeat("abcdefghij".getBytes(StandardCharsets.US_ASCII), 10000), "repeated pattern");
+		roundTrip("The quick brown fox jumps over the lazy dog. The quick brown fox jumps over the lazy dog again.".getBytes(StandardCharsets.US_ASCII), "text");
+
+		byte[] longLiterals = concat(randomBytes(15 + 255 * 3), new byte[1000], randomBytes(270));
+		roundTrip(longLiterals, "long literal runs");
+		byte[] zeros = new byte[200000];
+		int zerosCompressed = roundTrip(zeros, "long overlapping match");
+		check(zerosCompressed < zeros.length / 200, "long match must be encoded compactly (" + zerosCompressed + " bytes)");
+		for(int len : new int[] { 4 + 14, 4 + 15, 4 + 15 + 254, 4 + 15 + 255, 4 + 15 + 255 + 1 }) // match length encoding boundaries
+			roundTrip(concat(randomBytes(20), new byte[len + 20], randomBytes(20)), "match of about " + len + " bytes");
+
+		byte[] far = randomBytes(65535 + 1000);
+		System.arraycopy(far, 0, far, 65535, 1000);
+		roundTrip(far, "repetition at the maximum offset");
+		byte[] tooFar = randomBytes(65536 + 1000);
+		System.arraycopy(tooFar, 0, tooFar, 65536, 1000);
+		roundTrip(tooFar, "repetition beyond the maximum offset");
+
+		byte[] src = concat(new byte[7], randomBytes(5000), repeat(new byte[] { 1, 2, 3 }, 3000));
+		byte[] dst = new byte[3 + LZ4Block.maxCompressedLength(src.length - 7)];
+		int clen = LZ4Block.compress(src, 7, src.length - 7, dst, 3);
+		byte[] decompressed = new byte[src.length - 7];
+		LZ4Block.decompress(dst, 3, clen, decompressed);
+		check(Arrays.equals(decompressed, Arrays.copyOfRange(src, 7, src.length)), "compression with offsets must round trip");
+
+		decodeMaxOffset();
+		decodeMalformed();
+		System.out.println("LZ4BlockTest passed");
+	}
+
+
+	/**
+	 * Compresses and decompresses the given <b>data</b>, and checks that every truncated prefix of the compressed data is rejected.
+	 *
+	 * @return The compressed size
+	 */
+	private static int roundTrip(byte[] data, String what) throws IOException {
+		byte[] compressed = new byte[LZ4Block.maxCompressedLength(data.length)];
+		int clen = LZ4Block.compress(data, 0, data.length, compressed, 0);
+		check(clen > 0 && clen <= compressed.length, what + ": invalid compressed length " + clen);
+		compressed = Arrays.copyOf(compressed, clen);
+		byte[] decompressed = new byte[data.length];
+		LZ4Block.decompress(compressed, 0, clen, decompressed);
+		check(Arrays.equals(data, decompressed), what + ": decompressed data differs");
+
+		int step = Math.max(1, clen / 200);
+		for(int len = 0; len < clen; len += step)
+			expectMalformed(Arrays.copyOf(compressed, len), data.length, what + ": truncated to " + len + " bytes");
+		expectMalformed(compressed, data.length + 1, what + ": destination too large");
+		if(data.length > 0)
+			expectMalformed(compressed, data.length - 1, what + ": destination too small");
+		return clen;
+	}
+
+	/**
+	 * Decodes a hand-crafted block with a match at offset 65535, which the compressor only uses if the hash table entry was not overwritten.
+	 */
+	private static void decodeMaxOffset() throws IOException {
+		byte[] literals = randomBytes(65535);
+		ByteArrayOutputStream block = new ByteArrayOutputStream();
+		block.write(0xf0 | 6); // 15+ literals, match length 4 + 6
+		writeLength(block, literals.length - 15);
+		block.write(literals, 0, literals.length);
+		block.write(0xff); // offset 65535 (little endian)
+		block.write(0xff);
+		block.write(0x10); // last literals: 1 byte
+		block.write(42);
+		byte[] compressed = block.toByteArray();
+
+		byte[] expected = concat(literals, Arrays.copyOf(literals, 10), new byte[] { 42 });
+		byte[] decompressed = new byte[expected.length];
+		LZ4Block.decompress(compressed, 0, compressed.length, decompressed);
+		check(Arrays.equals(expected, decompressed), "match at offset 65535 must be decoded");
+
+		compressed[compressed.length - 4] = (byte) 0xfe; // offset 65534
+		LZ4Block.decompress(compressed, 0, compressed.length, decompressed);
+		check(decompressed[65535] == literals[1], "match at offset 65534 must be decoded");
+	}
+
+	private static void decodeMalformed() {
+		expectMalformed(new byte[0], 0, "empty compressed data");
+		expectMalformed(new byte[] { 0x30, 1, 2 }, 3, "literals exceeding the input");
+		expectMalformed(new byte[] { 0x20, 1, 2, 0, 0, 0x10, 3 }, 7, "zero offset");
+		expectMalformed(new byte[] { 0x20, 1, 2, 3, 0, 0x10, 3 }, 7, "offset before the start of the output");
+		expectMalformed(new byte[] { 0x20, 1, 2, 1, 0 }, 6, "missing last literals");
+		expectMalformed(new byte[] { (byte) 0xf0, (byte) 255, (byte) 255 }, 600, "truncated literal length");
+		expectMalformed(new byte[] { 0x1f, 1, 1, 0, (byte) 255 }, 300, "truncated match length");
+
+		byte[] garbage = new byte[64];
+		for(int i = 0; i < 100000; i++){
+			int len = random.nextInt(garbage.length);
+			random.nextBytes(garbage);
+			try{
+				LZ4Block.decompress(garbage, 0, len, new byte[random.nextInt(256)]);
+			}catch(IOException e){
+				// expected for most inputs
+			}
+		}
+	}
+
+
+	private static void expectMalformed(byte[] compressed, int dstLen, String what) {
+		try{
+			LZ4Block.decompress(compressed, 0, compressed.length, new byte[dstLen]);
+		}catch(IOException e){
+			return;
+		}
+		throw new AssertionError(what + ": malformed data was accepted");
+	}
+
+	private static void writeLength(ByteArrayOutputStream out, int len) {
+		while(len >= 255){
+			out.write(255);
+			len -= 255;
+		}
+		out.write(len);
+	}
+
+	private static byte[] randomBytes(int len) {
+		byte[] b = new byte[len];
+		random.nextBytes(b);
+		return b;
+	}
+
+	private static byte[] repeat(byte[] b, int count) {
+		byte[] r = new byte[b.length * count];
+		for(int i = 0; i < count; i++)
+			System.arraycopy(b, 0, r, i * b.length, b.length);
+		return r;
+	}
+
+	private static byte[] concat(byte[]... arrays) {
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		for(byte[] b : arrays)
+			out.write(b, 0, b.length);
+		return out.toByteArray();
+	}
+
+	private static void check(boolean condition, String msg) {
+		if(!condition)
+			throw new AssertionError(msg);
+	}
+}
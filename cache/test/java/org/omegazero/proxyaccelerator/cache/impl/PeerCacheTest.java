@@ -0,0 +1,130 @@
+/*
+ * Copyright (C) 2023 omegazero.org, warp03
+ *
+ * This Source Code Form is subject to the terms of the Mozilla Public License, v. 2.0.
+ * If a copy of the MPL was not distributed with this file, You can obtain one at https://mozilla.org/MPL/2.0/.
+ */
+package org.omegazero.proxyaccelerator.cache.impl;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.function.BooleanSupplier;
+
+import org.omegazero.common.config.ConfigArray;
+import org.omegazero.common.config.ConfigObject;
+import org.omegazero.http.common.HTTPHeaderContainer;
+import org.omegazero.http.common.HTTPResponse;
+import org.omegazero.proxyaccelerator.cache.CacheConfig;
+import org.omegazero.proxyaccelerator.cache.CacheEntry;
+import org.omegazero.proxyaccelerator.cache.CachePlugin;
+
+/**
+ * Runs two {@link PeerCache} nodes on the loopback interface and checks that entries are stored on, fetched from and deleted on their owner node.
+ */
+public class PeerCacheTest {
+
+	private static final String NODE_A = "127.0.0.1:41871";
+	private static final String NODE_B = "127.0.0.1:41872";
+	private static final int KEYS = 50;
+
+	private static final CacheConfig cacheConfig = CacheConfig.from(new ConfigObject(new HashMap<>()), null);
+
+
+	public static void main(String[] args) throws Exception {
+		PeerCache a = new PeerCache(config(NODE_A, "secret"));
+		PeerCache b = new PeerCache(config(NODE_B, "secret"));
+		try{
+			int ownedByA = 0;
+			for(int i = 0; i < KEYS; i++){
+				String key = "key" + i;
+				check(a.isOwner(key) != b.isOwner(key), "exactly one node must own '" + key + "'");
+				if(a.isOwner(key))
+					ownedByA++;
+				a.store(key, entry(i));
+			}
+			check(ownedByA > 0 && ownedByA < KEYS, "keys must be distributed among both nodes");
+
+			for(int i = 0; i < KEYS; i++){
+				String key = "key" + i;
+				waitFor(() -> b.fetch(key) != null);
+				checkData(b.fetch(key), i, "fetch of '" + key + "' from node B");
+				checkData(a.fetch(key), i, "fetch of '" + key + "' from node A");
+			}
+
+			for(int i = 0; i < KEYS; i += 2){
+				String key = "key" + i;
+				PeerCache other = a.isOwner(key) ? b : a;
+				checkData(other.delete(key), i, "delete of '" + key + "' from the non-owner node");
+				check(a.fetch(key) == null && b.fetch(key) == null, "'" + key + "' must be deleted on its owner");
+			}
+
+			a.deleteIfKeyStartsWith("key1");
+			for(int i = 1; i < KEYS; i += 2){
+				String key = "key" + i;
+				if(key.startsWith("key1"))
+					check(waitFor(() -> a.fetch(key) == null && b.fetch(key) == null), "'" + key + "' must be deleted on both nodes");
+				else
+					checkData(b.fetch(key), i, "fetch of '" + key + "' after a wildcard delete of other keys");
+			}
+
+		}finally{
+			a.close();
+		}
+
+		PeerCache c = new PeerCache(config(NODE_A, "wrong secret"));
+		try{
+			for(int i = 3; i < KEYS; i += 2){
+				String key = "key" + i;
+				if(b.isOwner(key) && !key.startsWith("key1")){
+					check(c.fetch(key) == null, "node with a different secret must not receive '" + key + "'");
+					checkData(b.fetch(key), i, "fetch of '" + key + "' from its owner");
+				}
+			}
+		}finally{
+			c.close();
+			b.close();
+		}
+		System.out.println("PeerCacheTest passed");
+	}
+
+
+	private static ConfigObject config(String self, String secret) {
+		Map<String, Object> config = new HashMap<>();
+		config.put("self", self);
+		config.put("peers", new ConfigArray(new ArrayList<>(Arrays.asList(NODE_A, NODE_B))));
+		config.put("secret", secret);
+		config.put("bindAddress", "127.0.0.1");
+		config.put("lookupTimeout", 2000);
+		return new ConfigObject(config);
+	}
+
+	private static CacheEntry entry(int n) {
+		CacheEntry.Properties properties = new CacheEntry.Properties(cacheConfig.getOverride("localhost", "/"), 600, 0, false, new HashMap<>());
+		return new CacheEntry(new HTTPResponse(200, "HTTP/1.1", new HTTPHeaderContainer()), new byte[] { (byte) n }, CachePlugin.time() + 600000, 0, properties);
+	}
+
+	/**
+	 * Waits at most 2 seconds for the given <b>condition</b> to become <code>true</code>, because stores and wildcard deletes on other nodes are asynchronous.
+	 */
+	private static boolean waitFor(BooleanSupplier condition) throws InterruptedException {
+		long end = System.currentTimeMillis() + 2000;
+		while(!condition.getAsBoolean()){
+			if(System.currentTimeMillis() >= end)
+				return false;
+			Thread.sleep(10);
+		}
+		return true;
+	}
+
+	private static void checkData(CacheEntry entry, int n, String what) {
+		check(entry != null, what + " returned no entry");
+		check(entry.getResponseData().length == 1 && entry.getResponseData()[0] == n, what + " returned the wrong entry");
+	}
+
+	private static void check(boolean condition, String msg) {
+		if(!condition)
+			throw new AssertionError(msg);
+	}
+}
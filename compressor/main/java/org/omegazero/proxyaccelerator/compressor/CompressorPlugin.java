@@ -32,7 +32,6 @@ import org.omegazero.net.socket.SocketConnection;
 import org.omegazero.proxy.core.Proxy;
 import org.omegazero.proxy.net.UpstreamServer;
 import org.omegazero.proxyaccelerator.cache.CachePlugin;
-import org.omegazero.proxyaccelerator.cache.VaryComparator;
 
 @EventBusSubscriber
 public class CompressorPlugin {
@@ -54,8 +53,11 @@ public class CompressorPlugin {
 
 	@SubscribeEvent
 	public void onInit() {
-		if(Proxy.getInstance().isPluginLoaded("cache"))
-			CachePlugin.registerVaryComparator("accept-encoding", VaryComparator.DIRECTIVE_LIST_COMPARATOR);
+		if(Proxy.getInstance().isPluginLoaded("cache")) // responses only differ by the selected encoding
+			CachePlugin.registerVaryNormalizer("accept-encoding", (value) -> {
+				String encoding = this.selectEncoding(value);
+				return encoding != null ? encoding : "identity";
+			});
 	}
 
 	@SubscribeEvent(priority = Priority.LOW)
@@ -69,6 +71,9 @@ public class CompressorPlugin {
 		String cacheControl = response.getHeader("cache-control");
 		if(cacheControl != null && cacheControl.contains("no-transform"))
 			return;
+		String surrogateControl = response.getHeader("surrogate-control");
+		if(surrogateControl != null && surrogateControl.contains("ESI/1.0")) // ESI template, processed by a surrogate (cache) later
+			return;
 
 		String ctype = response.getHeader("content-type");
 		if(ctype == null)
@@ -80,29 +85,9 @@ public class CompressorPlugin {
 			return;
 
 		HTTPRequest request = response.getOther();
-		String acceptEncoding = request.getHeader("accept-encoding");
-		if(acceptEncoding == null)
+		String selectedEncoding = this.selectEncoding(request.getHeader("accept-encoding"));
+		if(selectedEncoding == null)
 			return;
-		String[] encodings = acceptEncoding.split(",");
-		String availableEncoding = null;
-		String selectedEncoding = null;
-		for(int i = 0; i < encodings.length; i++){
-			String enc = encodings[i].trim();
-			int pind = enc.indexOf(';');
-			if(pind > 0)
-				enc = enc.substring(0, pind).trim();
-			if(availableEncoding == null && CompressorPlugin.compressors.containsKey(enc))
-				availableEncoding = enc;
-			if(enc.equals(this.preferredCompressor)){
-				selectedEncoding = enc;
-				break;
-			}
-		}
-		if(selectedEncoding == null){
-			if(availableEncoding == null)
-				return;
-			selectedEncoding = availableEncoding;
-		}
 
 		Supplier<Compressor> compressorSupplier = CompressorPlugin.compressors.get(selectedEncoding);
 		if(compressorSupplier == null){
@@ -131,6 +116,24 @@ public class CompressorPlugin {
 	}
 
 
+	private String selectEncoding(String acceptEncoding) {
+		if(acceptEncoding == null)
+			return null;
+		String[] encodings = acceptEncoding.split(",");
+		String availableEncoding = null;
+		for(int i = 0; i < encodings.length; i++){
+			String enc = encodings[i].trim();
+			int pind = enc.indexOf(';');
+			if(pind > 0)
+				enc = enc.substring(0, pind).trim();
+			if(availableEncoding == null && CompressorPlugin.compressors.containsKey(enc))
+				availableEncoding = enc;
+			if(enc.equals(this.preferredCompressor))
+				return enc;
+		}
+		return availableEncoding;
+	}
+
 	private synchronized boolean isMimeTypeEnabled(String mt) {
 		return this.enabledMimeTypes.contains(mt);
 	}
@@ -14,6 +14,7 @@ package org.omegazero.proxyplugin.vhost;
 import java.net.InetAddress;
 import java.net.UnknownHostException;
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
@@ -38,18 +39,23 @@ public class VirtualHostPlugin {
 
 	private static final Logger logger = LoggerUtil.createLogger();
 
+	private static volatile List<VirtualHost> configuredHosts = Collections.emptyList();
+
 
 	private Map<String, ConfigObject> templates = new HashMap<>();
 	private VHostNode rootNode;
+	private List<VirtualHost> hosts;
 
 	@ExtendedPluginConfiguration
 	public synchronized void configurationReload(ConfigObject config) throws UnknownHostException {
 		this.templates.clear();
 		this.rootNode = new VHostNode();
+		this.hosts = new ArrayList<>();
 
 		ConfigArray hostsArray = config.optArray("hosts");
 		if(hostsArray == null){
 			logger.warn("hosts array was not configured, this plugin will have no effect");
+			VirtualHostPlugin.configuredHosts = Collections.emptyList();
 			return;
 		}
 
@@ -81,6 +87,7 @@ public class VirtualHostPlugin {
 			}else
 				throw new IllegalArgumentException("'hostname' must either be a string or an array");
 		}
+		VirtualHostPlugin.configuredHosts = Collections.unmodifiableList(this.hosts);
 	}
 
 	private VirtualHost getVHost(String hostnamePath, String dpath, ConfigObject host) throws UnknownHostException {
@@ -200,6 +207,7 @@ public class VirtualHostPlugin {
 			}
 		}
 		cnode.addHost(vhost);
+		this.hosts.add(vhost);
 	}
 
 
@@ -280,6 +288,16 @@ public class VirtualHostPlugin {
 	}
 
 
+	/**
+	 * Returns all virtual hosts of the current configuration of this plugin.
+	 *
+	 * @return An unmodifiable list of the configured virtual hosts
+	 */
+	public static List<VirtualHost> getConfiguredHosts() {
+		return VirtualHostPlugin.configuredHosts;
+	}
+
+
 	private static class VHostNode {
 
 		public Map<String, VHostNode> next = new HashMap<>();